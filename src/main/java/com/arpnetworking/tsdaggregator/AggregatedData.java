@@ -2,10 +2,12 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
 import com.google.common.base.Objects;
+import com.google.common.primitives.Doubles;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -25,6 +27,9 @@ public final class AggregatedData {
     private final Period _period;
     @Nonnull
     private final List<Double> _samples;
+    private final int _sampleCount;
+    @Nonnull
+    private final List<Double> _valueCounts;
 
     public AggregatedData(final Statistic statistic, final String service, final String host, final String metric,
                           final double value, final DateTime periodStart, final Period period, final Double[] samples) {
@@ -36,6 +41,42 @@ public final class AggregatedData {
         _periodStart = periodStart;
         _period = period;
         _samples = Arrays.asList(samples);
+        _sampleCount = samples.length;
+        _valueCounts = Collections.emptyList();
+    }
+
+    public AggregatedData(final Statistic statistic, final String service, final String host, final String metric,
+                          final double value, final DateTime periodStart, final Period period, final double[] samples) {
+        this(statistic, service, host, metric, value, periodStart, period, samples, samples.length, new double[0]);
+    }
+
+    /**
+     * Creates aggregated data for a period whose raw samples may not have been kept.
+     *
+     * @param statistic the statistic
+     * @param service the service
+     * @param host the host
+     * @param metric the metric
+     * @param value the value of the statistic
+     * @param periodStart the start of the period
+     * @param period the period
+     * @param samples the raw samples, empty if they were not kept
+     * @param sampleCount the number of samples in the period
+     * @param valueCounts value and count pairs of a histogram of the samples, empty if there is none
+     */
+    public AggregatedData(final Statistic statistic, final String service, final String host, final String metric,
+                          final double value, final DateTime periodStart, final Period period, final double[] samples,
+                          final int sampleCount, final double[] valueCounts) {
+        _statistic = statistic;
+        _service = service;
+        _host = host;
+        _metric = metric;
+        _value = value;
+        _periodStart = periodStart;
+        _period = period;
+        _samples = Doubles.asList(samples);
+        _sampleCount = sampleCount;
+        _valueCounts = Doubles.asList(valueCounts);
     }
 
     public Period getPeriod() {
@@ -71,6 +112,15 @@ public final class AggregatedData {
         return _samples;
     }
 
+    public int getSampleCount() {
+        return _sampleCount;
+    }
+
+    @Nonnull
+    public List<Double> getValueCounts() {
+        return _valueCounts;
+    }
+
     @Override
     public boolean equals(@Nullable final Object o) {
         if (this == o) {
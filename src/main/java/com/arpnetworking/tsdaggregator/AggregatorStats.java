@@ -0,0 +1,66 @@
+package com.arpnetworking.tsdaggregator;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the parse problem counts and the metric counts of the aggregator as a platform MBean.
+ *
+ * @author barp
+ */
+public class AggregatorStats implements AggregatorStatsMXBean {
+    public static final String OBJECT_NAME = "com.arpnetworking.tsdaggregator:type=AggregatorStats";
+    private static final Logger LOGGER = Logger.getLogger(AggregatorStats.class);
+    @Nonnull
+    private final ParseErrors _parseErrors;
+    @Nullable
+    private final LineProcessor _processor;
+
+    /**
+     * Creates the stats.
+     *
+     * @param parseErrors the parse problem counts
+     * @param processor the line processor, null when the files are backfilled
+     */
+    public AggregatorStats(@Nonnull ParseErrors parseErrors, @Nullable LineProcessor processor) {
+        _parseErrors = parseErrors;
+        _processor = processor;
+    }
+
+    /**
+     * Registers the stats with the platform MBean server.  Failing to register is logged and otherwise ignored.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.warn("Could not register aggregator stats", e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getParseErrorCounts() {
+        return _parseErrors.getCounts();
+    }
+
+    @Override
+    public Map<String, String> getParseErrorExamples() {
+        return _parseErrors.getExamples();
+    }
+
+    @Override
+    public int getMetricCount() {
+        return _processor == null ? 0 : _processor.getMetricCount();
+    }
+
+    @Override
+    public long getRejectedMetricCount() {
+        return _processor == null ? 0 : _processor.getRejectedMetricCount();
+    }
+}
@@ -0,0 +1,38 @@
+package com.arpnetworking.tsdaggregator;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the health of the aggregator over JMX.
+ *
+ * @author barp
+ */
+public interface AggregatorStatsMXBean {
+    /**
+     * Gets the number of problems found parsing lines, by type.
+     *
+     * @return the counts by type
+     */
+    Map<String, Long> getParseErrorCounts();
+
+    /**
+     * Gets the latest logged example of each type of parse problem.
+     *
+     * @return the examples by type
+     */
+    Map<String, String> getParseErrorExamples();
+
+    /**
+     * Gets the number of metrics being aggregated.
+     *
+     * @return the number of metrics
+     */
+    int getMetricCount();
+
+    /**
+     * Gets the number of times a new metric name was turned away because the maximum number of metrics was reached.
+     *
+     * @return the number of rejected metric names
+     */
+    long getRejectedMetricCount();
+}
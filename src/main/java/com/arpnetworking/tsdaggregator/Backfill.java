@@ -0,0 +1,358 @@
+package com.arpnetworking.tsdaggregator;
+
+import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
+import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.math.LongMath;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Aggregates a set of files that are not tailed by reading and parsing them in parallel.
+ *
+ * Each file is read on a fork join pool into a partial aggregation of its own, holding the aggregated samples of
+ * each metric in slices keyed by the slice start.  A slice is as long as the largest length dividing both an hour and every
+ * period, so it falls inside exactly one period of each aggregation.  Partials are merged pairwise as the tasks
+ * join, and the merged slices of each metric are then merged in time order into the aggregations, so samples land
+ * in the period they belong to however the files interleave in time.  The publisher is only called from the
+ * thread running the backfill.
+ *
+ * A slice keeps what an aggregation's period would keep for the metric's statistics: the summary and accumulators,
+ * or a sketch, when those answer every statistic, so memory grows with the number of metrics and slices rather than
+ * with the number of samples.  Only metrics with a statistic that needs the raw samples hold them until every file
+ * has been read.
+ *
+ * @author barp
+ */
+public class Backfill {
+    private static final Logger LOGGER = Logger.getLogger(Backfill.class);
+    private static final long MILLIS_PER_HOUR = 3600000L;
+    private static final TSAggregation.RotationListener NO_LISTENER = new TSAggregation.RotationListener() {
+        @Override
+        public void rotated(@Nonnull TSAggregation aggregation) {
+        }
+    };
+    private final Class<? extends LogParser> _parserClass;
+    private final boolean _memoryMap;
+    private final boolean _rollUp;
+    private final Set<Statistic> _timerStatisticsClasses;
+    private final Set<Statistic> _counterStatisticsClasses;
+    private final Set<Statistic> _gaugeStatisticsClasses;
+    private final String _hostName;
+    private final String _serviceName;
+    private final Set<Period> _periods;
+    private final AggregationPublisher _listener;
+    private final long _sliceMillis;
+
+    /**
+     * Creates a backfill.
+     *
+     * @param parserClass the parser class, an instance is created for each file
+     * @param memoryMap whether to memory map the files
+     * @param rollUp whether to build longer periods from shorter ones
+     * @param timerStatisticsClasses statistics for timers
+     * @param counterStatisticsClasses statistics for counters
+     * @param gaugeStatisticsClasses statistics for gauges
+     * @param hostName the host name
+     * @param serviceName the service name
+     * @param periods the aggregation periods
+     * @param listener the publisher to send aggregations to
+     */
+    public Backfill(@Nonnull Class<? extends LogParser> parserClass, boolean memoryMap, boolean rollUp,
+                    Set<Statistic> timerStatisticsClasses, Set<Statistic> counterStatisticsClasses,
+                    Set<Statistic> gaugeStatisticsClasses, String hostName, String serviceName,
+                    @Nonnull Set<Period> periods, AggregationPublisher listener) {
+        _parserClass = parserClass;
+        _memoryMap = memoryMap;
+        _rollUp = rollUp;
+        _timerStatisticsClasses = timerStatisticsClasses;
+        _counterStatisticsClasses = counterStatisticsClasses;
+        _gaugeStatisticsClasses = gaugeStatisticsClasses;
+        _hostName = hostName;
+        _serviceName = serviceName;
+        _periods = periods;
+        _listener = listener;
+        _sliceMillis = sliceLength(periods);
+    }
+
+    /**
+     * Gets the longest length dividing an hour and every period of a fixed length.  Periods of months and years start
+     * on the hour, so an hour divides them as far as alignment goes.
+     *
+     * @param periods the periods
+     * @return the slice length in milliseconds
+     */
+    static long sliceLength(@Nonnull Set<Period> periods) {
+        long slice = MILLIS_PER_HOUR;
+        for (@Nonnull Period period : periods) {
+            long length = TSData.fixedLength(period);
+            if (length > 0) {
+                slice = LongMath.gcd(slice, length);
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Reads, aggregates and publishes a set of files.
+     *
+     * @param files the file names
+     * @param threads the number of threads reading files
+     */
+    public void run(@Nonnull List<String> files, int threads) {
+        if (files.isEmpty()) {
+            return;
+        }
+        @Nonnull ForkJoinPool pool = new ForkJoinPool(threads);
+        @Nonnull Partial merged;
+        try {
+            merged = pool.invoke(new ReadTask(files, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+        emit(merged);
+    }
+
+    private void emit(@Nonnull Partial partial) {
+        //sorted so the output is the same from run to run
+        @Nonnull TreeMap<String, MetricPartial> metrics = new TreeMap<String, MetricPartial>(partial.getMetrics());
+        while (!metrics.isEmpty()) {
+            @Nonnull Map.Entry<String, MetricPartial> entry = metrics.pollFirstEntry();
+            @Nonnull MetricPartial metric = entry.getValue();
+            @Nonnull TSData data = new TSData(entry.getKey(), _periods, _listener, _hostName, _serviceName,
+                    statisticsFor(metric.getKind()), NO_LISTENER, _rollUp);
+            for (@Nonnull Slice slice : metric.getSlices().values()) {
+                //the middle of the slice, its start can be the end of the previous period
+                @Nonnull DateTime time = new DateTime(slice.getStartMillis() + _sliceMillis / 2, slice.getZone());
+                data.addPartial(slice.getPartial(), time);
+                data.emitRetired();
+            }
+            data.close();
+        }
+    }
+
+    @Nonnull
+    private Set<Statistic> statisticsFor(@Nonnull CounterVariable.MetricKind kind) {
+        switch (kind) {
+            case Counter:
+                return _counterStatisticsClasses;
+            case Timer:
+                return _timerStatisticsClasses;
+            case Gauge:
+                return _gaugeStatisticsClasses;
+            default:
+                LOGGER.warn("unknown metric kind, defaulting to counter statistics. metricKind = " + kind.toString());
+                return _counterStatisticsClasses;
+        }
+    }
+
+    /**
+     * Reads a range of the files, splitting it in two until there is a single file.
+     */
+    private final class ReadTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> _files;
+        private final int _from;
+        private final int _to;
+
+        private ReadTask(@Nonnull List<String> files, int from, int to) {
+            _files = files;
+            _from = from;
+            _to = to;
+        }
+
+        @Nonnull
+        @Override
+        protected Partial compute() {
+            if (_to - _from == 1) {
+                return readFile(_files.get(_from));
+            }
+            int middle = (_from + _to) >>> 1;
+            @Nonnull ReadTask second = new ReadTask(_files, middle, _to);
+            second.fork();
+            @Nonnull Partial first = new ReadTask(_files, _from, middle).compute();
+            first.merge(second.join());
+            return first;
+        }
+    }
+
+    @Nonnull
+    private Partial readFile(@Nonnull String file) {
+        @Nonnull Partial partial = new Partial();
+        @Nonnull LogParser parser;
+        try {
+            parser = _parserClass.newInstance();
+        } catch (@Nonnull InstantiationException e) {
+            LOGGER.error("Could not instantiate parser class", e);
+            return partial;
+        } catch (@Nonnull IllegalAccessException e) {
+            LOGGER.error("Could not instantiate parser class", e);
+            return partial;
+        }
+        LOGGER.info("Reading file " + file);
+        try {
+            LogFileReader.read(file, _memoryMap, new PartialSink(parser, partial));
+        } catch (IOException e) {
+            LOGGER.error("Error reading file " + file, e);
+        }
+        return partial;
+    }
+
+    /**
+     * Parses lines into a partial aggregation.
+     */
+    private static final class PartialSink implements LineSink {
+        private final LogParser _parser;
+        private final Partial _partial;
+
+        private PartialSink(@Nonnull LogParser parser, @Nonnull Partial partial) {
+            _parser = parser;
+            _partial = partial;
+        }
+
+        @Override
+        public void invoke(String line) {
+            _partial.add(_parser.parseLogLine(line));
+        }
+
+        @Override
+        public void invoke(@Nonnull byte[] line, int offset, int length) {
+            _partial.add(LineProcessor.parse(_parser, line, offset, length));
+        }
+    }
+
+    /**
+     * The samples read from some of the files.
+     */
+    final class Partial {
+        private final Map<String, MetricPartial> _metrics = Maps.newHashMap();
+
+        public void add(@Nonnull Optional<LogLine> optionalData) {
+            if (!optionalData.isPresent()) {
+                return;
+            }
+            @Nonnull LogLine data = optionalData.get();
+            long millis = data.getTime().getMillis();
+            @Nonnull DateTimeZone zone = data.getTime().getZone();
+            long start = TSAggregation.periodStart(millis, zone, _sliceMillis);
+            for (@Nonnull Map.Entry<String, CounterVariable> entry : data.getVariables().entrySet()) {
+                @Nullable MetricPartial metric = _metrics.get(entry.getKey());
+                if (metric == null) {
+                    @Nonnull CounterVariable.MetricKind kind = entry.getValue().getMetricKind();
+                    metric = new MetricPartial(kind, statisticsFor(kind));
+                    _metrics.put(entry.getKey(), metric);
+                }
+                metric.add(start, zone, entry.getValue());
+            }
+        }
+
+        /**
+         * Moves the samples of another partial into this one.
+         *
+         * @param other the other partial
+         */
+        public void merge(@Nonnull Partial other) {
+            for (@Nonnull Map.Entry<String, MetricPartial> entry : other._metrics.entrySet()) {
+                @Nullable MetricPartial metric = _metrics.get(entry.getKey());
+                if (metric == null) {
+                    _metrics.put(entry.getKey(), entry.getValue());
+                } else {
+                    metric.merge(entry.getValue());
+                }
+            }
+        }
+
+        @Nonnull
+        public Map<String, MetricPartial> getMetrics() {
+            return _metrics;
+        }
+    }
+
+    /**
+     * The samples of one metric, by slice start.
+     */
+    static final class MetricPartial {
+        private final CounterVariable.MetricKind _kind;
+        private final Set<Statistic> _statistics;
+        private final TreeMap<Long, Slice> _slices = new TreeMap<Long, Slice>();
+
+        private MetricPartial(@Nonnull CounterVariable.MetricKind kind, @Nonnull Set<Statistic> statistics) {
+            _kind = kind;
+            _statistics = statistics;
+        }
+
+        private void add(long start, @Nonnull DateTimeZone zone, @Nonnull CounterVariable variable) {
+            @Nullable Slice slice = _slices.get(start);
+            if (slice == null) {
+                slice = new Slice(start, zone, new TSAggregation.Partial(_statistics));
+                _slices.put(start, slice);
+            }
+            for (int x = 0; x < variable.getValueCount(); x++) {
+                slice.getPartial().add(variable.getValue(x));
+            }
+        }
+
+        private void merge(@Nonnull MetricPartial other) {
+            for (@Nonnull Map.Entry<Long, Slice> entry : other._slices.entrySet()) {
+                @Nullable Slice slice = _slices.get(entry.getKey());
+                if (slice == null) {
+                    _slices.put(entry.getKey(), entry.getValue());
+                } else {
+                    slice.getPartial().merge(entry.getValue().getPartial());
+                }
+            }
+        }
+
+        @Nonnull
+        public CounterVariable.MetricKind getKind() {
+            return _kind;
+        }
+
+        @Nonnull
+        public TreeMap<Long, Slice> getSlices() {
+            return _slices;
+        }
+    }
+
+    /**
+     * The aggregated samples of one metric in one slice.
+     */
+    static final class Slice {
+        private final long _startMillis;
+        private final DateTimeZone _zone;
+        private final TSAggregation.Partial _partial;
+
+        private Slice(long startMillis, @Nonnull DateTimeZone zone, @Nonnull TSAggregation.Partial partial) {
+            _startMillis = startMillis;
+            _zone = zone;
+            _partial = partial;
+        }
+
+        public long getStartMillis() {
+            return _startMillis;
+        }
+
+        @Nonnull
+        public DateTimeZone getZone() {
+            return _zone;
+        }
+
+        @Nonnull
+        public TSAggregation.Partial getPartial() {
+            return _partial;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.arpnetworking.tsdaggregator;
+
+import com.google.common.base.Optional;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A log parser that can also parse UTF-8 encoded lines without decoding them to strings first.
+ *
+ * @author barp
+ */
+public interface ByteLogParser extends LogParser {
+    /**
+     * Parses a UTF-8 encoded line.  The bytes may be reused by the caller once this returns.
+     *
+     * @param line the buffer holding the line
+     * @param offset the offset of the line in the buffer
+     * @param length the length of the line, without the line terminator
+     * @return the parsed line, absent if it could not be parsed
+     */
+    @Nonnull
+    Optional<LogLine> parseLogLine(@Nonnull byte[] line, int offset, int length);
+}
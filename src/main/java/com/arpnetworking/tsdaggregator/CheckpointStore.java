@@ -0,0 +1,170 @@
+package com.arpnetworking.tsdaggregator;
+
+import com.google.common.base.Charsets;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Records how far each tailed file has been read, so a restarted process resumes where the last one stopped.
+ *
+ * A checkpoint is the file key (the device and inode on unix) and the offset just past the last complete line handed
+ * to the line processor.  Checkpoints are written to a small properties file, keyed by absolute path, by a daemon
+ * thread every few seconds; the owner saves them once more at shutdown, after the tailers have stopped.  The file is
+ * written to a temporary file first and moved over the old one, so a crash never leaves a partial state file.  Lines
+ * that were handed out but not yet emitted when the process dies are not read again.
+ *
+ * @author barp
+ */
+public class CheckpointStore {
+    private static final Logger LOGGER = Logger.getLogger(CheckpointStore.class);
+    private static final long SAVE_INTERVAL_MILLIS = 5000;
+    @Nonnull
+    private final File _file;
+    private final Map<String, Checkpoint> _checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+    private final AtomicBoolean _dirty = new AtomicBoolean();
+
+    /**
+     * Creates a store, loading the checkpoints already in the file if it exists.
+     *
+     * @param file the state file
+     */
+    public CheckpointStore(@Nonnull File file) {
+        _file = file.getAbsoluteFile();
+        load();
+    }
+
+    private void load() {
+        if (!_file.exists()) {
+            return;
+        }
+        @Nonnull Properties properties = new Properties();
+        try {
+            @Nonnull Reader reader = new InputStreamReader(new FileInputStream(_file), Charsets.UTF_8);
+            try {
+                properties.load(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not read checkpoints from " + _file + ", files will be read from the start", e);
+            return;
+        }
+        for (@Nonnull String path : properties.stringPropertyNames()) {
+            @Nonnull String value = properties.getProperty(path);
+            int split = value.indexOf(' ');
+            try {
+                long offset = Long.parseLong(split < 0 ? value : value.substring(0, split));
+                _checkpoints.put(path, new Checkpoint(split < 0 ? "" : value.substring(split + 1), offset));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring bad checkpoint for " + path + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Starts saving the checkpoints periodically.
+     */
+    public void start() {
+        @Nonnull Thread saver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(SAVE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    saveIfChanged();
+                }
+            }
+        }, "tsd-checkpoints");
+        saver.setDaemon(true);
+        saver.start();
+    }
+
+    @Nullable
+    public Checkpoint get(@Nonnull String path) {
+        return _checkpoints.get(path);
+    }
+
+    public void update(@Nonnull String path, @Nonnull String fileKey, long offset) {
+        @Nullable Checkpoint previous = _checkpoints.put(path, new Checkpoint(fileKey, offset));
+        if (previous == null || previous.getOffset() != offset || !previous.getFileKey().equals(fileKey)) {
+            _dirty.set(true);
+        }
+    }
+
+    private void saveIfChanged() {
+        if (_dirty.getAndSet(false)) {
+            try {
+                save();
+            } catch (IOException e) {
+                _dirty.set(true);
+                LOGGER.error("Could not write checkpoints to " + _file, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the checkpoints to the state file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        @Nonnull Properties properties = new Properties();
+        for (@Nonnull Map.Entry<String, Checkpoint> entry : _checkpoints.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().getOffset() + " " + entry.getValue().getFileKey());
+        }
+        @Nonnull File temp = new File(_file.getPath() + ".tmp");
+        @Nonnull FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            @Nonnull Writer writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+            properties.store(writer, "tsd-aggregator read offsets");
+            writer.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * How far a file was read.
+     */
+    public static final class Checkpoint {
+        @Nonnull
+        private final String _fileKey;
+        private final long _offset;
+
+        public Checkpoint(@Nonnull String fileKey, long offset) {
+            _fileKey = fileKey;
+            _offset = offset;
+        }
+
+        @Nonnull
+        public String getFileKey() {
+            return _fileKey;
+        }
+
+        public long getOffset() {
+            return _offset;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.arpnetworking.tsdaggregator;
 
+import com.arpnetworking.tsdaggregator.publishing.AggServerPublisher;
+import com.arpnetworking.tsdaggregator.statistics.HistogramTPStatistic;
+import com.arpnetworking.tsdaggregator.statistics.SketchTPStatistic;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.TPStatistic;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -17,8 +21,10 @@ import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Class to parse command line arguments and build a Config object from them.
@@ -26,6 +32,8 @@ import javax.annotation.Nonnull;
  * @author barp
  */
 class CommandLineParser {
+    private static final Pattern PERCENTILE_PATTERN =
+            Pattern.compile("(sketch-|histogram-|linear-)?p([0-9]{1,3}(?:\\.[0-9]+)?)");
     private final Option _inputFileOption = Option.builder("f").argName("input_file").longOpt("file").hasArgs()
             .desc("file to be parsed").build();
     private final Option _serviceOption = Option.builder("s").argName("service").longOpt("service").hasArg()
@@ -62,12 +70,38 @@ class CommandLineParser {
             .argName("port").desc("starts the cluster-level aggregation server").build();
     private final Option _upstreamAgg = Option.builder().longOpt("upstreamagg").hasArg()
             .argName("host").desc("send data to an upstream cluster aggregator").build();
+    private final Option _upstreamSamplesOption = Option.builder().longOpt("upstreamsamples").hasArg()
+            .argName("mode").desc("how samples are sent upstream: each (default, with every statistic), once (in "
+                    + "one record per metric and period) or histogram (as a histogram, once per metric and period)")
+            .build();
     private final Option _configFilesOption = Option.builder().longOpt("config").hasArgs().argName("file")
             .desc("read config files for configuration sets").build();
     private final  Option _redisServer = Option.builder("r").longOpt("redis").hasArgs().argName("server")
             .desc("redis server to bootstrap agg server").build();
     private final Option _carbonServer = Option.builder().longOpt("carbon").hasArg()
             .argName("host").desc("send data to a carbon server").build();
+    private final Option _parsersOption = Option.builder().longOpt("parsers").hasArg().argName("count")
+            .desc("number of threads parsing log lines, more than one runs the sharded pipeline").build();
+    private final Option _shardsOption = Option.builder().longOpt("shards").hasArg().argName("count")
+            .desc("number of aggregation threads, metrics are partitioned across them by name").build();
+    private final Option _rollUpOption = Option.builder().longOpt("rollup").hasArg(false)
+            .desc("build longer periods by merging shorter ones that divide an hour").build();
+    private final Option _memoryMapOption = Option.builder().longOpt("mmap").hasArg(false)
+            .desc("memory map files that are not tailed and parse their lines without decoding them").build();
+    private final Option _backfillOption = Option.builder().longOpt("backfill").hasArg().argName("count")
+            .desc("number of threads reading and parsing files in parallel when not tailing").build();
+    private final Option _checkpointOption = Option.builder().longOpt("checkpoint").hasArg().argName("file")
+            .desc("record how far tailed files were read and resume from there on restart").build();
+    private final Option _snapshotOption = Option.builder().longOpt("snapshot").hasArg().argName("file")
+            .desc("save open periods of tailed files at shutdown and restore them on restart, requires --checkpoint")
+            .build();
+    private final Option _maxMetricsOption = Option.builder().longOpt("maxmetrics").hasArg().argName("count")
+            .desc("maximum number of distinct metrics aggregated").build();
+    private final Option _overflowOption = Option.builder().longOpt("overflow").hasArg().argName("policy")
+            .desc("what to do with new metrics past the maximum: drop (default) or aggregate into an overflow metric")
+            .build();
+    private final Option _idlePeriodsOption = Option.builder().longOpt("idleperiods").hasArg().argName("count")
+            .desc("forget metrics after this many consecutive empty periods").build();
     private final Options _options = new Options();
     private final HostResolver _hostResolver;
 
@@ -90,15 +124,33 @@ class CommandLineParser {
         _options.addOption(_monitordOption);
         _options.addOption(_clusterAgg);
         _options.addOption(_upstreamAgg);
+        _options.addOption(_upstreamSamplesOption);
         _options.addOption(_configFilesOption);
         _options.addOption(_redisServer);
         _options.addOption(_carbonServer);
+        _options.addOption(_parsersOption);
+        _options.addOption(_shardsOption);
+        _options.addOption(_rollUpOption);
+        _options.addOption(_memoryMapOption);
+        _options.addOption(_backfillOption);
+        _options.addOption(_checkpointOption);
+        _options.addOption(_snapshotOption);
+        _options.addOption(_maxMetricsOption);
+        _options.addOption(_overflowOption);
+        _options.addOption(_idlePeriodsOption);
         this._hostResolver = hostResolver;
     }
 
     private static void buildStats(@Nonnull Set<Statistic> statsClasses, @Nonnull String[] statisticsStrings)
             throws ConfigException {
         for (String statString : statisticsStrings) {
+            if (!Configuration.Builder.STATISTIC_MAP.containsKey(statString)) {
+                @Nullable Statistic percentile = parsePercentile(statString);
+                if (percentile != null) {
+                    addStatistic(statsClasses, percentile);
+                    continue;
+                }
+            }
             try {
                 Class statClass;
                 if (Configuration.Builder.STATISTIC_MAP.containsKey(statString)) {
@@ -114,7 +166,7 @@ class CommandLineParser {
                 }
                 try {
                     stat = (Statistic) statClass.newInstance();
-                    statsClasses.add(stat);
+                    addStatistic(statsClasses, stat);
                 } catch (@Nonnull InstantiationException ex) {
                     @Nonnull final String error = "Could not instantiate statistic [" + statString + "]";
                     throw new ConfigException(error, ex);
@@ -129,6 +181,67 @@ class CommandLineParser {
         }
     }
 
+    /**
+     * Adds a statistic to a set, rejecting a different statistic with the same name since the two would be published
+     * as the same metric, e.g. p99 and sketch-p99.
+     *
+     * @param statsClasses the statistics
+     * @param stat the statistic to add
+     * @throws ConfigException if a different statistic in the set has the same name
+     */
+    private static void addStatistic(@Nonnull Set<Statistic> statsClasses, @Nonnull Statistic stat)
+            throws ConfigException {
+        for (@Nonnull Statistic existing : statsClasses) {
+            if (existing.getName().equals(stat.getName()) && !existing.equals(stat)) {
+                throw new ConfigException("statistics [" + existing.getClass().getName() + "] and [" +
+                        stat.getClass().getName() + "] are both named [" + stat.getName() + "]");
+            }
+        }
+        statsClasses.add(stat);
+    }
+
+    /**
+     * Creates a percentile statistic from a name like p99.95, optionally prefixed with how it is calculated: sketch-
+     * and histogram- for the approximations, linear- for linear interpolation between samples.
+     *
+     * @param statString the name
+     * @return the statistic, or null if the name is not a percentile
+     * @throws ConfigException if the percentile is out of range
+     */
+    @Nullable
+    private static Statistic parsePercentile(@Nonnull String statString) throws ConfigException {
+        @Nonnull Matcher matcher = PERCENTILE_PATTERN.matcher(statString);
+        if (!matcher.matches()) {
+            return null;
+        }
+        double percentile = Double.parseDouble(matcher.group(2));
+        if (percentile > 100) {
+            throw new ConfigException("percentile must be between 0 and 100, was " + statString);
+        }
+        @Nullable String method = matcher.group(1);
+        if (method == null) {
+            return new TPStatistic(percentile);
+        } else if (method.equals("sketch-")) {
+            return new SketchTPStatistic(percentile);
+        } else if (method.equals("histogram-")) {
+            return new HistogramTPStatistic(percentile);
+        }
+        return new TPStatistic(percentile, TPStatistic.Interpolation.Linear);
+    }
+
+    private static int parsePositiveInt(String value, String name) throws ConfigException {
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ConfigException(name + " not an integer as expected", e);
+        }
+        if (count < 1) {
+            throw new ConfigException(name + " must be at least 1, was " + count);
+        }
+        return count;
+    }
+
     @Nonnull
     public Configuration parse(String[] args) throws ConfigException {
         @Nonnull org.apache.commons.cli.CommandLineParser parser = new DefaultParser();
@@ -222,6 +335,19 @@ class CommandLineParser {
             builder.aggHost(cl.getOptionValue(_upstreamAgg.getLongOpt()));
         }
 
+        if (cl.hasOption(_upstreamSamplesOption.getLongOpt())) {
+            String mode = cl.getOptionValue(_upstreamSamplesOption.getLongOpt());
+            if (mode.equals("each")) {
+                builder.upstreamSampleMode(AggServerPublisher.SampleMode.Each);
+            } else if (mode.equals("once")) {
+                builder.upstreamSampleMode(AggServerPublisher.SampleMode.Once);
+            } else if (mode.equals("histogram")) {
+                builder.upstreamSampleMode(AggServerPublisher.SampleMode.Histogram);
+            } else {
+                throw new ConfigException("upstream samples must be each, once or histogram, was " + mode);
+            }
+        }
+
         if (cl.hasOption(_carbonServer.getLongOpt())) {
             builder.carbon(cl.getOptionValue(_carbonServer.getLongOpt()));
         }
@@ -249,6 +375,57 @@ class CommandLineParser {
             builder.redisHost(cl.getOptionValues(_redisServer.getLongOpt()));
         }
 
+        if (cl.hasOption(_parsersOption.getLongOpt())) {
+            builder.parserThreads(parsePositiveInt(cl.getOptionValue(_parsersOption.getLongOpt()), "parsers"));
+        }
+
+        if (cl.hasOption(_shardsOption.getLongOpt())) {
+            builder.aggregationShards(parsePositiveInt(cl.getOptionValue(_shardsOption.getLongOpt()), "shards"));
+        }
+
+        if (cl.hasOption(_rollUpOption.getLongOpt())) {
+            builder.rollUp(true);
+        }
+
+        if (cl.hasOption(_memoryMapOption.getLongOpt())) {
+            builder.memoryMap(true);
+        }
+
+        if (cl.hasOption(_backfillOption.getLongOpt())) {
+            builder.backfillThreads(parsePositiveInt(cl.getOptionValue(_backfillOption.getLongOpt()), "backfill"));
+        }
+
+        if (cl.hasOption(_checkpointOption.getLongOpt())) {
+            builder.checkpointFile(cl.getOptionValue(_checkpointOption.getLongOpt()));
+        }
+
+        if (cl.hasOption(_snapshotOption.getLongOpt())) {
+            //without the offsets the files are read from the start again and the restored periods count lines twice
+            if (!cl.hasOption(_checkpointOption.getLongOpt())) {
+                throw new ConfigException("snapshot requires a checkpoint file");
+            }
+            builder.snapshotFile(cl.getOptionValue(_snapshotOption.getLongOpt()));
+        }
+
+        if (cl.hasOption(_maxMetricsOption.getLongOpt())) {
+            builder.maxMetrics(parsePositiveInt(cl.getOptionValue(_maxMetricsOption.getLongOpt()), "maxmetrics"));
+        }
+
+        if (cl.hasOption(_overflowOption.getLongOpt())) {
+            String policy = cl.getOptionValue(_overflowOption.getLongOpt());
+            if (policy.equals("drop")) {
+                builder.overflowPolicy(MetricLimits.OverflowPolicy.Drop);
+            } else if (policy.equals("aggregate")) {
+                builder.overflowPolicy(MetricLimits.OverflowPolicy.Aggregate);
+            } else {
+                throw new ConfigException("overflow policy must be drop or aggregate, was " + policy);
+            }
+        }
+
+        if (cl.hasOption(_idlePeriodsOption.getLongOpt())) {
+            builder.idlePeriods(parsePositiveInt(cl.getOptionValue(_idlePeriodsOption.getLongOpt()), "idleperiods"));
+        }
+
         if (cl.hasOption(_inputFileOption.getLongOpt())) {
             String[] files = cl.getOptionValues(_inputFileOption.getLongOpt());
             builder.files(files);
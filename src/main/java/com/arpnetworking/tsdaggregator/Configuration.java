@@ -1,5 +1,6 @@
 package com.arpnetworking.tsdaggregator;
 
+import com.arpnetworking.tsdaggregator.publishing.AggServerPublisher;
 import com.arpnetworking.tsdaggregator.statistics.*;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -41,9 +42,20 @@ public class Configuration {
     private final String _clusterAggHost;
     private final boolean _useUpstreamAgg;
     @Nonnull
+    private final AggServerPublisher.SampleMode _upstreamSampleMode;
+    @Nonnull
     private final List<String> _configFiles;
     private final boolean _valid;
     private final List<String> _redisHosts;
+    private final int _parserThreads;
+    private final int _aggregationShards;
+    private final boolean _rollUp;
+    private final boolean _memoryMap;
+    private final int _backfillThreads;
+    private final String _checkpointFile;
+    private final String _snapshotFile;
+    @Nonnull
+    private final MetricLimits _metricLimits;
 
     public String getClusterAggHost() {
         return _clusterAggHost;
@@ -72,11 +84,21 @@ public class Configuration {
         _clusterAggServerPort = builder.getClusterAggPort();
         _clusterAggHost = builder.getClusterAggHost();
         _useUpstreamAgg = builder.shouldUseUpstreamAgg();
+        _upstreamSampleMode = builder.getUpstreamSampleMode();
         _configFiles = builder.getConfigFiles();
         _valid = builder.isValid();
         _redisHosts = builder.getRedisHosts();
         _useCarbon = builder.shouldUseCarbon();
         _carbonAddress = builder.getCarbonAddress();
+        _parserThreads = builder.getParserThreads();
+        _aggregationShards = builder.getAggregationShards();
+        _rollUp = builder.shouldRollUp();
+        _memoryMap = builder.shouldMemoryMap();
+        _backfillThreads = builder.getBackfillThreads();
+        _checkpointFile = builder.getCheckpointFile();
+        _snapshotFile = builder.getSnapshotFile();
+        _metricLimits = new MetricLimits(builder.getMaxMetrics(), builder.getOverflowPolicy(),
+                builder.getIdlePeriods());
     }
 
     @Nonnull
@@ -177,6 +199,11 @@ public class Configuration {
         return _useUpstreamAgg;
     }
 
+    @Nonnull
+    public AggServerPublisher.SampleMode getUpstreamSampleMode() {
+        return _upstreamSampleMode;
+    }
+
     public boolean isValid() {
         return _valid;
     }
@@ -190,6 +217,54 @@ public class Configuration {
         return _redisHosts;
     }
 
+    public int getParserThreads() {
+        return _parserThreads;
+    }
+
+    public int getAggregationShards() {
+        return _aggregationShards;
+    }
+
+    public boolean shouldRollUp() {
+        return _rollUp;
+    }
+
+    public boolean shouldMemoryMap() {
+        return _memoryMap;
+    }
+
+    /**
+     * Gets the number of threads reading files in parallel when backfilling, 0 when files are read one at a time.
+     *
+     * @return the number of backfill threads
+     */
+    public int getBackfillThreads() {
+        return _backfillThreads;
+    }
+
+    /**
+     * Gets the file recording how far each tailed file has been read, empty when no checkpoints are kept.
+     *
+     * @return the checkpoint file
+     */
+    public String getCheckpointFile() {
+        return _checkpointFile;
+    }
+
+    /**
+     * Gets the file open periods are written to at shutdown and restored from at startup, empty when none is used.
+     *
+     * @return the snapshot file
+     */
+    public String getSnapshotFile() {
+        return _snapshotFile;
+    }
+
+    @Nonnull
+    public MetricLimits getMetricLimits() {
+        return _metricLimits;
+    }
+
     /**
      * Builder for a Configuration class.
      */
@@ -229,8 +304,22 @@ public class Configuration {
                     put("p99", TP99.class);
                     put("p99.9", TP99p9.class);
                     put("p999", TP99p9.class);
+                    put("sketch-p50", SketchTP50.class);
+                    put("sketch-p90", SketchTP90.class);
+                    put("sketch-p95", SketchTP95.class);
+                    put("sketch-p99", SketchTP99.class);
+                    put("sketch-p99.9", SketchTP99p9.class);
+                    put("sketch-p999", SketchTP99p9.class);
+                    put("histogram-p50", HistogramTP50.class);
+                    put("histogram-p90", HistogramTP90.class);
+                    put("histogram-p95", HistogramTP95.class);
+                    put("histogram-p99", HistogramTP99.class);
+                    put("histogram-p99.9", HistogramTP99p9.class);
+                    put("histogram-p999", HistogramTP99p9.class);
                     put("first", FirstStatistic.class);
                     put("last", LastStatistic.class);
+                    put("variance", VarianceStatistic.class);
+                    put("stddev", StandardDeviationStatistic.class);
                 }};
         private static final String MONITORD_DEFAULT_URI = "http://monitord:8080/results";
         private static final String REMET_DEFAULT_URI = "http://localhost:7090/report";
@@ -256,6 +345,8 @@ public class Configuration {
         private boolean _clusterAggServer = false;
         private int _clusterAggPort = 7065;
         private boolean _useUpstreamAgg = false;
+        @Nonnull
+        private AggServerPublisher.SampleMode _upstreamSampleMode = AggServerPublisher.SampleMode.Each;
         private String _clusterAggHost;
         private boolean _useCarbon = false;
         private String _carbonAddress = "";
@@ -264,6 +355,17 @@ public class Configuration {
         private boolean _valid = false;
         @Nonnull
         private List<String> _redisHosts = Lists.newArrayList();
+        private int _parserThreads = 1;
+        private int _aggregationShards = 1;
+        private boolean _rollUp = false;
+        private boolean _memoryMap = false;
+        private int _backfillThreads = 0;
+        private String _checkpointFile = "";
+        private String _snapshotFile = "";
+        private int _maxMetrics = 0;
+        @Nonnull
+        private MetricLimits.OverflowPolicy _overflowPolicy = MetricLimits.OverflowPolicy.Drop;
+        private int _idlePeriods = 0;
 
         private Builder() {
         }
@@ -525,6 +627,17 @@ public class Configuration {
             return this._useUpstreamAgg;
         }
 
+        @Nonnull
+        public Builder upstreamSampleMode(@Nonnull final AggServerPublisher.SampleMode sampleMode) {
+            _upstreamSampleMode = sampleMode;
+            return this;
+        }
+
+        @Nonnull
+        public AggServerPublisher.SampleMode getUpstreamSampleMode() {
+            return _upstreamSampleMode;
+        }
+
         public boolean shouldUseCarbon() {
             return _useCarbon;
         }
@@ -557,5 +670,106 @@ public class Configuration {
             _redisHosts.addAll(Arrays.asList(hosts));
             return this;
         }
+
+        @Nonnull
+        public Builder parserThreads(final int threads) {
+            _parserThreads = threads;
+            return this;
+        }
+
+        public int getParserThreads() {
+            return _parserThreads;
+        }
+
+        @Nonnull
+        public Builder aggregationShards(final int shards) {
+            _aggregationShards = shards;
+            return this;
+        }
+
+        public int getAggregationShards() {
+            return _aggregationShards;
+        }
+
+        @Nonnull
+        public Builder rollUp(final boolean rollUp) {
+            _rollUp = rollUp;
+            return this;
+        }
+
+        public boolean shouldRollUp() {
+            return _rollUp;
+        }
+
+        @Nonnull
+        public Builder memoryMap(final boolean memoryMap) {
+            _memoryMap = memoryMap;
+            return this;
+        }
+
+        public boolean shouldMemoryMap() {
+            return _memoryMap;
+        }
+
+        @Nonnull
+        public Builder backfillThreads(final int threads) {
+            _backfillThreads = threads;
+            return this;
+        }
+
+        public int getBackfillThreads() {
+            return _backfillThreads;
+        }
+
+        @Nonnull
+        public Builder checkpointFile(final String checkpointFile) {
+            _checkpointFile = checkpointFile;
+            return this;
+        }
+
+        public String getCheckpointFile() {
+            return _checkpointFile;
+        }
+
+        @Nonnull
+        public Builder snapshotFile(final String snapshotFile) {
+            _snapshotFile = snapshotFile;
+            return this;
+        }
+
+        public String getSnapshotFile() {
+            return _snapshotFile;
+        }
+
+        @Nonnull
+        public Builder maxMetrics(final int maxMetrics) {
+            _maxMetrics = maxMetrics;
+            return this;
+        }
+
+        public int getMaxMetrics() {
+            return _maxMetrics;
+        }
+
+        @Nonnull
+        public Builder overflowPolicy(@Nonnull final MetricLimits.OverflowPolicy overflowPolicy) {
+            _overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        @Nonnull
+        public MetricLimits.OverflowPolicy getOverflowPolicy() {
+            return _overflowPolicy;
+        }
+
+        @Nonnull
+        public Builder idlePeriods(final int idlePeriods) {
+            _idlePeriods = idlePeriods;
+            return this;
+        }
+
+        public int getIdlePeriods() {
+            return _idlePeriods;
+        }
     }
 }
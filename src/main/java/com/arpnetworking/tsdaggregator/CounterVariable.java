@@ -1,6 +1,9 @@
 package com.arpnetworking.tsdaggregator;
 
+import com.google.common.collect.Lists;
+
 import java.util.ArrayList;
+import javax.annotation.Nonnull;
 
 /**
  * A variable and data to describe the input to a statistic calculator.
@@ -20,18 +23,50 @@ public class CounterVariable {
     }
 
     private MetricKind _metricKind = MetricKind.Counter;
-    private final ArrayList<Double> _values;
+    @Nonnull
+    private final double[] _values;
+    private ArrayList<Double> _boxedValues;
 
-    public CounterVariable(MetricKind kind, ArrayList<Double> values) {
-        this._values = values;
+    public CounterVariable(MetricKind kind, @Nonnull ArrayList<Double> values) {
         this._metricKind = kind;
+        this._boxedValues = values;
+        this._values = new double[values.size()];
+        for (int x = 0; x < _values.length; x++) {
+            _values[x] = values.get(x);
+        }
+    }
+
+    /**
+     * Creates a variable over a primitive array of values.  The array is owned by the variable after this call.
+     *
+     * @param kind the kind of metric
+     * @param values the values
+     */
+    public CounterVariable(MetricKind kind, @Nonnull double[] values) {
+        this._metricKind = kind;
+        this._values = values;
     }
 
     public MetricKind getMetricKind() {
         return _metricKind;
     }
 
+    public int getValueCount() {
+        return _values.length;
+    }
+
+    public double getValue(int index) {
+        return _values[index];
+    }
+
     public ArrayList<Double> getValues() {
-        return _values;
+        if (_boxedValues == null) {
+            @Nonnull ArrayList<Double> boxed = Lists.newArrayListWithCapacity(_values.length);
+            for (double value : _values) {
+                boxed.add(value);
+            }
+            _boxedValues = boxed;
+        }
+        return _boxedValues;
     }
 }
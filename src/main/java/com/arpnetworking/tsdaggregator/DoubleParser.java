@@ -0,0 +1,143 @@
+package com.arpnetworking.tsdaggregator;
+
+import java.nio.CharBuffer;
+import javax.annotation.Nonnull;
+
+/**
+ * Parses decimal numbers from characters in place, with the same results as Double.parseDouble.
+ *
+ * Numbers of up to 15 significant digits with a decimal exponent of at most 22 either way, which covers the values
+ * written to query logs, are converted exactly with a single multiplication or division: both operands are exact
+ * doubles, so the one rounding step gives the correctly rounded result.  Anything else (longer numbers, larger
+ * exponents, NaN, Infinity, hexadecimal and type suffixes) and malformed input is handed to Double.parseDouble.
+ *
+ * @author barp
+ */
+public final class DoubleParser {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    //any 15 digit mantissa is below 2^53, so it is an exact double
+    private static final int MAX_FAST_DIGITS = 15;
+    //past this an exponent is out of the fast range whatever the mantissa
+    private static final int MAX_EXPONENT_DIGITS = 4;
+
+    private DoubleParser() {
+    }
+
+    /**
+     * Parses a number.
+     *
+     * @param text the text
+     * @return the number
+     * @throws NumberFormatException if the text is not a number
+     */
+    public static double parse(@Nonnull CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a number from a range of characters.
+     *
+     * @param chars the characters
+     * @param offset the offset of the number
+     * @param length the length of the number
+     * @return the number
+     * @throws NumberFormatException if the range is not a number
+     */
+    public static double parse(@Nonnull char[] chars, int offset, int length) {
+        return parse(CharBuffer.wrap(chars, offset, length), 0, length);
+    }
+
+    /**
+     * Parses a number from a range of a character sequence.  Whitespace around the number is ignored.
+     *
+     * @param text the text
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the number
+     * @throws NumberFormatException if the range is not a number
+     */
+    public static double parse(@Nonnull CharSequence text, int from, int to) {
+        int start = from;
+        int end = to;
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int x = start;
+        boolean negative = false;
+        if (x < end && (text.charAt(x) == '-' || text.charAt(x) == '+')) {
+            negative = text.charAt(x) == '-';
+            x++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        for (; x < end; x++) {
+            char c = text.charAt(x);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > MAX_FAST_DIGITS) {
+                        return fallback(text, from, to);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return fallback(text, from, to);
+        }
+        if (x < end && (text.charAt(x) == 'e' || text.charAt(x) == 'E')) {
+            x++;
+            boolean negativeExponent = false;
+            if (x < end && (text.charAt(x) == '-' || text.charAt(x) == '+')) {
+                negativeExponent = text.charAt(x) == '-';
+                x++;
+            }
+            int exponentStart = x;
+            int explicit = 0;
+            for (; x < end && text.charAt(x) >= '0' && text.charAt(x) <= '9'; x++) {
+                explicit = explicit * 10 + (text.charAt(x) - '0');
+                if (x - exponentStart >= MAX_EXPONENT_DIGITS) {
+                    return fallback(text, from, to);
+                }
+            }
+            if (x == exponentStart) {
+                return fallback(text, from, to);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (x != end) {
+            return fallback(text, from, to);
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0d;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return fallback(text, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double fallback(@Nonnull CharSequence text, int from, int to) {
+        return Double.parseDouble(text.subSequence(from, to).toString());
+    }
+}
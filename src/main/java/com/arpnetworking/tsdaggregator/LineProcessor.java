@@ -2,22 +2,60 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.log4j.Logger;
 import org.joda.time.Period;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Processes lines of data from a log file.
  *
+ * With a single parser and a single shard every line is parsed and aggregated on the thread calling invoke.
+ * Otherwise lines are queued to a pool of parser threads, which route each metric to the aggregation shard owning
+ * it (by a hash of the metric name).  Each shard is a single thread that is the only writer of its TSData map, so
+ * the aggregations themselves need no locking.
+ *
+ * The number of metrics can be capped, with new names past the cap dropped or aggregated into an overflow metric
+ * per kind (and per shard, since each shard only writes its own map).  Metrics whose periods have all been empty
+ * for a number of periods can be forgotten: the closer flags them and the owning shard removes them the next time it
+ * aggregates, after checking they are still empty.
+ *
  * @author barp
  */
-public class LineProcessor {
-    private final LogParser _parser;
+public class LineProcessor implements LineSink {
+    private static final int LINE_QUEUE_CAPACITY = 16384;
+    private static final int SHARD_QUEUE_CAPACITY = 16384;
+    private static final int SNAPSHOT_MAGIC = 0x54534453;
+    private static final int SNAPSHOT_VERSION = 3;
+    private final List<LogParser> _parsers;
     private final Set<Statistic> _timerStatisticsClasses;
     private final Set<Statistic> _counterStatisticsClasses;
     private final Set<Statistic> _gaugeStatisticsClasses;
@@ -25,24 +63,73 @@ public class LineProcessor {
     private final String _serviceName;
     private final Set<Period> _periods;
     private final AggregationPublisher _listener;
+    private final boolean _rollUp;
+    @Nonnull
+    private final MetricLimits _limits;
+    private final AtomicInteger _metricCount = new AtomicInteger();
+    private final AtomicLong _rejectedMetrics = new AtomicLong();
     @Nonnull
-    private final ConcurrentHashMap<String, TSData> _aggregations;
+    private final Shard[] _shards;
+    //queued lines are either strings or UTF-8 encoded byte arrays
+    @Nullable
+    private final BlockingQueue<Object> _lines;
+    //lines and shard batches that have been queued but not yet aggregated
+    private final AtomicLong _inFlight = new AtomicLong();
+    private final List<Thread> _workers = Lists.newArrayList();
     private AggregationCloser _aggregationCloser;
+    private Thread _aggregationCloserThread;
     private static final Logger LOGGER = Logger.getLogger(LineProcessor.class);
 
-    private class AggregationCloser implements Runnable {
+    /**
+     * Rotates and emits aggregations.  Aggregations are kept in a timer wheel by the time their current period should
+     * be closed, so each check only touches the aggregations that are due.  An aggregation enters the wheel when a
+     * sample rotates it, which also covers its first sample.
+     */
+    private class AggregationCloser implements Runnable, TSAggregation.RotationListener {
         private volatile boolean _run = true;
         private final double _rotationFactor = 0.5d;
-        private final int _rotationCheckMillis = 500;
+        private final int _rotationCheckMillis = 100;
+        private final int _retryMillis = 1000;
+        private final Queue<TSAggregation> _rotated = new ConcurrentLinkedQueue<TSAggregation>();
+        private final TimerWheel<TSAggregation> _wheel =
+                new TimerWheel<TSAggregation>(_rotationCheckMillis, System.currentTimeMillis());
+        private final List<TSAggregation> _due = Lists.newArrayList();
+
+        @Override
+        public void rotated(@Nonnull TSAggregation aggregation) {
+            _rotated.add(aggregation);
+        }
 
         @Override
         public void run() {
             while (_run) {
                 try {
                     Thread.sleep(_rotationCheckMillis);
-                    for (@Nonnull Map.Entry<String, TSData> entry : _aggregations.entrySet()) {
-                        entry.getValue().checkRotate(_rotationFactor);
+                    long now = System.currentTimeMillis();
+                    @Nullable TSAggregation rotated;
+                    while ((rotated = _rotated.poll()) != null) {
+                        _wheel.schedule(rotated.getTimeout(), now);
                     }
+                    _wheel.advance(now, _due);
+                    for (@Nonnull TSAggregation aggregation : _due) {
+                        if (aggregation.isEvicted()) {
+                            //emits anything a finer period merged into it after it was found idle
+                            aggregation.close();
+                            continue;
+                        }
+                        long next;
+                        try {
+                            next = aggregation.checkRotate(now, _rotationFactor);
+                        } catch (RuntimeException e) {
+                            LOGGER.error("Error rotating aggregation", e);
+                            next = now + _retryMillis;
+                        }
+                        if (_limits.getIdlePeriods() > 0 && aggregation.getIdlePeriods() >= _limits.getIdlePeriods()) {
+                            _shards[shardOf(aggregation.getMetric())].markIdle(aggregation.getMetric());
+                        }
+                        _wheel.schedule(aggregation.getTimeout(), next);
+                    }
+                    _due.clear();
                 } catch (InterruptedException e) {
                     Thread.interrupted();
                     LOGGER.error("Interrupted!", e);
@@ -58,7 +145,55 @@ public class LineProcessor {
     public LineProcessor(LogParser parser, Set<Statistic> timerStatisticsClasses,
                          Set<Statistic> counterStatisticsClasses, Set<Statistic> gaugeStatisticsClasses,
                          String hostName, String serviceName, Set<Period> periods, AggregationPublisher listener) {
-        this._parser = parser;
+        this(Collections.singletonList(parser), 1, false, timerStatisticsClasses, counterStatisticsClasses,
+                gaugeStatisticsClasses, hostName, serviceName, periods, listener);
+    }
+
+    /**
+     * Creates a line processor that parses on one thread per parser and aggregates on a number of shard threads.
+     *
+     * @param parsers the parsers, one per parser thread; parsers are not shared between threads
+     * @param shards the number of aggregation shards
+     * @param rollUp whether to build longer periods from shorter ones
+     * @param timerStatisticsClasses statistics for timers
+     * @param counterStatisticsClasses statistics for counters
+     * @param gaugeStatisticsClasses statistics for gauges
+     * @param hostName the host name
+     * @param serviceName the service name
+     * @param periods the aggregation periods
+     * @param listener the publisher to send aggregations to
+     */
+    public LineProcessor(@Nonnull List<LogParser> parsers, int shards, boolean rollUp,
+                         Set<Statistic> timerStatisticsClasses,
+                         Set<Statistic> counterStatisticsClasses, Set<Statistic> gaugeStatisticsClasses,
+                         String hostName, String serviceName, Set<Period> periods, AggregationPublisher listener) {
+        this(parsers, shards, rollUp, MetricLimits.UNLIMITED, timerStatisticsClasses, counterStatisticsClasses,
+                gaugeStatisticsClasses, hostName, serviceName, periods, listener);
+    }
+
+    /**
+     * Creates a line processor that parses on one thread per parser and aggregates on a number of shard threads.
+     *
+     * @param parsers the parsers, one per parser thread; parsers are not shared between threads
+     * @param shards the number of aggregation shards
+     * @param rollUp whether to build longer periods from shorter ones
+     * @param limits the bounds on the metrics kept
+     * @param timerStatisticsClasses statistics for timers
+     * @param counterStatisticsClasses statistics for counters
+     * @param gaugeStatisticsClasses statistics for gauges
+     * @param hostName the host name
+     * @param serviceName the service name
+     * @param periods the aggregation periods
+     * @param listener the publisher to send aggregations to
+     */
+    public LineProcessor(@Nonnull List<LogParser> parsers, int shards, boolean rollUp, @Nonnull MetricLimits limits,
+                         Set<Statistic> timerStatisticsClasses,
+                         Set<Statistic> counterStatisticsClasses, Set<Statistic> gaugeStatisticsClasses,
+                         String hostName, String serviceName, Set<Period> periods, AggregationPublisher listener) {
+        if (parsers.isEmpty() || shards < 1) {
+            throw new IllegalArgumentException("at least one parser and one shard are required");
+        }
+        this._parsers = parsers;
         this._timerStatisticsClasses = timerStatisticsClasses;
         this._counterStatisticsClasses = counterStatisticsClasses;
         this._gaugeStatisticsClasses = gaugeStatisticsClasses;
@@ -66,69 +201,539 @@ public class LineProcessor {
         this._serviceName = serviceName;
         this._periods = periods;
         this._listener = listener;
-        this._aggregations = new ConcurrentHashMap<String, TSData>();
+        this._rollUp = rollUp;
+        this._limits = limits;
+
+        boolean pipelined = parsers.size() > 1 || shards > 1;
+        this._shards = new Shard[shards];
+        for (int x = 0; x < shards; x++) {
+            _shards[x] = new Shard(pipelined, shards > 1 ? "." + x : "");
+        }
+        this._lines = pipelined ? new ArrayBlockingQueue<Object>(LINE_QUEUE_CAPACITY) : null;
 
         startAggregationCloser();
+        if (pipelined) {
+            startWorkers();
+        }
     }
 
     public void shutdown() {
         _aggregationCloser.shutdown();
+        for (@Nonnull Thread worker : _workers) {
+            worker.interrupt();
+        }
     }
 
     private void startAggregationCloser() {
         _aggregationCloser = new AggregationCloser();
-        @Nonnull final Thread aggregationCloserThread = new Thread(_aggregationCloser);
-        aggregationCloserThread.setDaemon(true);
-        aggregationCloserThread.start();
+        _aggregationCloserThread = new Thread(_aggregationCloser);
+        _aggregationCloserThread.setDaemon(true);
+        _aggregationCloserThread.start();
     }
 
+    private void startWorkers() {
+        for (int x = 0; x < _shards.length; x++) {
+            startWorker(_shards[x], "tsd-shard-" + x);
+        }
+        for (int x = 0; x < _parsers.size(); x++) {
+            startWorker(new ParserWorker(_parsers.get(x)), "tsd-parser-" + x);
+        }
+    }
+
+    private void startWorker(@Nonnull Runnable worker, @Nonnull String name) {
+        @Nonnull Thread thread = new Thread(worker, name);
+        thread.setDaemon(true);
+        thread.start();
+        _workers.add(thread);
+    }
+
+    @Override
     public void invoke(String line) {
-        @Nonnull Optional<LogLine> optionalData = _parser.parseLogLine(line);
+        if (_lines == null) {
+            //several tailers can share one processor, and neither the parser nor the aggregations take concurrent use
+            @Nonnull LogParser parser = _parsers.get(0);
+            synchronized (parser) {
+                route(parser.parseLogLine(line));
+            }
+            return;
+        }
+        queue(line);
+    }
+
+    /**
+     * Processes a UTF-8 encoded line.  The bytes may be reused once this returns.
+     *
+     * @param line the buffer holding the line
+     * @param offset the offset of the line in the buffer
+     * @param length the length of the line
+     */
+    @Override
+    public void invoke(@Nonnull byte[] line, int offset, int length) {
+        if (_lines == null) {
+            @Nonnull LogParser parser = _parsers.get(0);
+            synchronized (parser) {
+                route(parse(parser, line, offset, length));
+            }
+            return;
+        }
+        queue(Arrays.copyOfRange(line, offset, offset + length));
+    }
+
+    @Nonnull
+    static Optional<LogLine> parse(@Nonnull LogParser parser, @Nonnull byte[] line, int offset, int length) {
+        if (parser instanceof ByteLogParser) {
+            return ((ByteLogParser) parser).parseLogLine(line, offset, length);
+        }
+        return parser.parseLogLine(new String(line, offset, length, Charsets.UTF_8));
+    }
+
+    private void queue(@Nonnull Object line) {
+        _inFlight.incrementAndGet();
+        try {
+            _lines.put(line);
+        } catch (InterruptedException e) {
+            _inFlight.decrementAndGet();
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while queueing line", e);
+        }
+    }
+
+    /**
+     * Hands the metrics of a parsed line to the shards that own them.
+     *
+     * @param optionalData the parsed line
+     */
+    private void route(@Nonnull Optional<LogLine> optionalData) {
         if (!optionalData.isPresent()) {
             return;
         }
 
         LogLine data = optionalData.get();
+        if (_shards.length == 1) {
+            _shards[0].submit(data);
+            return;
+        }
 
-        //Loop over all metrics
+        @Nonnull Map<String, CounterVariable>[] split = splitByShard(data);
+        for (int x = 0; x < split.length; x++) {
+            if (split[x] != null) {
+                _shards[x].submit(new StandardLogLine(split[x], data.getTime()));
+            }
+        }
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private Map<String, CounterVariable>[] splitByShard(@Nonnull LogLine data) {
+        @Nonnull Map<String, CounterVariable>[] split = new Map[_shards.length];
         for (@Nonnull Map.Entry<String, CounterVariable> entry : data.getVariables().entrySet()) {
-            //Find the TSData associated with a metric
-            TSData tsdata = _aggregations.get(entry.getKey());
-            //If the metric isn't already listed, create a new TSData for it
-            if (tsdata == null) {
-                switch (entry.getValue().getMetricKind()) {
-                    case Counter:
-                        tsdata = new TSData(entry.getKey(), _periods, _listener, _hostName, _serviceName,
-                                _counterStatisticsClasses);
-                        break;
-                    case Timer:
-                        tsdata = new TSData(entry.getKey(), _periods, _listener, _hostName, _serviceName,
-                                _timerStatisticsClasses);
-                        break;
-                    case Gauge:
-                        tsdata = new TSData(entry.getKey(), _periods, _listener, _hostName, _serviceName,
-                                _gaugeStatisticsClasses);
-                        break;
-                    default:
-                        LOGGER.warn("unknown metric kind, defaulting to counter statistics. metricKind = " +
-                                entry.getValue().getMetricKind().toString());
-                        tsdata = new TSData(entry.getKey(), _periods, _listener, _hostName, _serviceName,
-                                _counterStatisticsClasses);
-                        break;
-                }
-                TSData returned = _aggregations.putIfAbsent(entry.getKey(), tsdata);
-                if (returned != null) {
-                    tsdata = returned;
+            int shard = shardFor(entry.getKey());
+            if (split[shard] == null) {
+                split[shard] = Maps.newHashMap();
+            }
+            split[shard].put(entry.getKey(), entry.getValue());
+        }
+        return split;
+    }
+
+    private int shardFor(@Nonnull String metric) {
+        int hash = metric.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % _shards.length;
+    }
+
+    /**
+     * Gets the shard holding the aggregations of a metric.  Metrics are partitioned by name, except the overflow
+     * metrics, which each shard creates for itself.
+     *
+     * @param metric the metric name
+     * @return the index of the shard
+     */
+    private int shardOf(@Nonnull String metric) {
+        if (metric.startsWith(MetricLimits.OVERFLOW_METRIC_PREFIX)) {
+            for (int x = 0; x < _shards.length; x++) {
+                if (_shards[x].isOverflowMetric(metric)) {
+                    return x;
                 }
             }
-            tsdata.addMetric(entry.getValue().getValues(), data.getTime());
+        }
+        return shardFor(metric);
+    }
+
+    @Nonnull
+    private TSData createTSData(@Nonnull String metric, @Nonnull CounterVariable.MetricKind kind) {
+        switch (kind) {
+            case Counter:
+                return createTSData(metric, _counterStatisticsClasses);
+            case Timer:
+                return createTSData(metric, _timerStatisticsClasses);
+            case Gauge:
+                return createTSData(metric, _gaugeStatisticsClasses);
+            default:
+                LOGGER.warn("unknown metric kind, defaulting to counter statistics. metricKind = " + kind.toString());
+                return createTSData(metric, _counterStatisticsClasses);
         }
     }
 
+    @Nonnull
+    private TSData createTSData(@Nonnull String metric, @Nonnull Set<Statistic> statistics) {
+        return new TSData(metric, _periods, _listener, _hostName, _serviceName, statistics, _aggregationCloser,
+                _rollUp);
+    }
+
+    /**
+     * Gets the number of metrics being aggregated.
+     *
+     * @return the number of metrics
+     */
+    public int getMetricCount() {
+        return _metricCount.get();
+    }
+
+    /**
+     * Gets the number of times a new metric name was turned away because the maximum number of metrics was reached.
+     *
+     * @return the number of rejected metric names
+     */
+    public long getRejectedMetricCount() {
+        return _rejectedMetrics.get();
+    }
+
     public void closeAggregations() {
+        awaitQueued();
         //close all aggregations
-        for (@Nonnull Map.Entry<String, TSData> entry : _aggregations.entrySet()) {
-            entry.getValue().close();
+        for (@Nonnull Shard shard : _shards) {
+            for (@Nonnull Map.Entry<String, TSData> entry : shard.getAggregations().entrySet()) {
+                entry.getValue().close();
+            }
+        }
+    }
+
+    /**
+     * Writes the open period of every aggregation to a file instead of emitting it, so the next process can restore
+     * the periods and emit them complete.  Input must have stopped; lines already queued are aggregated, finished
+     * periods are emitted, and the closer is stopped so nothing rotates while the snapshot is written.  The
+     * processor must not be used afterwards.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(@Nonnull File file) throws IOException {
+        awaitQueued();
+        _aggregationCloser.shutdown();
+        try {
+            _aggregationCloserThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping the aggregation closer", e);
+        }
+        @Nonnull File temp = new File(file.getPath() + ".tmp");
+        @Nonnull FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            @Nonnull DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            //overflow metrics go last, so restoring them does not take the slots of the metrics that had one
+            for (boolean overflow : new boolean[]{false, true}) {
+                for (@Nonnull Shard shard : _shards) {
+                    for (@Nonnull Map.Entry<String, TSData> entry : shard.getAggregations().entrySet()) {
+                        if (shard.isOverflowMetric(entry.getKey()) != overflow) {
+                            continue;
+                        }
+                        entry.getValue().emitRetired();
+                        out.writeBoolean(true);
+                        out.writeUTF(entry.getKey());
+                        out.writeUTF(shard.getKind(entry.getKey()).name());
+                        entry.getValue().writeSnapshot(out);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the open periods written by writeSnapshot, before any line is processed.  The file is deleted once it
+     * is read, so the periods are not restored a second time.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be read
+     */
+    public void restoreSnapshot(@Nonnull File file) throws IOException {
+        @Nonnull DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int restored = 0;
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a snapshot of a supported version: " + file);
+            }
+            while (in.readBoolean()) {
+                @Nonnull String metric = in.readUTF();
+                @Nonnull CounterVariable.MetricKind kind = CounterVariable.MetricKind.valueOf(in.readUTF());
+                @Nonnull Shard shard = _shards[shardOf(metric)];
+                @Nullable TSData tsdata = shard.getAggregations().get(metric);
+                if (tsdata == null) {
+                    tsdata = shard.create(metric, kind);
+                }
+                if (tsdata == null) {
+                    TSData.skipSnapshot(in);
+                    continue;
+                }
+                tsdata.restoreSnapshot(in);
+                restored++;
+            }
+        } finally {
+            in.close();
+        }
+        LOGGER.info("Restored open periods of " + restored + " metrics from " + file);
+        if (!file.delete()) {
+            LOGGER.warn("Could not delete snapshot " + file + ", it will be restored again on the next start");
+        }
+    }
+
+    /**
+     * Takes one of the metric slots the limit allows.  The check and the increment are one atomic step, since shards
+     * create metrics concurrently.
+     *
+     * @return true if a slot was taken, false if the limit is reached
+     */
+    private boolean reserveMetric() {
+        int max = _limits.getMaxMetrics();
+        if (max <= 0) {
+            _metricCount.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int count = _metricCount.get();
+            if (count >= max) {
+                return false;
+            }
+            if (_metricCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits until every line queued so far has been aggregated.
+     */
+    private void awaitQueued() {
+        while (_inFlight.get() > 0) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while waiting for queued lines", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses queued lines with a parser owned by this worker.
+     */
+    private final class ParserWorker implements Runnable {
+        private final LogParser _parser;
+
+        private ParserWorker(LogParser parser) {
+            _parser = parser;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Object line;
+                try {
+                    line = _lines.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (line instanceof byte[]) {
+                        @Nonnull byte[] bytes = (byte[]) line;
+                        route(parse(_parser, bytes, 0, bytes.length));
+                    } else {
+                        route(_parser.parseLogLine((String) line));
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error processing line", e);
+                } finally {
+                    _inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * A partition of the metrics.  Only the shard's own thread, or the invoking thread when not pipelined, writes
+     * to its map.
+     */
+    private final class Shard implements Runnable {
+        private final ConcurrentHashMap<String, TSData> _aggregations = new ConcurrentHashMap<String, TSData>();
+        private final ConcurrentHashMap<String, CounterVariable.MetricKind> _kinds =
+                new ConcurrentHashMap<String, CounterVariable.MetricKind>();
+        //metrics the closer found idle, removed by the shard's own thread
+        private final Set<String> _idle = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        @Nullable
+        private final BlockingQueue<LogLine> _queue;
+        @Nonnull
+        private final String _overflowSuffix;
+
+        private Shard(boolean pipelined, @Nonnull String overflowSuffix) {
+            _queue = pipelined ? new ArrayBlockingQueue<LogLine>(SHARD_QUEUE_CAPACITY) : null;
+            _overflowSuffix = overflowSuffix;
+        }
+
+        public void markIdle(@Nonnull String metric) {
+            _idle.add(metric);
+        }
+
+        @Nonnull
+        public ConcurrentHashMap<String, TSData> getAggregations() {
+            return _aggregations;
+        }
+
+        public void submit(@Nonnull LogLine data) {
+            if (_queue == null) {
+                aggregate(data);
+                return;
+            }
+            _inFlight.incrementAndGet();
+            try {
+                _queue.put(data);
+            } catch (InterruptedException e) {
+                _inFlight.decrementAndGet();
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while queueing metrics to shard", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                LogLine data;
+                try {
+                    data = _queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    aggregate(data);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error aggregating line", e);
+                } finally {
+                    _inFlight.decrementAndGet();
+                }
+            }
+        }
+
+        @Nonnull
+        public CounterVariable.MetricKind getKind(@Nonnull String metric) {
+            return _kinds.get(metric);
+        }
+
+        private void aggregate(@Nonnull LogLine data) {
+            if (!_idle.isEmpty()) {
+                evictIdle();
+            }
+            for (@Nonnull Map.Entry<String, CounterVariable> entry : data.getVariables().entrySet()) {
+                @Nullable TSData tsdata = getOrCreate(entry.getKey(), entry.getValue().getMetricKind());
+                if (tsdata != null) {
+                    tsdata.addMetric(entry.getValue(), data.getTime());
+                }
+            }
+        }
+
+        private void evictIdle() {
+            for (@Nonnull Iterator<String> iterator = _idle.iterator(); iterator.hasNext(); ) {
+                @Nonnull String metric = iterator.next();
+                iterator.remove();
+                @Nullable TSData tsdata = _aggregations.get(metric);
+                //samples may have arrived since the closer looked
+                if (tsdata != null && tsdata.isIdle()) {
+                    _aggregations.remove(metric);
+                    _kinds.remove(metric);
+                    tsdata.evict();
+                    _metricCount.decrementAndGet();
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Evicted idle metric " + metric);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the aggregations of a metric, creating them if the metric is new and the limit allows it.
+         *
+         * @param metric the metric name
+         * @param kind the kind of metric
+         * @return the aggregations, null if the samples are dropped
+         */
+        @Nullable
+        private TSData getOrCreate(@Nonnull String metric, @Nonnull CounterVariable.MetricKind kind) {
+            TSData tsdata = _aggregations.get(metric);
+            if (tsdata == null) {
+                tsdata = create(metric, kind);
+                if (tsdata == null) {
+                    return overflow(metric, kind);
+                }
+            }
+            return tsdata;
+        }
+
+        /**
+         * Creates the aggregations of a new metric if the limit allows it.  The shard's own overflow metrics are
+         * always allowed, so rejected samples have somewhere to go; a client metric that only shares their prefix is
+         * not.
+         *
+         * @param metric the metric name
+         * @param kind the kind of metric
+         * @return the aggregations, null if the limit is reached
+         */
+        @Nullable
+        private TSData create(@Nonnull String metric, @Nonnull CounterVariable.MetricKind kind) {
+            if (metric.equals(overflowMetric(kind))) {
+                _metricCount.incrementAndGet();
+            } else if (!reserveMetric()) {
+                return null;
+            }
+            @Nonnull TSData tsdata = createTSData(metric, kind);
+            _kinds.put(metric, kind);
+            _aggregations.put(metric, tsdata);
+            return tsdata;
+        }
+
+        @Nonnull
+        private String overflowMetric(@Nonnull CounterVariable.MetricKind kind) {
+            return MetricLimits.OVERFLOW_METRIC_PREFIX + kind.name().toLowerCase() + _overflowSuffix;
+        }
+
+        public boolean isOverflowMetric(@Nonnull String metric) {
+            for (@Nonnull CounterVariable.MetricKind kind : CounterVariable.MetricKind.values()) {
+                if (metric.equals(overflowMetric(kind))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Nullable
+        private TSData overflow(@Nonnull String metric, @Nonnull CounterVariable.MetricKind kind) {
+            long rejected = _rejectedMetrics.incrementAndGet();
+            //log the first rejection and then at each power of two, a runaway client would flood the log otherwise
+            if ((rejected & (rejected - 1)) == 0) {
+                LOGGER.warn("Metric limit of " + _limits.getMaxMetrics() + " reached, " + rejected
+                        + " new metric names rejected so far; latest was " + metric);
+            }
+            if (_limits.getOverflowPolicy() == MetricLimits.OverflowPolicy.Drop) {
+                return null;
+            }
+            return getOrCreate(overflowMetric(kind), kind);
         }
     }
 }
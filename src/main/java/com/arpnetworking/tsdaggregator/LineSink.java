@@ -0,0 +1,21 @@
+package com.arpnetworking.tsdaggregator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the lines read from a log file.
+ *
+ * @author barp
+ */
+public interface LineSink {
+    void invoke(String line);
+
+    /**
+     * Receives a UTF-8 encoded line.  The bytes may be reused once this returns.
+     *
+     * @param line the buffer holding the line
+     * @param offset the offset of the line in the buffer
+     * @param length the length of the line
+     */
+    void invoke(@Nonnull byte[] line, int offset, int length);
+}
@@ -0,0 +1,112 @@
+package com.arpnetworking.tsdaggregator;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the lines of a log file that is not tailed.
+ *
+ * @author barp
+ */
+public final class LogFileReader {
+    private static final Logger _Logger = Logger.getLogger(LogFileReader.class);
+
+    private LogFileReader() {
+    }
+
+    /**
+     * Reads every line of a file.
+     *
+     * @param f the file name
+     * @param memoryMap whether to memory map the file and hand out undecoded lines
+     * @param sink the receiver of the lines
+     * @throws IOException if the file cannot be read
+     */
+    public static void read(@Nonnull String f, boolean memoryMap, @Nonnull LineSink sink) throws IOException {
+        if (memoryMap) {
+            readMappedFile(f, sink);
+        } else {
+            readFile(f, sink);
+        }
+    }
+
+    private static void readFile(@Nonnull String f, @Nonnull LineSink sink) throws IOException {
+        @Nullable BufferedReader reader = null;
+        try {
+            @Nonnull BufferedInputStream stream = new BufferedInputStream(new FileInputStream(f));
+            reader = new BufferedReader(new InputStreamReader(stream, Charsets.UTF_8));
+            //check the first 4 bytes of the file for utf markers
+            stream.mark(4);
+            @Nonnull byte[] header = new byte[4];
+            if (ByteStreams.read(stream, header, 0, 4) < 4) {
+                //If there are less than 4 bytes, we should move on
+                return;
+            }
+            stream.reset();
+            if (header[0] == -1 && header[1] == -2) {
+                _Logger.info("Detected UTF-16 encoding");
+                reader = new BufferedReader(new InputStreamReader(stream, Charsets.UTF_16));
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sink.invoke(line);
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    private static void readMappedFile(@Nonnull String f, @Nonnull final LineSink sink) throws IOException {
+        @Nonnull RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            @Nonnull FileChannel channel = file.getChannel();
+            @Nonnull ByteBuffer header = ByteBuffer.allocate(4);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) <= 0) {
+                    break;
+                }
+            }
+            if (header.hasRemaining()) {
+                //If there are less than 4 bytes, we should move on
+                return;
+            }
+            long start = 0;
+            if (header.get(0) == -1 && header.get(1) == -2) {
+                _Logger.info("Detected UTF-16 encoding, reading without memory mapping");
+                readFile(f, sink);
+                return;
+            } else if (header.get(0) == (byte) 0xEF && header.get(1) == (byte) 0xBB && header.get(2) == (byte) 0xBF) {
+                start = 3;
+            }
+            new MappedLineReader(channel).read(start, new MappedLineReader.LineHandler() {
+                @Override
+                public void handle(@Nonnull byte[] line, int offset, int length) {
+                    sink.invoke(line, offset, length);
+                }
+            });
+        } finally {
+            try {
+                file.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
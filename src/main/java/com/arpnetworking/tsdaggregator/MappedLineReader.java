@@ -0,0 +1,96 @@
+package com.arpnetworking.tsdaggregator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nonnull;
+
+/**
+ * Reads the lines of a file by memory mapping it in windows and scanning the mapped bytes for newlines.  Lines are
+ * handed out as byte slices, so nothing is decoded.  Line terminators (\n and \r\n) are not included and empty lines
+ * are skipped.
+ *
+ * @author barp
+ */
+public class MappedLineReader {
+    /**
+     * Receives the lines read.
+     */
+    public interface LineHandler {
+        /**
+         * Handles a line.  The buffer is reused for the next line once this returns.
+         *
+         * @param line the buffer holding the line
+         * @param offset the offset of the line in the buffer
+         * @param length the length of the line
+         */
+        void handle(@Nonnull byte[] line, int offset, int length);
+    }
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private final FileChannel _channel;
+    private final int _windowSize;
+    private byte[] _line = new byte[4096];
+
+    public MappedLineReader(@Nonnull FileChannel channel) {
+        this(channel, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedLineReader(@Nonnull FileChannel channel, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive, was " + windowSize);
+        }
+        _channel = channel;
+        _windowSize = windowSize;
+    }
+
+    /**
+     * Reads the lines from a position to the end of the file.
+     *
+     * @param position the position to start at
+     * @param handler the handler for the lines
+     * @throws IOException if the file cannot be mapped
+     */
+    public void read(long position, @Nonnull LineHandler handler) throws IOException {
+        long size = _channel.size();
+        int window = _windowSize;
+        while (position < size) {
+            int length = (int) Math.min(size - position, window);
+            @Nonnull MappedByteBuffer buffer = _channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int lineStart = 0;
+            for (int x = 0; x < length; x++) {
+                if (buffer.get(x) == '\n') {
+                    handleLine(buffer, lineStart, x, handler);
+                    lineStart = x + 1;
+                }
+            }
+            if (position + length == size) {
+                handleLine(buffer, lineStart, length, handler);
+                return;
+            }
+            if (lineStart == 0) {
+                //a line longer than the window, map a bigger one
+                window = (int) Math.min(Integer.MAX_VALUE, (long) window * 2);
+                continue;
+            }
+            //the partial line at the end of the window is read again from the start of the next one
+            position += lineStart;
+        }
+    }
+
+    private void handleLine(@Nonnull MappedByteBuffer buffer, int start, int end, @Nonnull LineHandler handler) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        int length = end - start;
+        if (length == 0) {
+            return;
+        }
+        if (length > _line.length) {
+            _line = new byte[Math.max(length, _line.length * 2)];
+        }
+        buffer.position(start);
+        buffer.get(_line, 0, length);
+        handler.handle(_line, 0, length);
+    }
+}
@@ -0,0 +1,61 @@
+package com.arpnetworking.tsdaggregator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Bounds on the metrics a line processor keeps aggregations for.
+ *
+ * @author barp
+ */
+public class MetricLimits {
+    /**
+     * What to do with a metric name first seen once the maximum number of metrics is reached.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop its samples.
+         */
+        Drop,
+        /**
+         * Aggregate its samples into a single overflow metric for its kind.
+         */
+        Aggregate
+    }
+
+    public static final MetricLimits UNLIMITED = new MetricLimits(0, OverflowPolicy.Drop, 0);
+    public static final String OVERFLOW_METRIC_PREFIX = "tsd_overflow.";
+    private final int _maxMetrics;
+    @Nonnull
+    private final OverflowPolicy _overflowPolicy;
+    private final int _idlePeriods;
+
+    /**
+     * Creates limits.
+     *
+     * @param maxMetrics the maximum number of distinct metrics, 0 for no limit
+     * @param overflowPolicy what to do with new metrics past the maximum
+     * @param idlePeriods the number of consecutive empty periods after which a metric is forgotten, 0 to keep
+     *                    metrics forever
+     */
+    public MetricLimits(int maxMetrics, @Nonnull OverflowPolicy overflowPolicy, int idlePeriods) {
+        if (maxMetrics < 0 || idlePeriods < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        _maxMetrics = maxMetrics;
+        _overflowPolicy = overflowPolicy;
+        _idlePeriods = idlePeriods;
+    }
+
+    public int getMaxMetrics() {
+        return _maxMetrics;
+    }
+
+    @Nonnull
+    public OverflowPolicy getOverflowPolicy() {
+        return _overflowPolicy;
+    }
+
+    public int getIdlePeriods() {
+        return _idlePeriods;
+    }
+}
@@ -0,0 +1,67 @@
+package com.arpnetworking.tsdaggregator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Maps metric names to a single canonical instance, so the names parsed from every line share the instances held by
+ * the aggregations and handed to the publishers.  A canonical name carries its cached hash code and is found by
+ * reference in the aggregation maps, so lookups of a known metric do not compare characters.
+ *
+ * The table holds at most a fixed number of names; past that, names are returned as they are, so a client sending
+ * unbounded names cannot grow it without limit.  Instances are thread safe.
+ *
+ * @author barp
+ */
+public class MetricNameTable {
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+    private final int _capacity;
+    private final ConcurrentHashMap<String, String> _names;
+    private final AtomicInteger _size = new AtomicInteger();
+
+    public MetricNameTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MetricNameTable(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        _capacity = capacity;
+        _names = new ConcurrentHashMap<String, String>(Math.min(capacity, 1024));
+    }
+
+    /**
+     * Gets the canonical instance of a name, adding the name if it is new and the table is not full.
+     *
+     * @param name the name
+     * @return the canonical instance, or the name itself if it is not in the table
+     */
+    @Nonnull
+    public String intern(@Nonnull String name) {
+        @Nullable String canonical = _names.get(name);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (_size.get() >= _capacity) {
+            return name;
+        }
+        canonical = _names.putIfAbsent(name, name);
+        if (canonical == null) {
+            _size.incrementAndGet();
+            return name;
+        }
+        return canonical;
+    }
+
+    /**
+     * Gets the number of names in the table.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return _size.get();
+    }
+}
@@ -0,0 +1,311 @@
+package com.arpnetworking.tsdaggregator;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Follows a file as it is written, handing each complete line to a sink as UTF-8 bytes.
+ *
+ * The file is read through a channel into a large direct buffer whenever the watch service reports a change in its
+ * directory, with a periodic check in case a notification is missed.  A file replaced by a new one (rotation by
+ * rename) is read to its end before the new file is read from its start; a file that shrinks (rotation by copy and
+ * truncate) is read again from its start.  Replacement is detected by file key, so it is only seen on file systems
+ * that provide one.  A partial line at the end of the file is held until its terminator is written.  Line terminators
+ * (\n and \r\n) are not included and empty lines are skipped.
+ *
+ * With a checkpoint store, the offset past the last line handed out is recorded after each read, and a file still
+ * having the file key of its checkpoint is read from the checkpointed offset when opened.
+ *
+ * @author barp
+ */
+public class NioTailer implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(NioTailer.class);
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long CHECK_MILLIS = 1000;
+    @Nonnull
+    private final Path _file;
+    @Nonnull
+    private final LineSink _sink;
+    @Nullable
+    private final CheckpointStore _checkpoints;
+    private volatile boolean _run = true;
+    private final CountDownLatch _stopped = new CountDownLatch(1);
+    @Nullable
+    private volatile WatchService _watcher;
+    @Nonnull
+    private ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //bytes at the start of the buffer already known to hold no line terminator
+    private int _scanned = 0;
+    @Nonnull
+    private byte[] _line = new byte[4096];
+    @Nullable
+    private FileChannel _channel;
+    @Nullable
+    private Object _fileKey;
+
+    public NioTailer(@Nonnull Path file, @Nonnull LineSink sink) {
+        this(file, sink, null);
+    }
+
+    public NioTailer(@Nonnull Path file, @Nonnull LineSink sink, @Nullable CheckpointStore checkpoints) {
+        _file = file.toAbsolutePath();
+        _sink = sink;
+        _checkpoints = checkpoints;
+    }
+
+    /**
+     * Starts following a file on a daemon thread.
+     *
+     * @param file the file
+     * @param sink the receiver of the lines
+     * @return the tailer
+     */
+    @Nonnull
+    public static NioTailer start(@Nonnull Path file, @Nonnull LineSink sink) {
+        return start(file, sink, null);
+    }
+
+    /**
+     * Starts following a file on a daemon thread, resuming from and recording checkpoints.
+     *
+     * @param file the file
+     * @param sink the receiver of the lines
+     * @param checkpoints the checkpoint store, or null to read the file from the start
+     * @return the tailer
+     */
+    @Nonnull
+    public static NioTailer start(@Nonnull Path file, @Nonnull LineSink sink,
+                                  @Nullable CheckpointStore checkpoints) {
+        @Nonnull NioTailer tailer = new NioTailer(file, sink, checkpoints);
+        @Nonnull Thread thread = new Thread(tailer, "tsd-tailer-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return tailer;
+    }
+
+    /**
+     * Stops following the file.
+     */
+    public void stop() {
+        _run = false;
+        @Nullable WatchService watcher = _watcher;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error closing watch service", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for the tailer to stop after stop is called.  Once it returns true no more lines are handed out.
+     *
+     * @param timeoutMillis how long to wait
+     * @return true if the tailer stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitStop(long timeoutMillis) throws InterruptedException {
+        return _stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            follow();
+        } finally {
+            _stopped.countDown();
+        }
+    }
+
+    private void follow() {
+        try {
+            @Nonnull WatchService watcher = _file.getFileSystem().newWatchService();
+            _watcher = watcher;
+            try {
+                _file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                while (_run) {
+                    if (_channel == null) {
+                        open();
+                    }
+                    if (_channel != null) {
+                        readAvailable();
+                        checkReplaced();
+                    }
+                    awaitChange(watcher);
+                }
+            } finally {
+                watcher.close();
+                close();
+            }
+        } catch (ClosedWatchServiceException ignored) {
+            //stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.error("Error tailing file " + _file, e);
+        }
+    }
+
+    private void awaitChange(@Nonnull WatchService watcher) throws InterruptedException {
+        @Nullable WatchKey key = watcher.poll(CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        //events for other files in the directory only cost a read that finds nothing
+        while (key != null) {
+            key.pollEvents();
+            key.reset();
+            key = watcher.poll();
+        }
+    }
+
+    private void open() throws IOException {
+        try {
+            _channel = FileChannel.open(_file, StandardOpenOption.READ);
+            _fileKey = Files.readAttributes(_file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            close();
+            return;
+        }
+        resume();
+    }
+
+    private void resume() throws IOException {
+        if (_checkpoints == null || _fileKey == null) {
+            return;
+        }
+        @Nullable CheckpointStore.Checkpoint checkpoint = _checkpoints.get(_file.toString());
+        if (checkpoint == null) {
+            return;
+        }
+        if (checkpoint.getFileKey().equals(_fileKey.toString()) && checkpoint.getOffset() <= _channel.size()) {
+            LOGGER.info("Resuming " + _file + " at offset " + checkpoint.getOffset());
+            _channel.position(checkpoint.getOffset());
+        } else {
+            LOGGER.info("File " + _file + " changed since its checkpoint, reading from the start");
+        }
+    }
+
+    private void recordCheckpoint() throws IOException {
+        if (_checkpoints != null && _fileKey != null) {
+            //the unterminated line held in the buffer has not been handed out
+            _checkpoints.update(_file.toString(), _fileKey.toString(), _channel.position() - _buffer.position());
+        }
+    }
+
+    private void close() {
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        _channel = null;
+        _fileKey = null;
+        _buffer.clear();
+        _scanned = 0;
+    }
+
+    /**
+     * Reopens the file if it was replaced and rereads it if it was truncated.  The open file has already been read to
+     * its end.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private void checkReplaced() throws IOException {
+        @Nonnull BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(_file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            //moved away and not yet recreated, keep the old file open in case it is still being written
+            return;
+        }
+        if (_fileKey != null && !_fileKey.equals(attributes.fileKey())) {
+            LOGGER.info("File " + _file + " was replaced, reading the new file");
+            flushPartialLine();
+            close();
+            open();
+            if (_channel != null) {
+                readAvailable();
+            }
+        } else if (attributes.size() < _channel.position()) {
+            LOGGER.info("File " + _file + " was truncated, reading from the start");
+            _channel.position(0);
+            _buffer.clear();
+            _scanned = 0;
+            readAvailable();
+        }
+    }
+
+    private void readAvailable() throws IOException {
+        while (_channel.read(_buffer) > 0) {
+            _buffer.flip();
+            int lineStart = 0;
+            for (int x = _scanned; x < _buffer.limit(); x++) {
+                if (_buffer.get(x) == '\n') {
+                    handleLine(lineStart, x);
+                    lineStart = x + 1;
+                }
+            }
+            _buffer.position(lineStart);
+            _buffer.compact();
+            _scanned = _buffer.position();
+            if (!_buffer.hasRemaining()) {
+                //a line longer than the buffer
+                @Nonnull ByteBuffer larger = ByteBuffer.allocateDirect(_buffer.capacity() * 2);
+                _buffer.flip();
+                larger.put(_buffer);
+                _buffer = larger;
+            }
+        }
+        recordCheckpoint();
+    }
+
+    /**
+     * Hands out the unterminated line at the end of a file that will not be written again.
+     */
+    private void flushPartialLine() {
+        if (_buffer.position() > 0) {
+            _buffer.flip();
+            handleLine(0, _buffer.limit());
+            _buffer.clear();
+            _scanned = 0;
+        }
+    }
+
+    private void handleLine(int start, int end) {
+        if (end > start && _buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        int length = end - start;
+        if (length == 0) {
+            return;
+        }
+        if (length > _line.length) {
+            _line = new byte[Math.max(length, _line.length * 2)];
+        }
+        //the caller sets the position again once the buffer is scanned
+        _buffer.position(start);
+        _buffer.get(_line, 0, length);
+        try {
+            _sink.invoke(_line, 0, length);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error processing line", e);
+        }
+    }
+}
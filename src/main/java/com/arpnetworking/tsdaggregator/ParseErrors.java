@@ -0,0 +1,149 @@
+package com.arpnetworking.tsdaggregator;
+
+import com.google.common.collect.Maps;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the problems found while parsing lines, by type, and logs an example of each type at a bounded rate.
+ *
+ * A bad build of a service can make every line it writes fail to parse, so problems are not logged one by one:
+ * each is counted, and at most one example of each type is logged per sample interval, together with the number of
+ * problems of that type since the previous example.  The line of a problem is only converted to a string when it is
+ * taken as an example.  The counts and the latest examples are exposed by the aggregator's stats bean.  Instances
+ * are thread safe.
+ *
+ * @author barp
+ */
+public class ParseErrors {
+    /**
+     * The kinds of problems counted.
+     */
+    public enum Type {
+        /**
+         * A line that is not json, read as a legacy line.
+         */
+        LegacyLine,
+        /**
+         * A line discarded because it could not be parsed.
+         */
+        UnparsableLine,
+        /**
+         * A json line discarded because its version is unknown.
+         */
+        UnknownVersion,
+        /**
+         * A value skipped because it is not a number.
+         */
+        BadValue,
+        /**
+         * A timestamp annotation that is not a number.
+         */
+        BadTimestamp,
+        /**
+         * A timer removed because it was started but not stopped.
+         */
+        UnfinishedTimer
+    }
+
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 60000;
+    private static final Logger LOGGER = Logger.getLogger(ParseErrors.class);
+    private static final int MAX_EXAMPLE_LENGTH = 2048;
+    private static final ParseErrors DEFAULT = new ParseErrors(DEFAULT_SAMPLE_INTERVAL_MILLIS);
+    private final long _sampleIntervalMillis;
+    private final AtomicLongArray _counts = new AtomicLongArray(Type.values().length);
+    private final AtomicLongArray _nextSampleMillis = new AtomicLongArray(Type.values().length);
+    private final AtomicLongArray _countAtLastSample = new AtomicLongArray(Type.values().length);
+    private final AtomicReferenceArray<String> _examples = new AtomicReferenceArray<String>(Type.values().length);
+
+    public ParseErrors(long sampleIntervalMillis) {
+        _sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    /**
+     * Gets the instance shared by the parsers of the process.
+     *
+     * @return the shared instance
+     */
+    @Nonnull
+    public static ParseErrors getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Counts a problem, logging it if it is the first of its type in the current sample interval.
+     *
+     * @param type the type of problem
+     * @param message what happened
+     * @param subject the line or value in question, only converted to a string if the problem is logged
+     * @param cause the exception raised by the problem, if any
+     */
+    public void record(@Nonnull Type type, @Nonnull String message, @Nullable Object subject,
+                       @Nullable Throwable cause) {
+        int index = type.ordinal();
+        long count = _counts.incrementAndGet(index);
+        long now = System.currentTimeMillis();
+        long next = _nextSampleMillis.get(index);
+        if (now < next || !_nextSampleMillis.compareAndSet(index, next, now + _sampleIntervalMillis)) {
+            return;
+        }
+        long skipped = count - _countAtLastSample.getAndSet(index, count) - 1;
+        @Nonnull String example = String.valueOf(subject);
+        if (example.length() > MAX_EXAMPLE_LENGTH) {
+            example = example.substring(0, MAX_EXAMPLE_LENGTH) + "...";
+        }
+        _examples.set(index, message + ": " + example);
+        LOGGER.warn(type + ": " + message + " (" + skipped + " more since the last example)\n" + example, cause);
+    }
+
+    public long getCount(@Nonnull Type type) {
+        return _counts.get(type.ordinal());
+    }
+
+    /**
+     * Gets the latest example logged of a type of problem.
+     *
+     * @param type the type of problem
+     * @return the example, null if there has been none
+     */
+    @Nullable
+    public String getExample(@Nonnull Type type) {
+        return _examples.get(type.ordinal());
+    }
+
+    /**
+     * Gets the counts of all types of problems.
+     *
+     * @return the counts by type name
+     */
+    @Nonnull
+    public Map<String, Long> getCounts() {
+        @Nonnull Map<String, Long> counts = Maps.newLinkedHashMap();
+        for (@Nonnull Type type : Type.values()) {
+            counts.put(type.name(), getCount(type));
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the latest example of each type of problem that has one.
+     *
+     * @return the examples by type name
+     */
+    @Nonnull
+    public Map<String, String> getExamples() {
+        @Nonnull Map<String, String> examples = Maps.newLinkedHashMap();
+        for (@Nonnull Type type : Type.values()) {
+            @Nullable String example = getExample(type);
+            if (example != null) {
+                examples.put(type.name(), example);
+            }
+        }
+        return examples;
+    }
+}
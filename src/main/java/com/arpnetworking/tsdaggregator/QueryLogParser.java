@@ -1,15 +1,19 @@
 package com.arpnetworking.tsdaggregator;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import org.apache.log4j.Logger;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.joda.time.DateTime;
 import org.joda.time.chrono.ISOChronology;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -19,56 +23,100 @@ import javax.annotation.Nullable;
 /**
  * LogParser to parse query log files with json hash lines.
  *
+ * Json lines are read with a streaming token parser straight into reusable primitive buffers, so instances are not
+ * thread safe.  Metric names are returned as the canonical instances of a table shared by all instances.  Problems
+ * with lines are counted and sampled by ParseErrors rather than logged one by one.
+ *
+ * Only lines starting with an opening brace are read as json; any other line is read as a legacy line straight
+ * away, rather than after the json parser has failed on it.
+ *
  * @author barp
  */
-public class QueryLogParser implements LogParser {
-    private static final Logger LOGGER = Logger.getLogger(QueryLogParser.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+public class QueryLogParser implements ByteLogParser {
+    //names are canonicalized by the metric name table, which unlike the factory's table keeps them past a few
+    //thousand distinct names
+    private static final JsonFactory JSON_FACTORY =
+            new JsonFactory().configure(JsonParser.Feature.INTERN_FIELD_NAMES, false);
+    private static final MetricNameTable METRIC_NAMES = new MetricNameTable();
+    private static final String START_SUFFIX = "-start";
+    private static final char BYTE_ORDER_MARK = '\ufeff';
+    private static final byte[] UTF8_BYTE_ORDER_MARK = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+    private final Section _timers = new Section("timers");
+    private final Section _counters = new Section("counters");
+    private final Section _gauges = new Section("gauges");
+    private final Annotations _annotations = new Annotations();
+    @Nonnull
+    private final ParseErrors _errors;
+
+    public QueryLogParser() {
+        this(ParseErrors.getDefault());
+    }
+
+    /**
+     * Creates a parser reporting its problems to a given set of counts.
+     *
+     * @param errors the counts of parse problems
+     */
+    public QueryLogParser(@Nonnull ParseErrors errors) {
+        _errors = errors;
+    }
 
+    /**
+     * Parses a legacy line of comma separated key=value fields in a single pass over its characters.  Square
+     * brackets are ignored wherever they appear and whitespace around keys and values is trimmed.
+     *
+     * @param line the line
+     * @return the log line
+     * @throws ParseException if a field has no value or the line has no timestamp
+     */
     @Nonnull
-    private LogLine parseLegacyLogLine(String line) throws ParseException {
+    private LogLine parseLegacyLogLine(@Nonnull CharSequence line) throws ParseException {
         @Nonnull HashMap<String, CounterVariable> vals = Maps.newHashMap();
-        line = line.trim();
-        line = line.replace("[", "");
-        line = line.replace("]", "");
         @Nonnull ArrayList<String> removalCandidates = Lists.newArrayList();
-
-        String[] vars = line.split(",");
-        for (@Nonnull String var : vars) {
-            if (var.trim().length() > 0) {
-                String[] splits = var.split("=");
-                Double value;
-                try {
-                    value = Double.parseDouble(splits[1]);
-                } catch (NumberFormatException e) {
-                    LOGGER.warn("skipping value due to not being able to parse as double: " + splits[1], e);
-                    continue;
-                }
-                String key = splits[0].trim();
-
-                if (key.endsWith("-start")) {
-                    key = key.replaceFirst("-start$", "");
-                    removalCandidates.add(key);
-                }
-                @Nonnull ArrayList<Double> values = Lists.newArrayList();
-                values.add(value);
-                @Nonnull CounterVariable cv = new CounterVariable(CounterVariable.MetricKind.Counter, values);
-                vals.put(key, cv);
+        int length = line.length();
+        int fieldStart = 0;
+        while (fieldStart < length) {
+            int fieldEnd = indexOf(line, ',', fieldStart, length);
+            int equals = indexOf(line, '=', fieldStart, fieldEnd);
+            int keyStart = skipBlank(line, fieldStart, equals);
+            if (equals == fieldEnd && keyStart == fieldEnd) {
+                //blank field
+                fieldStart = fieldEnd + 1;
+                continue;
+            }
+            if (!hasValue(line, equals, fieldEnd)) {
+                throw new ParseException("no value for field: " + line.subSequence(fieldStart, fieldEnd));
+            }
+            int valueEnd = indexOf(line, '=', equals + 1, fieldEnd);
+            double value;
+            try {
+                value = parseValue(line, equals + 1, valueEnd);
+            } catch (NumberFormatException ignored) {
+                _errors.record(ParseErrors.Type.BadValue, "skipping value that is not a number",
+                        slice(line, equals + 1, valueEnd), null);
+                fieldStart = fieldEnd + 1;
+                continue;
+            }
+            @Nonnull String key = slice(line, fieldStart, equals);
+            if (key.endsWith(START_SUFFIX)) {
+                key = key.substring(0, key.length() - START_SUFFIX.length());
+                removalCandidates.add(key);
             }
+            vals.put(METRIC_NAMES.intern(key), new CounterVariable(CounterVariable.MetricKind.Counter,
+                    new double[]{value}));
+            fieldStart = fieldEnd + 1;
         }
 
         for (String remove : removalCandidates) {
             if (vals.get(remove).getValues().get(0).equals(0.0d)) {
                 vals.remove(remove);
-                LOGGER.warn("removing unfinished timer [" + remove + "] from timing set");
+                _errors.record(ParseErrors.Type.UnfinishedTimer, "removing unfinished timer from timing set", remove,
+                        null);
             }
         }
         DateTime timestamp;
         if (vals.containsKey("initTimestamp")) {
-            Double time = vals.get("initTimestamp").getValues().get(0);
-            //double with whole number unix time, and fractional seconds
-            Long ticks = Math.round(time * 1000);
-            timestamp = new DateTime(ticks, ISOChronology.getInstanceUTC());
+            timestamp = toDateTime(vals.get("initTimestamp").getValue(0));
             vals.remove("initTimestamp");
         } else {
             throw new ParseException("no timestamp found in log line");
@@ -77,165 +125,165 @@ public class QueryLogParser implements LogParser {
         return new StandardLogLine(vals, timestamp);
     }
 
-    @Nonnull
-    LogLine parseV2aLogLine(@Nonnull Map<String, Object> line) throws ParseException {
-        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
-        @Nonnull final Map<String, Object> counters;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, Object> countersMap = (Map<String, Object>) line.get("counters");
-            counters = countersMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element counters", e);
-        }
-        if (counters != null) {
-            for (@Nonnull Map.Entry<String, Object> entry : counters.entrySet()) {
-                @Nonnull ArrayList<Double> counter = Lists.newArrayList();
-                try {
-                    counter.add(Double.valueOf(entry.getValue().toString()));
-                } catch (NumberFormatException e) {
-                    LOGGER.warn("skipping value due to not being able to parse as double: " +
-                            entry.getValue().toString(), e);
-                }
-                @Nonnull CounterVariable cv = new CounterVariable(CounterVariable.MetricKind.Counter, counter);
-                variables.put(entry.getKey(), cv);
+    private static boolean isIgnored(char c) {
+        return c == '[' || c == ']';
+    }
+
+    private static int indexOf(@Nonnull CharSequence line, char c, int from, int to) {
+        for (int x = from; x < to; x++) {
+            if (line.charAt(x) == c) {
+                return x;
             }
         }
+        return to;
+    }
 
-        @Nonnull final Map<String, ArrayList<Object>> timers;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, ArrayList<Object>> timersMap = (Map<String, ArrayList<Object>>) line.get("timers");
-            timers = timersMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element timers", e);
-        }
-        if (timers != null) {
-            for (@Nonnull Map.Entry<String, ArrayList<Object>> entryArray : timers.entrySet()) {
-                @Nonnull ArrayList<Double> counter = Lists.newArrayList();
-                for (@Nonnull Object entry : entryArray.getValue()) {
-                    try {
-                        counter.add(Double.valueOf(entry.toString()));
-                    } catch (NumberFormatException e) {
-                        LOGGER.warn("skipping value due to not being able to parse as double: " + entry.toString(), e);
-                    }
-                }
-                @Nonnull CounterVariable cv = new CounterVariable(CounterVariable.MetricKind.Timer, counter);
-                variables.put(entryArray.getKey(), cv);
-            }
+    private static int skipBlank(@Nonnull CharSequence line, int from, int to) {
+        while (from < to && (line.charAt(from) <= ' ' || isIgnored(line.charAt(from)))) {
+            from++;
         }
+        return from;
+    }
 
-        DateTime timestamp;
-        if (variables.containsKey("initTimestamp")) {
-            Double time = variables.get("initTimestamp").getValues().get(0);
-            //double with whole number unix time, and fractional seconds
-            Long ticks = Math.round(time * 1000);
-            timestamp = new DateTime(ticks, ISOChronology.getInstanceUTC());
-            variables.remove("initTimestamp");
-        } else {
-            throw new ParseException("no timestamp found in log line");
+    /**
+     * Checks whether anything but separators follows the first equals sign of a field, any of it is read as the
+     * value.
+     */
+    private static boolean hasValue(@Nonnull CharSequence line, int equals, int fieldEnd) {
+        for (int x = equals + 1; x < fieldEnd; x++) {
+            char c = line.charAt(x);
+            if (c != '=' && !isIgnored(c)) {
+                return true;
+            }
         }
-        return new StandardLogLine(variables, timestamp);
+        return false;
     }
 
-    @Nonnull
-    LogLine parseV2bLogLine(@Nonnull Map<String, Object> line) throws ParseException {
-        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
+    private static int skipBlankBack(@Nonnull CharSequence line, int from, int to) {
+        while (to > from && (line.charAt(to - 1) <= ' ' || isIgnored(line.charAt(to - 1)))) {
+            to--;
+        }
+        return to;
+    }
 
-        @Nonnull final Map<String, Object> counters;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, Object> countersMap = (Map<String, Object>) line.get("counters");
-            counters = countersMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element counters", e);
-        }
-        if (counters != null) {
-            for (@Nonnull Map.Entry<String, Object> entry : counters.entrySet()) {
-                @Nonnull ArrayList<Double> counter = Lists.newArrayList();
-                try {
-                    counter.add(Double.parseDouble(entry.getValue().toString()));
-                } catch (NumberFormatException e) {
-                    LOGGER.warn("skipping value due to not being able to parse as double: " + entry.getValue(), e);
-                }
-                @Nonnull CounterVariable cv = new CounterVariable(CounterVariable.MetricKind.Counter, counter);
-                variables.put(entry.getKey(), cv);
+    private static boolean hasIgnored(@Nonnull CharSequence line, int from, int to) {
+        for (int x = from; x < to; x++) {
+            if (isIgnored(line.charAt(x))) {
+                return true;
             }
         }
+        return false;
+    }
 
-        @Nonnull final Map<String, ArrayList<Object>> timers;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, ArrayList<Object>> timersMap = (Map<String, ArrayList<Object>>) line.get("timers");
-            timers = timersMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element timers", e);
-        }
-        if (timers != null) {
-            for (@Nonnull Map.Entry<String, ArrayList<Object>> entry : timers.entrySet()) {
-                ArrayList<Object> vals = entry.getValue();
-                @Nonnull ArrayList<Double> newVals = Lists.newArrayList();
-                for (@Nonnull Object val : vals) {
-                    try {
-                        newVals.add(Double.valueOf(val.toString()));
-                    } catch (NumberFormatException e) {
-                        LOGGER.warn("skipping value due to not being able to parse as double: " + val, e);
-                    }
+    /**
+     * Gets a range of a line as a string, trimmed and without brackets.
+     */
+    @Nonnull
+    private static String slice(@Nonnull CharSequence line, int from, int to) {
+        from = skipBlank(line, from, to);
+        to = skipBlankBack(line, from, to);
+        if (hasIgnored(line, from, to)) {
+            @Nonnull StringBuilder builder = new StringBuilder(to - from);
+            for (int x = from; x < to; x++) {
+                if (!isIgnored(line.charAt(x))) {
+                    builder.append(line.charAt(x));
                 }
-                @Nonnull CounterVariable cv = new CounterVariable(CounterVariable.MetricKind.Timer, newVals);
-                variables.put(entry.getKey(), cv);
             }
+            return builder.toString();
         }
+        return line.subSequence(from, to).toString();
+    }
 
-        @Nonnull final Map<String, String> annotations;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, String> annotationsMap = (Map<String, String>) line.get("annotations");
-            annotations = annotationsMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element annotations", e);
+    /**
+     * Parses a range of a line as a number, in place unless there are brackets inside it.
+     */
+    private static double parseValue(@Nonnull CharSequence line, int from, int to) {
+        from = skipBlank(line, from, to);
+        to = skipBlankBack(line, from, to);
+        if (hasIgnored(line, from, to)) {
+            return DoubleParser.parse(slice(line, from, to));
         }
-        if (annotations == null) {
+        return DoubleParser.parse(line, from, to);
+    }
+
+    @Nonnull
+    private LogLine buildV2aLogLine() throws ParseException {
+        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
+        addScalarVariables(_counters, CounterVariable.MetricKind.Counter, variables);
+        addArrayVariables(_timers, CounterVariable.MetricKind.Timer, variables);
+
+        CounterVariable initTimestamp = variables.remove("initTimestamp");
+        if (initTimestamp == null || initTimestamp.getValueCount() == 0) {
             throw new ParseException("no timestamp found in log line");
         }
-        @Nullable DateTime timestamp = getTimestamp(annotations);
+        return new StandardLogLine(variables, toDateTime(initTimestamp.getValue(0)));
+    }
 
-        return new StandardLogLine(variables, timestamp);
+    @Nonnull
+    private LogLine buildV2bLogLine() throws ParseException {
+        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
+        addScalarVariables(_counters, CounterVariable.MetricKind.Counter, variables);
+        addArrayVariables(_timers, CounterVariable.MetricKind.Timer, variables);
+        return new StandardLogLine(variables, getTimestamp());
     }
 
-    @Nullable
-    private DateTime getTimestamp(@Nonnull Map<String, String> annotations) throws ParseException {
-        @Nullable DateTime timestamp = null;
-        if (annotations.containsKey("finalTimestamp")) {
-            @Nullable Double time;
-            try {
-                time = Double.parseDouble(annotations.get("finalTimestamp"));
-            } catch (NumberFormatException e) {
-                LOGGER.warn("finalTimestamp value is not parsable, falling back to initTimestamp, value: " +
-                        annotations.get("finalTimestamp"), e);
-                time = null;
+    @Nonnull
+    private LogLine buildV2cLogLine() throws ParseException {
+        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
+        addArrayVariables(_timers, CounterVariable.MetricKind.Timer, variables);
+        addArrayVariables(_counters, CounterVariable.MetricKind.Counter, variables);
+        addArrayVariables(_gauges, CounterVariable.MetricKind.Gauge, variables);
+        return new StandardLogLine(variables, getTimestamp());
+    }
+
+    private void addScalarVariables(@Nonnull Section section, CounterVariable.MetricKind kind,
+                                    @Nonnull Map<String, CounterVariable> variables) throws ParseException {
+        section.checkWellFormed();
+        for (int x = 0; x < section.getEntryCount(); x++) {
+            @Nonnull double[] values;
+            if (section.isArray(x)) {
+                _errors.record(ParseErrors.Type.BadValue, "skipping value that is an array", section.getEntryName(x),
+                        null);
+                values = new double[0];
+            } else {
+                values = section.getValues(x);
             }
-            if (time != null) {
-                //double with whole number unix time, and fractional seconds
-                Long ticks = Math.round(time * 1000);
-                timestamp = new DateTime(ticks, ISOChronology.getInstanceUTC());
+            variables.put(section.getEntryName(x), new CounterVariable(kind, values));
+        }
+    }
+
+    private void addArrayVariables(@Nonnull Section section, CounterVariable.MetricKind kind,
+                                   @Nonnull Map<String, CounterVariable> variables) throws ParseException {
+        section.checkWellFormed();
+        for (int x = 0; x < section.getEntryCount(); x++) {
+            if (!section.isArray(x)) {
+                throw new ParseException("could not cast element " + section.getName() + ", value of " +
+                        section.getEntryName(x) + " is not an array");
             }
+            variables.put(section.getEntryName(x), new CounterVariable(kind, section.getValues(x)));
         }
+    }
 
-        if (timestamp == null && annotations.containsKey("initTimestamp")) {
-            @Nullable Double time;
+    @Nonnull
+    private DateTime getTimestamp() throws ParseException {
+        _annotations.checkWellFormed();
+        @Nullable DateTime timestamp = null;
+        if (_annotations.getFinalTimestamp() != null) {
             try {
-                time = Double.parseDouble(annotations.get("initTimestamp"));
-            } catch (NumberFormatException e) {
-                LOGGER.warn("initTimestamp value is not parsable, falling back to initTimestamp, value: " +
-                        annotations.get("initTimestamp"), e);
-                time = null;
-
+                timestamp = toDateTime(DoubleParser.parse(_annotations.getFinalTimestamp()));
+            } catch (NumberFormatException ignored) {
+                _errors.record(ParseErrors.Type.BadTimestamp,
+                        "finalTimestamp value is not parsable, falling back to initTimestamp",
+                        _annotations.getFinalTimestamp(), null);
             }
-            if (time != null) {
-                //double with whole number unix time, and fractional seconds
-                Long ticks = Math.round(time * 1000);
-                timestamp = new DateTime(ticks, ISOChronology.getInstanceUTC());
+        }
+
+        if (timestamp == null && _annotations.getInitTimestamp() != null) {
+            try {
+                timestamp = toDateTime(DoubleParser.parse(_annotations.getInitTimestamp()));
+            } catch (NumberFormatException ignored) {
+                _errors.record(ParseErrors.Type.BadTimestamp, "initTimestamp value is not parsable",
+                        _annotations.getInitTimestamp(), null);
             }
         }
 
@@ -245,97 +293,444 @@ public class QueryLogParser implements LogParser {
         return timestamp;
     }
 
+    @Nonnull
+    private static DateTime toDateTime(double time) {
+        //double with whole number unix time, and fractional seconds
+        return new DateTime(Math.round(time * 1000), ISOChronology.getInstanceUTC());
+    }
+
     @Override
     @Nonnull
     public Optional<LogLine> parseLogLine(String line) {
-        @Nullable LogLine logLine;
+        if (!opensObject(line)) {
+            return parseLegacyLine(line, null);
+        }
+        @Nullable final String version;
+        try {
+            version = readJsonLine(JSON_FACTORY.createJsonParser(line));
+        } catch (IOException ex) {
+            return parseLegacyLine(line, ex);
+        }
+        return buildLogLine(version, line);
+    }
 
-        final Map<String, Object> jsonLine;
+    @Override
+    @Nonnull
+    public Optional<LogLine> parseLogLine(@Nonnull byte[] line, int offset, int length) {
+        int start = skipByteOrderMark(line, offset, length);
+        if (!opensObject(line, start, offset + length)) {
+            return parseLegacyLine(line, offset, length, null);
+        }
+        @Nullable final String version;
         try {
-            @SuppressWarnings(value = "unchecked")
-            Map<String, Object> lineMap = MAPPER.readValue(line, Map.class);
-            jsonLine = lineMap;
+            //the json parser fails on a byte order mark when not at the start of the array
+            version = readJsonLine(JSON_FACTORY.createJsonParser(line, start, offset + length - start));
         } catch (IOException ex) {
-            LOGGER.warn("Possible legacy, non-json tsd line found: ", ex);
-            try {
-                logLine = parseLegacyLogLine(line);
-            } catch (Exception e) {
-                LOGGER.warn("Discarding line: Unparsable.\nLine was:\n" + line, e);
-                logLine = null;
+            return parseLegacyLine(line, offset, length, ex);
+        }
+        return buildLogLine(version, new Utf8Line(line, offset, length));
+    }
+
+    /**
+     * Checks whether a line starts like a json object, with an opening brace after any whitespace and byte order
+     * mark.  Any other line would fail as json, so it is read as a legacy line without trying.
+     *
+     * @param line the line
+     * @return true if the line may be a json object
+     */
+    private static boolean opensObject(@Nonnull String line) {
+        for (int x = 0; x < line.length(); x++) {
+            char c = line.charAt(x);
+            if (c > ' ' && c != BYTE_ORDER_MARK) {
+                return c == '{';
             }
-            return Optional.fromNullable(logLine);
         }
+        return false;
+    }
+
+    private static int skipByteOrderMark(@Nonnull byte[] line, int offset, int length) {
+        if (length >= UTF8_BYTE_ORDER_MARK.length && line[offset] == UTF8_BYTE_ORDER_MARK[0]
+                && line[offset + 1] == UTF8_BYTE_ORDER_MARK[1] && line[offset + 2] == UTF8_BYTE_ORDER_MARK[2]) {
+            return offset + UTF8_BYTE_ORDER_MARK.length;
+        }
+        return offset;
+    }
+
+    private static boolean opensObject(@Nonnull byte[] line, int from, int to) {
+        for (int x = from; x < to; x++) {
+            //bytes of multibyte characters are negative, so never taken as whitespace
+            if (line[x] < 0 || line[x] > ' ') {
+                return line[x] == '{';
+            }
+        }
+        return false;
+    }
+
+    @Nonnull
+    private Optional<LogLine> parseLegacyLine(@Nonnull byte[] line, int offset, int length,
+                                              @Nullable IOException jsonException) {
+        //legacy lines are scanned in place unless they have to be decoded
+        if (AsciiLine.isAscii(line, offset, length)) {
+            return parseLegacyLine(new AsciiLine(line, offset, length), jsonException);
+        }
+        return parseLegacyLine(new String(line, offset, length, Charsets.UTF_8), jsonException);
+    }
+
+    @Nonnull
+    private Optional<LogLine> parseLegacyLine(@Nonnull CharSequence line, @Nullable IOException jsonException) {
+        @Nullable LogLine logLine;
+        _errors.record(ParseErrors.Type.LegacyLine, "possible legacy, non-json tsd line found", line, jsonException);
+        try {
+            logLine = parseLegacyLogLine(line);
+        } catch (Exception e) {
+            _errors.record(ParseErrors.Type.UnparsableLine, "discarding unparsable line", line, e);
+            logLine = null;
+        }
+        return Optional.fromNullable(logLine);
+    }
+
+    /**
+     * Builds a log line from the section buffers.
+     *
+     * @param version the version of the line
+     * @param line the line, only converted to a string to log a discarded line
+     * @return the log line, absent if the line is discarded
+     */
+    @Nonnull
+    private Optional<LogLine> buildLogLine(@Nullable String version, @Nonnull Object line) {
+        @Nullable LogLine logLine;
         try {
-            @Nonnull String version = (String) jsonLine.get("version");
-            if (version.equals("2a")) {
-                logLine = parseV2aLogLine(jsonLine);
+            if ("2a".equals(version)) {
+                logLine = buildV2aLogLine();
 
-            } else if (version.equals("2b")) {
-                logLine = parseV2bLogLine(jsonLine);
+            } else if ("2b".equals(version)) {
+                logLine = buildV2bLogLine();
 
-            } else if (version.equals("2c")) {
-                logLine = parseV2cLogLine(jsonLine);
+            } else if ("2c".equals(version)) {
+                logLine = buildV2cLogLine();
 
             } else {
-                LOGGER.warn("Discarding line: Unknown line format version.\nLine was:\n" + line);
+                _errors.record(ParseErrors.Type.UnknownVersion, "discarding line of unknown format version", line,
+                        null);
                 logLine = null;
             }
         } catch (ParseException e) {
-            LOGGER.warn("Discarding line: Unparsable.\nLine was:\n" + line, e);
+            _errors.record(ParseErrors.Type.UnparsableLine, "discarding unparsable line", line, e);
             logLine = null;
         }
         return Optional.fromNullable(logLine);
     }
 
-    @Nonnull
-    private LogLine parseV2cLogLine(@Nonnull Map<String, Object> line) throws ParseException {
-        @Nonnull TreeMap<String, CounterVariable> variables = Maps.newTreeMap();
-        parseChunk(line, "timers", CounterVariable.MetricKind.Timer, variables);
-        parseChunk(line, "counters", CounterVariable.MetricKind.Counter, variables);
-        parseChunk(line, "gauges", CounterVariable.MetricKind.Gauge, variables);
-
-        @Nonnull final Map<String, String> annotations;
+    /**
+     * Reads a json line into the section buffers in a single pass.
+     *
+     * @param parser the parser over the line, closed when done
+     * @return the version of the line, null if it is missing or not a string
+     * @throws IOException if the line is not a json object
+     */
+    @Nullable
+    private String readJsonLine(@Nonnull JsonParser parser) throws IOException {
+        _timers.reset();
+        _counters.reset();
+        _gauges.reset();
+        _annotations.reset();
+        @Nullable String version = null;
         try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, String> annotationsMap = (Map<String, String>) line.get("annotations");
-            annotations = annotationsMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast annotations to look for timestamp", e);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("line is not a json object", parser.getCurrentLocation());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("version".equals(field)) {
+                    version = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    parser.skipChildren();
+                } else if ("timers".equals(field)) {
+                    readSection(parser, token, _timers);
+                } else if ("counters".equals(field)) {
+                    readSection(parser, token, _counters);
+                } else if ("gauges".equals(field)) {
+                    readSection(parser, token, _gauges);
+                } else if ("annotations".equals(field)) {
+                    readAnnotations(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
         }
+        return version;
+    }
 
-        if (annotations == null) {
-            throw new ParseException("no timestamp found in log line");
+    private void readSection(@Nonnull JsonParser parser, JsonToken token, @Nonnull Section section)
+            throws IOException {
+        section.reset();
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            section.setWellFormed(false);
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = METRIC_NAMES.intern(parser.getCurrentName());
+            final JsonToken valueToken = parser.nextToken();
+            if (valueToken == JsonToken.START_ARRAY) {
+                section.startEntry(name, true);
+                JsonToken elementToken;
+                while ((elementToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    readValue(parser, elementToken, section);
+                }
+            } else {
+                section.startEntry(name, false);
+                readValue(parser, valueToken, section);
+            }
+            section.endEntry();
+        }
+    }
+
+    private void readValue(@Nonnull JsonParser parser, JsonToken token, @Nonnull Section section) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            section.addValue(parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_STRING) {
+            //parsed from the token's characters, without building a string
+            try {
+                section.addValue(DoubleParser.parse(parser.getTextCharacters(), parser.getTextOffset(),
+                        parser.getTextLength()));
+            } catch (NumberFormatException ignored) {
+                _errors.record(ParseErrors.Type.BadValue, "skipping value that is not a number", parser.getText(),
+                        null);
+            }
+        } else {
+            _errors.record(ParseErrors.Type.BadValue, "skipping value that is not a number", parser.getText(), null);
+            parser.skipChildren();
         }
+    }
+
+    private void readAnnotations(@Nonnull JsonParser parser, JsonToken token) throws IOException {
+        _annotations.reset();
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        _annotations.setPresent(true);
+        if (token != JsonToken.START_OBJECT) {
+            _annotations.setWellFormed(false);
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken valueToken = parser.nextToken();
+            @Nullable final String text = valueToken.isScalarValue() && valueToken != JsonToken.VALUE_NULL
+                    ? parser.getText() : null;
+            parser.skipChildren();
+            if ("finalTimestamp".equals(name)) {
+                _annotations.setFinalTimestamp(text);
+            } else if ("initTimestamp".equals(name)) {
+                _annotations.setInitTimestamp(text);
+            }
+        }
+    }
+
+    /**
+     * A UTF-8 encoded line that is only decoded if it is printed.
+     */
+    private static final class Utf8Line {
+        private final byte[] _bytes;
+        private final int _offset;
+        private final int _length;
 
-        @Nullable DateTime timestamp = getTimestamp(annotations);
+        private Utf8Line(byte[] bytes, int offset, int length) {
+            _bytes = bytes;
+            _offset = offset;
+            _length = length;
+        }
 
-        return new StandardLogLine(variables, timestamp);
+        @Override
+        public String toString() {
+            return new String(_bytes, _offset, _length, Charsets.UTF_8);
+        }
     }
 
-    private void parseChunk(@Nonnull Map<String, Object> lineData, String element, CounterVariable.MetricKind kind,
-                            @Nonnull Map<String, CounterVariable> variables) throws ParseException {
-        @Nonnull final Map<String, ArrayList<Object>> elements;
-        try {
-            @Nonnull @SuppressWarnings(value = "unchecked")
-            Map<String, ArrayList<Object>> elementMap = (Map<String, ArrayList<Object>>) lineData.get(element);
-            elements = elementMap;
-        } catch (Exception e) {
-            throw new ParseException("could not cast element " + element, e);
-        }
-        if (elements != null) {
-            for (@Nonnull Map.Entry<String, ArrayList<Object>> entry : elements.entrySet()) {
-                ArrayList<Object> lineValues = entry.getValue();
-                @Nonnull ArrayList<Double> parsedValues = Lists.newArrayList();
-                for (@Nonnull Object val : lineValues) {
-                    try {
-                        parsedValues.add(Double.valueOf(val.toString()));
-                    } catch (NumberFormatException e) {
-                        LOGGER.warn("skipping value due to not being able to parse as double: " + val, e);
-                    }
+    /**
+     * A line of ASCII bytes read as characters without decoding it.
+     */
+    private static final class AsciiLine implements CharSequence {
+        private final byte[] _bytes;
+        private final int _offset;
+        private final int _length;
+
+        private AsciiLine(byte[] bytes, int offset, int length) {
+            _bytes = bytes;
+            _offset = offset;
+            _length = length;
+        }
+
+        public static boolean isAscii(@Nonnull byte[] bytes, int offset, int length) {
+            for (int x = offset; x < offset + length; x++) {
+                if (bytes[x] < 0) {
+                    return false;
                 }
-                @Nonnull CounterVariable cv = new CounterVariable(kind, parsedValues);
-                variables.put(entry.getKey(), cv);
             }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return _length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) _bytes[_offset + index];
+        }
+
+        @Nonnull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(_bytes, _offset + start, end - start, Charsets.US_ASCII);
+        }
+
+        @Nonnull
+        @Override
+        public String toString() {
+            return new String(_bytes, _offset, _length, Charsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Reusable buffer holding the entries of one element (timers, counters or gauges) of a json line.  Values of all
+     * entries share a single primitive array.
+     */
+    private static final class Section {
+        private final String _name;
+        private boolean _wellFormed = true;
+        private int _entryCount = 0;
+        private String[] _entryNames = new String[16];
+        private boolean[] _entryIsArray = new boolean[16];
+        private int[] _entryOffsets = new int[17];
+        private double[] _values = new double[64];
+        private int _valueCount = 0;
+
+        private Section(String name) {
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public void reset() {
+            Arrays.fill(_entryNames, 0, _entryCount, null);
+            _wellFormed = true;
+            _entryCount = 0;
+            _valueCount = 0;
+        }
+
+        public void setWellFormed(boolean wellFormed) {
+            _wellFormed = wellFormed;
+        }
+
+        public void checkWellFormed() throws ParseException {
+            if (!_wellFormed) {
+                throw new ParseException("could not cast element " + _name);
+            }
+        }
+
+        public void startEntry(String name, boolean isArray) {
+            if (_entryCount == _entryNames.length) {
+                _entryNames = Arrays.copyOf(_entryNames, _entryCount * 2);
+                _entryIsArray = Arrays.copyOf(_entryIsArray, _entryCount * 2);
+                _entryOffsets = Arrays.copyOf(_entryOffsets, _entryCount * 2 + 1);
+            }
+            _entryNames[_entryCount] = name;
+            _entryIsArray[_entryCount] = isArray;
+            _entryOffsets[_entryCount] = _valueCount;
+        }
+
+        public void addValue(double value) {
+            if (_valueCount == _values.length) {
+                _values = Arrays.copyOf(_values, _valueCount * 2);
+            }
+            _values[_valueCount++] = value;
+        }
+
+        public void endEntry() {
+            _entryCount++;
+            _entryOffsets[_entryCount] = _valueCount;
+        }
+
+        public int getEntryCount() {
+            return _entryCount;
+        }
+
+        public String getEntryName(int entry) {
+            return _entryNames[entry];
+        }
+
+        public boolean isArray(int entry) {
+            return _entryIsArray[entry];
+        }
+
+        @Nonnull
+        public double[] getValues(int entry) {
+            return Arrays.copyOfRange(_values, _entryOffsets[entry], _entryOffsets[entry + 1]);
+        }
+    }
+
+    /**
+     * The annotations of a json line that are relevant to parsing.
+     */
+    private static final class Annotations {
+        private boolean _present = false;
+        private boolean _wellFormed = true;
+        @Nullable
+        private String _initTimestamp;
+        @Nullable
+        private String _finalTimestamp;
+
+        public void reset() {
+            _present = false;
+            _wellFormed = true;
+            _initTimestamp = null;
+            _finalTimestamp = null;
+        }
+
+        public void setPresent(boolean present) {
+            _present = present;
+        }
+
+        public void setWellFormed(boolean wellFormed) {
+            _wellFormed = wellFormed;
+        }
+
+        public void checkWellFormed() throws ParseException {
+            if (!_present) {
+                throw new ParseException("no timestamp found in log line");
+            }
+            if (!_wellFormed) {
+                throw new ParseException("could not cast annotations to look for timestamp");
+            }
+        }
+
+        @Nullable
+        public String getInitTimestamp() {
+            return _initTimestamp;
+        }
+
+        public void setInitTimestamp(@Nullable String initTimestamp) {
+            _initTimestamp = initTimestamp;
+        }
+
+        @Nullable
+        public String getFinalTimestamp() {
+            return _finalTimestamp;
+        }
+
+        public void setFinalTimestamp(@Nullable String finalTimestamp) {
+            _finalTimestamp = finalTimestamp;
         }
     }
 }
@@ -1,31 +1,99 @@
 package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
+import com.arpnetworking.tsdaggregator.statistics.Accumulator;
+import com.arpnetworking.tsdaggregator.statistics.AccumulatorStatistic;
+import com.arpnetworking.tsdaggregator.statistics.BaseStatistic;
+import com.arpnetworking.tsdaggregator.statistics.MultiSelect;
 import com.arpnetworking.tsdaggregator.statistics.OrderedStatistic;
+import com.arpnetworking.tsdaggregator.statistics.QuantileSketch;
+import com.arpnetworking.tsdaggregator.statistics.RankStatistic;
+import com.arpnetworking.tsdaggregator.statistics.SketchStatistic;
+import com.arpnetworking.tsdaggregator.statistics.SketchTPStatistic;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.Summary;
+import com.arpnetworking.tsdaggregator.statistics.SummaryStatistic;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
-import org.joda.time.Duration;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Holds samples, delegates calculations to statistics, and emits the calculated statistics.
+ *
+ * Samples for the current period go into a bucket.  Rotating swaps in a fresh bucket and queues the old one to be
+ * emitted; the swap is a compare and set, and a retired bucket is only emitted once no writer is still inside it,
+ * so adding samples never takes a lock.  Rotation can be triggered by a sample past the end of the period or by
+ * checkRotate, but emission only happens in checkRotate and close, i.e. on the thread closing aggregations.  Each
+ * aggregation supports one thread adding samples at a time.
+ *
+ * Each bucket keeps a Summary (count, sum, minimum, maximum, first and last) up to date as samples are added, and the
+ * statistics that can be read from it are calculated from it in constant time rather than from the samples.  When
+ * every statistic can be read from the summary or calculated by an Accumulator, the bucket keeps the summary and one
+ * accumulator per statistic instead of the samples, so its memory use does not grow with the number of samples.
  */
 public class TSAggregation {
+    /**
+     * Notified when adding a sample rotates the aggregation, so it can be scheduled for emission.
+     */
+    public interface RotationListener {
+        void rotated(@Nonnull TSAggregation aggregation);
+    }
+
+    private static final RotationListener NO_LISTENER = new RotationListener() {
+        @Override
+        public void rotated(@Nonnull TSAggregation aggregation) {
+        }
+    };
+
+    /**
+     * What a bucket keeps to calculate the statistics from.
+     */
+    private enum Storage {
+        Samples,
+        Sketch,
+        Accumulators
+    }
 
     private static final Logger LOGGER = Logger.getLogger(TSAggregation.class);
+    private static final int INITIAL_SAMPLE_CAPACITY = 16;
+    private static final long MILLIS_PER_HOUR = 3600000L;
     @Nonnull
     private final Period _period;
-    private final ArrayList<Double> _samples = Lists.newArrayList();
+    //length of the period, or 0 when it depends on the calendar (months and years)
+    private final long _periodMillis;
     private final Set<Statistic> _orderedStatistics = Sets.newHashSet();
     private final Set<Statistic> _unorderedStatistics = Sets.newHashSet();
+    private final Set<Statistic> _summaryStatistics = Sets.newHashSet();
+    private final AccumulatorStatistic[] _accumulatorStatistics;
+    //samples are only kept when some statistic cannot be answered from a sketch or accumulators
+    @Nonnull
+    private final Storage _storage;
     @Nonnull
     private final String _metric;
     @Nonnull
@@ -34,94 +102,825 @@ public class TSAggregation {
     private final String _serviceName;
     @Nonnull
     private final AggregationPublisher _listener;
-    private int _numberOfSamples = 0;
-    private DateTime _periodStart = new DateTime(0);
+    @Nonnull
+    private final AtomicReference<Bucket> _current;
+    //retired buckets waiting to be emitted, and an emitted bucket kept to be reused as the next current bucket
+    private final Queue<Bucket> _retired = new ConcurrentLinkedQueue<Bucket>();
+    private final AtomicReference<Bucket> _spare = new AtomicReference<Bucket>();
+    @Nonnull
+    private final RotationListener _rotationListener;
+    //only used by the thread closing aggregations
+    @Nonnull
+    private final TimerWheel.Timeout<TSAggregation> _timeout = new TimerWheel.Timeout<TSAggregation>(this);
+    //coarser aggregations built from the periods of this one
+    private final List<TSAggregation> _rollups = new CopyOnWriteArrayList<TSAggregation>();
+    //consecutive periods emitted without samples
+    private volatile int _idlePeriods = 0;
+    private volatile boolean _evicted = false;
 
     public TSAggregation(@Nonnull String metric, @Nonnull Period period, @Nonnull AggregationPublisher listener,
                          @Nonnull String hostName, @Nonnull String serviceName, @Nonnull Set<Statistic> statistics) {
+        this(metric, period, listener, hostName, serviceName, statistics, NO_LISTENER);
+    }
+
+    public TSAggregation(@Nonnull String metric, @Nonnull Period period, @Nonnull AggregationPublisher listener,
+                         @Nonnull String hostName, @Nonnull String serviceName, @Nonnull Set<Statistic> statistics,
+                         @Nonnull RotationListener rotationListener) {
+        _rotationListener = rotationListener;
         _metric = metric;
         _period = period;
-        addStatistics(statistics, _orderedStatistics, _unorderedStatistics);
+        if (period.getYears() == 0 && period.getMonths() == 0) {
+            _periodMillis = period.toStandardDuration().getMillis();
+            if (_periodMillis <= 0) {
+                throw new IllegalArgumentException("period must be positive, was " + period);
+            }
+        } else {
+            _periodMillis = 0;
+        }
+        addStatistics(statistics);
+        _storage = chooseStorage(statistics);
+        _accumulatorStatistics = accumulatorStatistics(statistics);
         _hostName = hostName;
         _serviceName = serviceName;
         _listener = listener;
+        @Nonnull Bucket initial = new Bucket(_storage, _accumulatorStatistics);
+        initial.setPeriod(0, periodEnd(0, DateTimeZone.UTC), DateTimeZone.UTC);
+        _current = new AtomicReference<Bucket>(initial);
     }
 
-    private void addStatistics(@Nonnull Set<Statistic> stats, @Nonnull Set<Statistic> orderedStatsSet,
-                               @Nonnull Set<Statistic> unorderedStatsSet) {
+    private void addStatistics(@Nonnull Set<Statistic> stats) {
         for (Statistic s : stats) {
-            addStatistic(s, orderedStatsSet, unorderedStatsSet);
+            addStatistic(s);
         }
     }
 
-    private void addStatistic(Statistic s, @Nonnull Set<Statistic> orderedStatsSet,
-                              @Nonnull Set<Statistic> unorderedStatsSet) {
-        if (s instanceof OrderedStatistic) {
-            orderedStatsSet.add(s);
+    private void addStatistic(Statistic s) {
+        if (s instanceof SummaryStatistic) {
+            _summaryStatistics.add(s);
+        } else if (s instanceof OrderedStatistic) {
+            _orderedStatistics.add(s);
         } else {
-            unorderedStatsSet.add(s);
+            _unorderedStatistics.add(s);
         }
     }
 
-    public void addSample(Double value, @Nonnull DateTime time) {
-        rotateAggregation(time);
-        _samples.add(value);
-        _numberOfSamples++;
-        LOGGER.debug("Added sample to aggregation: time = " + time.toString());
+    @Nonnull
+    private static Storage chooseStorage(@Nonnull Set<Statistic> stats) {
+        if (stats.isEmpty()) {
+            return Storage.Samples;
+        }
+        boolean accumulators = true;
+        boolean sketch = true;
+        for (Statistic s : stats) {
+            accumulators &= s instanceof SummaryStatistic || s instanceof AccumulatorStatistic;
+            sketch &= s instanceof SketchStatistic;
+        }
+        if (accumulators) {
+            return Storage.Accumulators;
+        }
+        return sketch ? Storage.Sketch : Storage.Samples;
     }
 
-    public void checkRotate(double rotateFactor) {
-        Duration rotateDuration = Duration.millis(
-                (long) (_period.toDurationFrom(_periodStart).getMillis() * rotateFactor));
-        rotateAggregation(DateTime.now().minus(new Duration(rotateDuration)));
+    /**
+     * Gets the statistics calculated by accumulators, in a fixed order so snapshots can be matched up again.
+     *
+     * @param stats the statistics
+     * @return the statistics that need an accumulator, ordered by name
+     */
+    @Nonnull
+    private static AccumulatorStatistic[] accumulatorStatistics(@Nonnull Set<Statistic> stats) {
+        @Nonnull List<AccumulatorStatistic> accumulated = Lists.newArrayList();
+        for (Statistic s : stats) {
+            if (s instanceof AccumulatorStatistic && !(s instanceof SummaryStatistic)) {
+                accumulated.add((AccumulatorStatistic) s);
+            }
+        }
+        Collections.sort(accumulated, new Comparator<AccumulatorStatistic>() {
+            @Override
+            public int compare(AccumulatorStatistic a, AccumulatorStatistic b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return accumulated.toArray(new AccumulatorStatistic[accumulated.size()]);
     }
 
-    private void rotateAggregation(@Nonnull DateTime time) {
-        LOGGER.trace("Checking roll. Period is " + _period + ", Roll time is " + _periodStart.plus(_period));
-        if (time.isAfter(_periodStart.plus(_period))) {
-            //Calculate the start of the new aggregation
-            LOGGER.debug("We're rolling");
-            DateTime startPeriod = time.hourOfDay().roundFloorCopy();
-            while (!(startPeriod.isBefore(time) && startPeriod.plus(_period).isAfter(time))
-                    && (!startPeriod.equals(time))) {
-                startPeriod = startPeriod.plus(_period);
+    public void addSample(double value, @Nonnull DateTime time) {
+        @Nonnull Bucket bucket = enter(time);
+        try {
+            bucket.add(value);
+        } finally {
+            bucket.exit();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Added sample to aggregation: time = " + time.toString());
+        }
+    }
+
+    /**
+     * Adds all of the values of a variable as samples.
+     *
+     * @param data the variable
+     * @param time the time of the samples
+     */
+    public void addSamples(@Nonnull CounterVariable data, @Nonnull DateTime time) {
+        @Nonnull Bucket bucket = enter(time);
+        try {
+            for (int x = 0; x < data.getValueCount(); x++) {
+                bucket.add(data.getValue(x));
+            }
+        } finally {
+            bucket.exit();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Added samples to aggregation: time = " + time.toString());
+        }
+    }
+
+    /**
+     * Gets the bucket samples at a time belong in, rotating first if the time is past the current period, and
+     * registers the calling thread as a writer of it.  The caller must call exit on the bucket when done.
+     *
+     * @param time the time of the samples
+     * @return the bucket to add to
+     */
+    @Nonnull
+    private Bucket enter(@Nonnull DateTime time) {
+        return enter(time.getMillis(), time.getZone());
+    }
+
+    @Nonnull
+    private Bucket enter(long millis, @Nonnull DateTimeZone zone) {
+        while (true) {
+            @Nonnull Bucket bucket = _current.get();
+            if (millis > bucket.getEndMillis()) {
+                if (rotateAggregation(bucket, millis, zone)) {
+                    _rotationListener.rotated(this);
+                }
+                continue;
             }
-            LOGGER.debug("New start period is " + startPeriod);
-            emitAggregations();
-            _periodStart = startPeriod;
-            _numberOfSamples = 0;
-            _samples.clear();
+            bucket.enter();
+            //the closer may have swapped the bucket out between the read and the enter
+            if (_current.get() == bucket) {
+                return bucket;
+            }
+            bucket.exit();
+        }
+    }
+
+    public void checkRotate(double rotateFactor) {
+        checkRotate(DateTime.now().getMillis(), rotateFactor);
+    }
+
+    /**
+     * Emits the retired periods and rotates the current period if it ended more than a fraction of a period ago.
+     *
+     * @param nowMillis the current time
+     * @param rotateFactor the fraction of the period to wait after its end for late samples
+     * @return the time the current period should next be checked
+     */
+    public long checkRotate(long nowMillis, double rotateFactor) {
+        emitRetired();
+        @Nonnull Bucket bucket = _current.get();
+        long rotateDelay = (long) ((bucket.getEndMillis() - bucket.getStartMillis()) * rotateFactor);
+        if (nowMillis - rotateDelay > bucket.getEndMillis()) {
+            rotateAggregation(bucket, nowMillis - rotateDelay, DateTimeZone.getDefault());
+            emitRetired();
+            bucket = _current.get();
+            rotateDelay = (long) ((bucket.getEndMillis() - bucket.getStartMillis()) * rotateFactor);
         }
+        return bucket.getEndMillis() + rotateDelay + 1;
+    }
+
+    @Nonnull
+    public TimerWheel.Timeout<TSAggregation> getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * Replaces the current bucket with an empty one for the period containing a time and queues the old bucket to be
+     * emitted.  Nothing happens if another thread already replaced the bucket.
+     *
+     * @param current the bucket that was current
+     * @param millis the time the new period must contain
+     * @param zone the time zone the period is aligned in
+     * @return true if this call rotated the bucket
+     */
+    private boolean rotateAggregation(@Nonnull Bucket current, long millis, @Nonnull DateTimeZone zone) {
+        long start = periodStart(millis, zone);
+        long end = periodEnd(start, zone);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Rolling " + _metric + " " + _period + ", new start period is " + new DateTime(start, zone));
+        }
+
+        @Nullable Bucket next = _spare.getAndSet(null);
+        if (next == null) {
+            next = new Bucket(_storage, _accumulatorStatistics);
+        }
+        next.setPeriod(start, end, zone);
+        if (_current.compareAndSet(current, next)) {
+            _retired.add(current);
+            return true;
+        }
+        _spare.compareAndSet(null, next);
+        return false;
+    }
+
+    /**
+     * Gets the start of the period containing a time.
+     *
+     * @param millis the time
+     * @param zone the time zone
+     * @return the start of the period
+     */
+    private long periodStart(long millis, @Nonnull DateTimeZone zone) {
+        return periodStart(millis, zone, _periodMillis);
+    }
+
+    /**
+     * Gets the start of the period of a fixed length containing a time.  Periods are aligned to the start of the hour
+     * in the time zone; a period of an hour or more, or of no fixed length, starts at the start of the hour.
+     *
+     * @param millis the time
+     * @param zone the time zone
+     * @param periodMillis the length of the period, 0 if it depends on the calendar
+     * @return the start of the period
+     */
+    static long periodStart(long millis, @Nonnull DateTimeZone zone, long periodMillis) {
+        long intoHour = (millis + zone.getOffset(millis)) % MILLIS_PER_HOUR;
+        if (intoHour < 0) {
+            intoHour += MILLIS_PER_HOUR;
+        }
+        long hourStart = millis - intoHour;
+        if (periodMillis == 0) {
+            return hourStart;
+        }
+        return hourStart + ((millis - hourStart) / periodMillis) * periodMillis;
+    }
+
+    private long periodEnd(long start, @Nonnull DateTimeZone zone) {
+        if (_periodMillis == 0) {
+            return new DateTime(start, zone).plus(_period).getMillis();
+        }
+        return start + _periodMillis;
     }
 
     public void close() {
-        emitAggregations();
+        @Nonnull Bucket bucket = _current.get();
+        @Nonnull Bucket next = new Bucket(_storage, _accumulatorStatistics);
+        next.setPeriod(bucket.getStartMillis(), bucket.getEndMillis(), bucket.getZone());
+        if (_current.compareAndSet(bucket, next)) {
+            _retired.add(bucket);
+        }
+        emitRetired();
+    }
+
+    /**
+     * Emits the buckets that have been rotated out, waiting for any writer still adding to them.
+     */
+    public void emitRetired() {
+        @Nullable Bucket bucket;
+        while ((bucket = _retired.poll()) != null) {
+            bucket.awaitWriters();
+            _idlePeriods = bucket.getCount() == 0 ? _idlePeriods + 1 : 0;
+            emitAggregations(bucket);
+            for (@Nonnull TSAggregation rollup : _rollups) {
+                rollup.merge(bucket);
+            }
+            bucket.reset();
+            _spare.set(bucket);
+        }
+    }
+
+    /**
+     * Builds a coarser aggregation from the periods of this one.  The periods of this aggregation must each fit
+     * inside a single period of the rollup, and the rollup should not be given samples directly.
+     *
+     * @param rollup the coarser aggregation
+     */
+    public void addRollup(@Nonnull TSAggregation rollup) {
+        if (rollup._storage != _storage
+                || !Arrays.equals(rollup.accumulatorNames(), accumulatorNames())) {
+            throw new IllegalArgumentException("a rollup must keep the same kind of partial aggregates");
+        }
+        _rollups.add(rollup);
+    }
+
+    /**
+     * Merges a finished period of a finer aggregation into this one.  Merges are serialized, since finished periods
+     * can be emitted by both the closer and close.
+     *
+     * @param partial the finished period
+     */
+    private synchronized void merge(@Nonnull Bucket partial) {
+        if (partial.getCount() == 0) {
+            return;
+        }
+        //the middle of the finer period, its start can be the end of one of our periods
+        long millis = partial.getStartMillis() + (partial.getEndMillis() - partial.getStartMillis()) / 2;
+        @Nonnull Bucket bucket = enter(millis, partial.getZone());
+        try {
+            bucket.merge(partial);
+        } finally {
+            bucket.exit();
+        }
+    }
+
+    /**
+     * Merges samples aggregated ahead of time into the period containing a time.  The partial must have been created
+     * with the statistics of this aggregation.
+     *
+     * @param partial the aggregated samples
+     * @param time a time in the period the samples belong to
+     */
+    public void addPartial(@Nonnull Partial partial, @Nonnull DateTime time) {
+        if (partial._storage != _storage) {
+            throw new IllegalArgumentException("a partial must keep the same kind of partial aggregates");
+        }
+        @Nonnull Bucket bucket = enter(time);
+        try {
+            bucket.merge(partial._bucket);
+        } finally {
+            bucket.exit();
+        }
+    }
+
+    /**
+     * Writes the open period to a snapshot.  No samples may be added, and the aggregation must not be rotated, while
+     * this runs.
+     *
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeSnapshot(@Nonnull DataOutput out) throws IOException {
+        @Nonnull Bucket bucket = _current.get();
+        out.writeLong(bucket.getStartMillis());
+        out.writeLong(bucket.getEndMillis());
+        out.writeUTF(bucket.getZone().getID());
+        out.writeByte(_storage.ordinal());
+        out.writeInt(bucket.getCount());
+        if (_storage == Storage.Sketch) {
+            bucket.getSketch().writeTo(out);
+            bucket.getSummary().writeTo(out);
+        } else if (_storage == Storage.Accumulators) {
+            bucket.getSummary().writeTo(out);
+            @Nonnull Accumulator[] accumulators = bucket.getAccumulators();
+            out.writeInt(accumulators.length);
+            for (int x = 0; x < accumulators.length; x++) {
+                //each state is written with its length, so a reader without the statistic can skip it
+                @Nonnull ByteArrayOutputStream state = new ByteArrayOutputStream();
+                accumulators[x].writeTo(new DataOutputStream(state));
+                out.writeUTF(_accumulatorStatistics[x].getName());
+                out.writeInt(state.size());
+                out.write(state.toByteArray());
+            }
+        } else {
+            @Nonnull double[] samples = bucket.getSamples();
+            for (int x = 0; x < bucket.getCount(); x++) {
+                out.writeDouble(samples[x]);
+            }
+        }
+    }
+
+    /**
+     * Makes a period read from a snapshot the open period, before any sample is added.  The period is discarded if
+     * it keeps a different kind of partial aggregate than this aggregation does.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    public void restoreSnapshot(@Nonnull DataInput in) throws IOException {
+        @Nullable Bucket bucket = readSnapshot(in, _storage, _accumulatorStatistics);
+        if (bucket == null) {
+            LOGGER.warn("Discarding snapshot of " + _metric + " " + _period + ", its statistics changed");
+            return;
+        }
+        if (bucket.getCount() == 0) {
+            return;
+        }
+        _current.set(bucket);
+        _rotationListener.rotated(this);
+    }
+
+    /**
+     * Reads past a period in a snapshot.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    public static void skipSnapshot(@Nonnull DataInput in) throws IOException {
+        readSnapshot(in, null, new AccumulatorStatistic[0]);
+    }
+
+    /**
+     * Reads a period from a snapshot.  The whole period is always read, so the next one can be.
+     *
+     * @param in the input
+     * @param storage what the reading aggregation keeps, or null to only read past the period
+     * @param stats the statistics of the reading aggregation calculated by accumulators
+     * @return the period, or null if it has samples but does not keep the same partial aggregates as the reading
+     *         aggregation
+     * @throws IOException if the input cannot be read
+     */
+    @Nullable
+    private static Bucket readSnapshot(@Nonnull DataInput in, @Nullable Storage storage,
+                                       @Nonnull AccumulatorStatistic[] stats) throws IOException {
+        long start = in.readLong();
+        long end = in.readLong();
+        @Nonnull DateTimeZone zone = DateTimeZone.forID(in.readUTF());
+        @Nonnull Storage written = Storage.values()[in.readByte()];
+        int count = in.readInt();
+        boolean compatible = written == storage;
+        @Nonnull Bucket bucket = new Bucket(written, compatible ? stats : new AccumulatorStatistic[0]);
+        bucket.setPeriod(start, end, zone);
+        if (written == Storage.Sketch) {
+            bucket.merge(QuantileSketch.readFrom(in), Summary.readFrom(in));
+        } else if (written == Storage.Accumulators) {
+            bucket.mergeSummary(Summary.readFrom(in));
+            int accumulators = in.readInt();
+            compatible &= accumulators == stats.length;
+            for (int x = 0; x < accumulators; x++) {
+                @Nonnull String name = in.readUTF();
+                @Nonnull byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                compatible &= x < stats.length && stats[x].getName().equals(name);
+                if (compatible) {
+                    bucket.getAccumulators()[x].readFrom(new DataInputStream(new ByteArrayInputStream(state)));
+                }
+            }
+        } else {
+            for (int x = 0; x < count; x++) {
+                bucket.add(in.readDouble());
+            }
+        }
+        return compatible || count == 0 ? bucket : null;
+    }
+
+    @Nonnull
+    private String[] accumulatorNames() {
+        @Nonnull String[] names = new String[_accumulatorStatistics.length];
+        for (int x = 0; x < names.length; x++) {
+            names[x] = _accumulatorStatistics[x].getName();
+        }
+        return names;
+    }
+
+    @Nonnull
+    public Period getPeriod() {
+        return _period;
+    }
+
+    @Nonnull
+    public String getMetric() {
+        return _metric;
+    }
+
+    /**
+     * Gets the number of consecutive periods emitted without any samples.
+     *
+     * @return the number of idle periods
+     */
+    public int getIdlePeriods() {
+        return _idlePeriods;
+    }
+
+    /**
+     * Checks whether the aggregation holds no samples.  Only meaningful on the thread adding samples.
+     *
+     * @return true if the open period is empty and no period is waiting to be emitted
+     */
+    public boolean isEmpty() {
+        return _current.get().getCount() == 0 && _retired.isEmpty();
+    }
+
+    /**
+     * Marks the aggregation as no longer receiving samples.  The thread closing aggregations closes it instead of
+     * rotating it the next time it is due.
+     */
+    public void evict() {
+        _evicted = true;
+    }
+
+    public boolean isEvicted() {
+        return _evicted;
     }
 
-    private void emitAggregations() {
-        LOGGER.debug("Emitting aggregations; " + _samples.size() + " samples");
-        @Nonnull Double[] dsamples = _samples.toArray(new Double[_samples.size()]);
-        if (dsamples.length == 0) {
+    private void emitAggregations(@Nonnull Bucket bucket) {
+        LOGGER.debug("Emitting aggregations; " + bucket.getCount() + " samples");
+        if (bucket.getCount() == 0) {
+            return;
+        }
+        if (_storage == Storage.Sketch) {
+            emitSketchAggregations(bucket);
+            return;
+        }
+        if (_storage == Storage.Accumulators) {
+            emitAccumulatedAggregations(bucket);
             return;
         }
+        //the published samples are a copy, the buffer is reused for a later period
+        @Nonnull double[] dsamples = Arrays.copyOf(bucket.getSamples(), bucket.getCount());
+        @Nonnull DateTime periodStart = bucket.getStart();
         @Nonnull ArrayList<AggregatedData> aggregates = Lists.newArrayList();
+        for (@Nonnull Statistic stat : _summaryStatistics) {
+            double value = ((SummaryStatistic) stat).calculate(bucket.getSummary());
+            aggregates.add(new AggregatedData(stat, _serviceName, _hostName, _metric, value, periodStart, _period,
+                    dsamples));
+        }
         for (@Nonnull Statistic stat : _unorderedStatistics) {
-            Double value = stat.calculate(dsamples);
+            double value = calculate(stat, dsamples);
             @Nonnull AggregatedData data = new AggregatedData(stat, _serviceName, _hostName, _metric, value,
-                    _periodStart, _period, dsamples);
+                    periodStart, _period, dsamples);
             aggregates.add(data);
         }
-        //only sort if there are ordered statistics
+        //only order the samples if there are ordered statistics
         if (_orderedStatistics.size() > 0) {
-            Arrays.sort(dsamples);
+            orderSamples(dsamples);
             for (@Nonnull Statistic stat : _orderedStatistics) {
-                Double value = stat.calculate(dsamples);
+                double value = calculate(stat, dsamples);
                 @Nonnull AggregatedData data = new AggregatedData(stat, _serviceName, _hostName, _metric, value,
-                        _periodStart, _period, dsamples);
+                        periodStart, _period, dsamples);
                 aggregates.add(data);
             }
         }
         LOGGER.debug("Writing " + aggregates.size() + " aggregation records");
         _listener.recordAggregation(aggregates.toArray(new AggregatedData[aggregates.size()]));
     }
+
+    private void emitSketchAggregations(@Nonnull Bucket bucket) {
+        //no raw samples are kept in sketch mode, so the sketch's buckets are published in their place
+        @Nonnull double[] noSamples = new double[0];
+        int count = bucket.getCount();
+        @Nonnull double[] valueCounts = bucket.getSketch().getValueCounts();
+        @Nonnull DateTime periodStart = bucket.getStart();
+        @Nonnull ArrayList<AggregatedData> aggregates = Lists.newArrayList();
+        for (@Nonnull Statistic stat : _summaryStatistics) {
+            double value = ((SummaryStatistic) stat).calculate(bucket.getSummary());
+            aggregates.add(new AggregatedData(stat, _serviceName, _hostName, _metric, value, periodStart,
+                    _period, noSamples, count, valueCounts));
+        }
+        //the percentiles are all read in one pass over the sketch
+        @Nonnull List<SketchTPStatistic> percentiles = Lists.newArrayList();
+        for (@Nonnull Statistic stat : Iterables.concat(_unorderedStatistics, _orderedStatistics)) {
+            if (stat instanceof SketchTPStatistic) {
+                percentiles.add((SketchTPStatistic) stat);
+                continue;
+            }
+            double value = ((SketchStatistic) stat).calculate(bucket.getSketch());
+            aggregates.add(new AggregatedData(stat, _serviceName, _hostName, _metric, value, periodStart,
+                    _period, noSamples, count, valueCounts));
+        }
+        @Nonnull double[] quantiles = new double[percentiles.size()];
+        for (int x = 0; x < quantiles.length; x++) {
+            quantiles[x] = percentiles.get(x).getPercentile() / 100;
+        }
+        @Nonnull double[] values = bucket.getSketch().getQuantiles(quantiles);
+        for (int x = 0; x < values.length; x++) {
+            aggregates.add(new AggregatedData(percentiles.get(x), _serviceName, _hostName, _metric, values[x],
+                    periodStart, _period, noSamples, count, valueCounts));
+        }
+        LOGGER.debug("Writing " + aggregates.size() + " aggregation records from sketch");
+        _listener.recordAggregation(aggregates.toArray(new AggregatedData[aggregates.size()]));
+    }
+
+    private void emitAccumulatedAggregations(@Nonnull Bucket bucket) {
+        //no raw samples are kept with accumulators, so only their number is published
+        @Nonnull double[] noSamples = new double[0];
+        int count = bucket.getCount();
+        @Nonnull DateTime periodStart = bucket.getStart();
+        @Nonnull ArrayList<AggregatedData> aggregates = Lists.newArrayList();
+        for (@Nonnull Statistic stat : _summaryStatistics) {
+            double value = ((SummaryStatistic) stat).calculate(bucket.getSummary());
+            aggregates.add(new AggregatedData(stat, _serviceName, _hostName, _metric, value, periodStart,
+                    _period, noSamples, count, new double[0]));
+        }
+        @Nonnull Accumulator[] accumulators = bucket.getAccumulators();
+        for (int x = 0; x < accumulators.length; x++) {
+            aggregates.add(new AggregatedData(_accumulatorStatistics[x], _serviceName, _hostName, _metric,
+                    accumulators[x].result(), periodStart, _period, noSamples, count, new double[0]));
+        }
+        LOGGER.debug("Writing " + aggregates.size() + " aggregation records from accumulators");
+        _listener.recordAggregation(aggregates.toArray(new AggregatedData[aggregates.size()]));
+    }
+
+    /**
+     * Orders the samples for the ordered statistics.  When every ordered statistic only reads a single rank the
+     * ranks are selected in one pass, otherwise the samples are fully sorted.
+     *
+     * @param samples the samples
+     */
+    private void orderSamples(@Nonnull double[] samples) {
+        @Nonnull int[] ranks = new int[_orderedStatistics.size() * 2];
+        int x = 0;
+        for (@Nonnull Statistic stat : _orderedStatistics) {
+            if (!(stat instanceof RankStatistic)) {
+                Arrays.sort(samples);
+                return;
+            }
+            @Nonnull RankStatistic rankStat = (RankStatistic) stat;
+            ranks[x++] = rankStat.getRank(samples.length);
+            int lower = rankStat.getLowerRank(samples.length);
+            if (lower != ranks[x - 1]) {
+                ranks[x++] = lower;
+            }
+        }
+        MultiSelect.select(samples, samples.length, Arrays.copyOf(ranks, x));
+    }
+
+    private static double calculate(@Nonnull Statistic stat, @Nonnull double[] samples) {
+        if (stat instanceof BaseStatistic) {
+            return ((BaseStatistic) stat).calculate(samples, samples.length);
+        }
+        return stat.calculate(Doubles.asList(samples).toArray(new Double[samples.length]));
+    }
+
+    /**
+     * Samples aggregated outside of an aggregation, e.g. while reading files out of time order, to be merged into an
+     * aggregation with addPartial.  It keeps what the aggregation's buckets would keep for the same statistics, so the
+     * raw samples are only held when a statistic needs them.  Instances are not thread safe.
+     */
+    static final class Partial {
+        @Nonnull
+        private final Storage _storage;
+        @Nonnull
+        private final Bucket _bucket;
+
+        Partial(@Nonnull Set<Statistic> statistics) {
+            _storage = chooseStorage(statistics);
+            _bucket = new Bucket(_storage, accumulatorStatistics(statistics));
+        }
+
+        public void add(double value) {
+            _bucket.add(value);
+        }
+
+        /**
+         * Adds the samples of another partial created with the same statistics.
+         *
+         * @param other the other partial
+         */
+        public void merge(@Nonnull Partial other) {
+            _bucket.merge(other._bucket);
+        }
+
+        public int getCount() {
+            return _bucket.getCount();
+        }
+    }
+
+    /**
+     * The samples of one period.  Written by the adding thread while it is registered as a writer, read by the
+     * emitting thread once the bucket is retired and has no writers.
+     */
+    private static final class Bucket {
+        private final AtomicInteger _writers = new AtomicInteger();
+        private final Summary _summary = new Summary();
+        @Nullable
+        private final QuantileSketch _sketch;
+        @Nonnull
+        private final Accumulator[] _accumulators;
+        private double[] _samples;
+        private final boolean _storesSamples;
+        private int _count = 0;
+        //set before the bucket is published by the compare and set
+        private long _startMillis;
+        private long _endMillis;
+        private DateTimeZone _zone;
+
+        private Bucket(@Nonnull Storage storage, @Nonnull AccumulatorStatistic[] stats) {
+            _sketch = storage == Storage.Sketch ? new QuantileSketch() : null;
+            _samples = storage == Storage.Samples ? new double[INITIAL_SAMPLE_CAPACITY] : new double[0];
+            _accumulators = new Accumulator[storage == Storage.Accumulators ? stats.length : 0];
+            for (int x = 0; x < _accumulators.length; x++) {
+                _accumulators[x] = stats[x].createAccumulator();
+            }
+            _storesSamples = storage == Storage.Samples;
+        }
+
+        public void enter() {
+            _writers.incrementAndGet();
+        }
+
+        public void exit() {
+            _writers.decrementAndGet();
+        }
+
+        public void awaitWriters() {
+            while (_writers.get() != 0) {
+                Thread.yield();
+            }
+        }
+
+        public void add(double value) {
+            _summary.add(value);
+            if (!_storesSamples) {
+                if (_sketch != null) {
+                    _sketch.add(value);
+                }
+                for (@Nonnull Accumulator accumulator : _accumulators) {
+                    accumulator.accept(value);
+                }
+                _count++;
+                return;
+            }
+            if (_count == _samples.length) {
+                _samples = Arrays.copyOf(_samples, _samples.length * 2);
+            }
+            _samples[_count++] = value;
+        }
+
+        public void merge(@Nonnull Bucket partial) {
+            if (_sketch != null) {
+                merge(partial._sketch, partial._summary);
+                return;
+            }
+            if (!_storesSamples) {
+                for (int x = 0; x < _accumulators.length; x++) {
+                    _accumulators[x].merge(partial._accumulators[x]);
+                }
+                mergeSummary(partial._summary);
+                return;
+            }
+            _summary.merge(partial._summary);
+            if (_count + partial._count > _samples.length) {
+                _samples = Arrays.copyOf(_samples, Math.max(_samples.length * 2, _count + partial._count));
+            }
+            System.arraycopy(partial._samples, 0, _samples, _count, partial._count);
+            _count += partial._count;
+        }
+
+        public void merge(@Nonnull QuantileSketch sketch, @Nonnull Summary summary) {
+            _sketch.merge(sketch);
+            _summary.merge(summary);
+            _count += (int) summary.getCount();
+        }
+
+        public void mergeSummary(@Nonnull Summary summary) {
+            _summary.merge(summary);
+            _count += (int) summary.getCount();
+        }
+
+        /**
+         * Empties the bucket for reuse.  The buffer is kept unless it is mostly empty, so one burst does not pin
+         * memory forever.
+         */
+        public void reset() {
+            _summary.clear();
+            for (@Nonnull Accumulator accumulator : _accumulators) {
+                accumulator.clear();
+            }
+            if (_sketch != null) {
+                _sketch.clear();
+            } else if (_samples.length > INITIAL_SAMPLE_CAPACITY && _count < _samples.length / 4) {
+                _samples = new double[Math.max(INITIAL_SAMPLE_CAPACITY, _count * 2)];
+            }
+            _count = 0;
+        }
+
+        @Nonnull
+        public DateTime getStart() {
+            return new DateTime(_startMillis, _zone);
+        }
+
+        public long getStartMillis() {
+            return _startMillis;
+        }
+
+        public long getEndMillis() {
+            return _endMillis;
+        }
+
+        public DateTimeZone getZone() {
+            return _zone;
+        }
+
+        public void setPeriod(long startMillis, long endMillis, @Nonnull DateTimeZone zone) {
+            _startMillis = startMillis;
+            _endMillis = endMillis;
+            _zone = zone;
+        }
+
+        public int getCount() {
+            return _count;
+        }
+
+        @Nonnull
+        public double[] getSamples() {
+            return _samples;
+        }
+
+        @Nonnull
+        public Summary getSummary() {
+            return _summary;
+        }
+
+        @Nullable
+        public QuantileSketch getSketch() {
+            return _sketch;
+        }
+
+        @Nonnull
+        public Accumulator[] getAccumulators() {
+            return _accumulators;
+        }
+    }
 }
@@ -2,32 +2,136 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Class representing a metric and a set of aggregations.
+ *
+ * When rolling up, aggregations whose period is a multiple of a shorter period dividing an hour are built by merging
+ * the finished periods of that shorter aggregation instead of receiving every sample.
  */
 public class TSData {
-    private final Set<TSAggregation> _aggregations = Sets.newHashSet();
+    private static final long MILLIS_PER_HOUR = 3600000L;
+    //ordered by period length, so closing finishes the finer periods before the rollups built from them
+    private final List<TSAggregation> _aggregations = Lists.newArrayList();
+    private final List<TSAggregation> _sampled = Lists.newArrayList();
 
     public TSData(@Nonnull String metricName, @Nonnull Set<Period> aggregations, @Nonnull AggregationPublisher listener,
                   @Nonnull String hostName, @Nonnull String serviceName, @Nonnull Set<Statistic> statistics) {
-        for (@Nonnull Period period : aggregations) {
+        for (@Nonnull Period period : sortByLength(aggregations)) {
             _aggregations.add(new TSAggregation(metricName, period, listener, hostName, serviceName, statistics));
         }
+        _sampled.addAll(_aggregations);
     }
 
-    public void addMetric(@Nonnull ArrayList<Double> data, @Nonnull DateTime time) {
-        for (@Nonnull TSAggregation aggregation : _aggregations) {
-            for (Double val : data) {
-                aggregation.addSample(val, time);
+    public TSData(@Nonnull String metricName, @Nonnull Set<Period> aggregations, @Nonnull AggregationPublisher listener,
+                  @Nonnull String hostName, @Nonnull String serviceName, @Nonnull Set<Statistic> statistics,
+                  @Nonnull TSAggregation.RotationListener rotationListener) {
+        this(metricName, aggregations, listener, hostName, serviceName, statistics, rotationListener, false);
+    }
+
+    public TSData(@Nonnull String metricName, @Nonnull Set<Period> aggregations, @Nonnull AggregationPublisher listener,
+                  @Nonnull String hostName, @Nonnull String serviceName, @Nonnull Set<Statistic> statistics,
+                  @Nonnull TSAggregation.RotationListener rotationListener, boolean rollUp) {
+        @Nonnull Map<Period, Period> sources = rollUp ? planRollups(aggregations) : Collections.<Period, Period>emptyMap();
+        @Nonnull Map<Period, TSAggregation> byPeriod = Maps.newHashMap();
+        for (@Nonnull Period period : sortByLength(aggregations)) {
+            @Nonnull TSAggregation aggregation = new TSAggregation(metricName, period, listener, hostName, serviceName,
+                    statistics, rotationListener);
+            _aggregations.add(aggregation);
+            byPeriod.put(period, aggregation);
+            @Nullable Period source = sources.get(period);
+            if (source == null) {
+                _sampled.add(aggregation);
+            } else {
+                byPeriod.get(source).addRollup(aggregation);
+            }
+        }
+    }
+
+    /**
+     * Picks the aggregation each period can be rolled up from: the longest other period that divides both it and an
+     * hour, so that each of the shorter periods falls inside exactly one of the longer ones.
+     *
+     * @param periods the periods
+     * @return the source period of each period that can be rolled up
+     */
+    @Nonnull
+    static Map<Period, Period> planRollups(@Nonnull Set<Period> periods) {
+        @Nonnull Map<Period, Period> sources = Maps.newHashMap();
+        for (@Nonnull Period period : periods) {
+            long length = fixedLength(period);
+            @Nullable Period best = null;
+            long bestLength = 0;
+            for (@Nonnull Period candidate : periods) {
+                long candidateLength = fixedLength(candidate);
+                if (candidateLength > 0 && candidateLength < length && MILLIS_PER_HOUR % candidateLength == 0
+                        && length % candidateLength == 0 && candidateLength > bestLength) {
+                    best = candidate;
+                    bestLength = candidateLength;
+                }
+            }
+            if (best != null) {
+                sources.put(period, best);
+            }
+        }
+        return sources;
+    }
+
+    static long fixedLength(@Nonnull Period period) {
+        if (period.getYears() != 0 || period.getMonths() != 0) {
+            return 0;
+        }
+        return period.toStandardDuration().getMillis();
+    }
+
+    @Nonnull
+    private static List<Period> sortByLength(@Nonnull Set<Period> periods) {
+        @Nonnull List<Period> sorted = Lists.newArrayList(periods);
+        Collections.sort(sorted, new Comparator<Period>() {
+            @Override
+            public int compare(@Nonnull Period first, @Nonnull Period second) {
+                long firstLength = fixedLength(first);
+                long secondLength = fixedLength(second);
+                //periods of months and years go last
+                if (firstLength == 0 || secondLength == 0) {
+                    return firstLength == secondLength ? 0 : (firstLength == 0 ? 1 : -1);
+                }
+                return firstLength < secondLength ? -1 : (firstLength == secondLength ? 0 : 1);
             }
+        });
+        return sorted;
+    }
+
+    public void addMetric(@Nonnull CounterVariable data, @Nonnull DateTime time) {
+        for (int x = 0; x < _sampled.size(); x++) {
+            _sampled.get(x).addSamples(data, time);
+        }
+    }
+
+    /**
+     * Merges samples aggregated ahead of time into the periods containing a time.
+     *
+     * @param partial the aggregated samples, created with the statistics of this metric
+     * @param time a time in the periods the samples belong to
+     */
+    public void addPartial(@Nonnull TSAggregation.Partial partial, @Nonnull DateTime time) {
+        for (int x = 0; x < _sampled.size(); x++) {
+            _sampled.get(x).addPartial(partial, time);
         }
     }
 
@@ -37,6 +141,90 @@ public class TSData {
         }
     }
 
+    /**
+     * Emits the periods that have been rotated out.
+     */
+    public void emitRetired() {
+        for (@Nonnull TSAggregation aggregation : _aggregations) {
+            aggregation.emitRetired();
+        }
+    }
+
+    /**
+     * Checks whether the aggregations hold no samples.  Only meaningful on the thread adding samples.
+     *
+     * @return true if every aggregation is empty
+     */
+    public boolean isIdle() {
+        for (@Nonnull TSAggregation aggregation : _aggregations) {
+            if (!aggregation.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the aggregations as no longer receiving samples.
+     */
+    public void evict() {
+        for (@Nonnull TSAggregation aggregation : _aggregations) {
+            aggregation.evict();
+        }
+    }
+
+    /**
+     * Writes the open period of each aggregation to a snapshot.
+     *
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeSnapshot(@Nonnull DataOutput out) throws IOException {
+        out.writeInt(_aggregations.size());
+        for (@Nonnull TSAggregation aggregation : _aggregations) {
+            out.writeUTF(aggregation.getPeriod().toString());
+            aggregation.writeSnapshot(out);
+        }
+    }
+
+    /**
+     * Restores the open periods written by writeSnapshot.  Periods that are no longer aggregated are skipped.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    public void restoreSnapshot(@Nonnull DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int x = 0; x < count; x++) {
+            @Nonnull Period period = Period.parse(in.readUTF());
+            @Nullable TSAggregation match = null;
+            for (@Nonnull TSAggregation aggregation : _aggregations) {
+                if (aggregation.getPeriod().equals(period)) {
+                    match = aggregation;
+                }
+            }
+            if (match == null) {
+                TSAggregation.skipSnapshot(in);
+            } else {
+                match.restoreSnapshot(in);
+            }
+        }
+    }
+
+    /**
+     * Reads past the open periods written by writeSnapshot.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    public static void skipSnapshot(@Nonnull DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int x = 0; x < count; x++) {
+            in.readUTF();
+            TSAggregation.skipSnapshot(in);
+        }
+    }
+
     public void close() {
         for (@Nonnull TSAggregation aggregation : _aggregations) {
             aggregation.close();
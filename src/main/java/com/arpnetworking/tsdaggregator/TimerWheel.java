@@ -0,0 +1,171 @@
+package com.arpnetworking.tsdaggregator;
+
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A hierarchical timer wheel.
+ *
+ * Timeouts are kept in slots by deadline; the lowest level has one slot per tick and each higher level has one slot
+ * per full turn of the level below it.  Advancing the wheel only touches the slots that come due, and timeouts in a
+ * higher level are moved down a level when their slot comes up, so the cost is proportional to the number of
+ * timeouts that expire rather than the number scheduled.  Deadlines past the range of the top level wait in its last
+ * slot and are placed again when that slot comes up.
+ *
+ * Instances are not thread safe; all calls must come from a single thread.
+ *
+ * @param <T> the type of the items scheduled
+ * @author barp
+ */
+public class TimerWheel<T> {
+    private static final int[] LEVEL_BITS = {8, 6, 6, 6};
+    private final long _tickMillis;
+    @Nonnull
+    private final Timeout<T>[][] _levels;
+    @Nonnull
+    private final int[] _shifts;
+    private long _currentTick;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tickMillis the resolution of the wheel in milliseconds
+     * @param nowMillis the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long nowMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tick must be at least a millisecond, was " + tickMillis);
+        }
+        _tickMillis = tickMillis;
+        _currentTick = nowMillis / tickMillis;
+        _levels = new Timeout[LEVEL_BITS.length][];
+        _shifts = new int[LEVEL_BITS.length];
+        int shift = 0;
+        for (int level = 0; level < LEVEL_BITS.length; level++) {
+            _shifts[level] = shift;
+            shift += LEVEL_BITS[level];
+            _levels[level] = new Timeout[1 << LEVEL_BITS[level]];
+            for (int slot = 0; slot < _levels[level].length; slot++) {
+                _levels[level][slot] = new Timeout<T>(null);
+            }
+        }
+    }
+
+    /**
+     * Schedules a timeout, moving it if it is already scheduled.
+     *
+     * @param timeout the timeout
+     * @param deadlineMillis when the timeout expires, in milliseconds
+     */
+    public void schedule(@Nonnull Timeout<T> timeout, long deadlineMillis) {
+        timeout.unlink();
+        //round up so a timeout never fires before its deadline
+        timeout._deadlineTick = Math.max(_currentTick + 1, (deadlineMillis + _tickMillis - 1) / _tickMillis);
+        place(timeout);
+    }
+
+    /**
+     * Cancels a timeout.  Nothing happens if it is not scheduled.
+     *
+     * @param timeout the timeout
+     */
+    public void cancel(@Nonnull Timeout<T> timeout) {
+        timeout.unlink();
+    }
+
+    /**
+     * Advances the wheel, collecting the items of every timeout that has expired.  Expired timeouts are no longer
+     * scheduled.
+     *
+     * @param nowMillis the current time in milliseconds
+     * @param expired the list to add the expired items to
+     */
+    public void advance(long nowMillis, @Nonnull List<T> expired) {
+        long targetTick = nowMillis / _tickMillis;
+        while (_currentTick < targetTick) {
+            _currentTick++;
+            for (int level = _levels.length - 1; level > 0; level--) {
+                if ((_currentTick & ((1L << _shifts[level]) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            @Nonnull Timeout<T> head = _levels[0][(int) (_currentTick & (_levels[0].length - 1))];
+            while (head._next != head) {
+                @Nonnull Timeout<T> timeout = head._next;
+                timeout.unlink();
+                expired.add(timeout._item);
+            }
+        }
+    }
+
+    private void cascade(int level) {
+        @Nonnull Timeout<T> head = _levels[level][slotIndex(level, _currentTick)];
+        while (head._next != head) {
+            @Nonnull Timeout<T> timeout = head._next;
+            timeout.unlink();
+            place(timeout);
+        }
+    }
+
+    private void place(@Nonnull Timeout<T> timeout) {
+        long delta = timeout._deadlineTick - _currentTick;
+        int top = _levels.length - 1;
+        for (int level = 0; level < top; level++) {
+            if (delta < (1L << (_shifts[level] + LEVEL_BITS[level]))) {
+                timeout.linkAfter(_levels[level][slotIndex(level, timeout._deadlineTick)]);
+                return;
+            }
+        }
+        long topSpan = 1L << (_shifts[top] + LEVEL_BITS[top]);
+        long tick = delta < topSpan ? timeout._deadlineTick : _currentTick + topSpan - (1L << _shifts[top]);
+        timeout.linkAfter(_levels[top][slotIndex(top, tick)]);
+    }
+
+    private int slotIndex(int level, long tick) {
+        return (int) ((tick >>> _shifts[level]) & (_levels[level].length - 1));
+    }
+
+    /**
+     * A schedulable entry in a timer wheel.  A timeout is in at most one slot at a time.
+     *
+     * @param <T> the type of the item
+     */
+    public static final class Timeout<T> {
+        @Nullable
+        private final T _item;
+        private long _deadlineTick;
+        @Nonnull
+        private Timeout<T> _previous = this;
+        @Nonnull
+        private Timeout<T> _next = this;
+
+        public Timeout(@Nullable T item) {
+            _item = item;
+        }
+
+        @Nullable
+        public T getItem() {
+            return _item;
+        }
+
+        public boolean isScheduled() {
+            return _next != this;
+        }
+
+        private void linkAfter(@Nonnull Timeout<T> head) {
+            _previous = head;
+            _next = head._next;
+            head._next._previous = this;
+            head._next = this;
+        }
+
+        private void unlink() {
+            _previous._next = _next;
+            _next._previous = _previous;
+            _previous = this;
+            _next = this;
+        }
+    }
+}
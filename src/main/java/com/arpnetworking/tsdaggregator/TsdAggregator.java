@@ -7,9 +7,7 @@ package com.arpnetworking.tsdaggregator;
 import com.arpnetworking.tsdaggregator.aggserver.AggregationServer;
 import com.arpnetworking.tsdaggregator.publishing.*;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
-import org.apache.commons.io.input.Tailer;
 import org.apache.log4j.Logger;
 import org.joda.time.Period;
 import org.vertx.java.core.AsyncResult;
@@ -22,7 +20,6 @@ import org.vertx.java.platform.PlatformManager;
 import java.io.*;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -93,9 +90,12 @@ public class TsdAggregator {
             return;
         }
         Class<? extends LogParser> parserClass = config.getParserClass();
-        LogParser logParser;
+        //parsers keep per line state, so each parser thread gets its own
+        @Nonnull List<LogParser> logParsers = Lists.newArrayList();
         try {
-            logParser = parserClass.newInstance();
+            for (int x = 0; x < config.getParserThreads(); x++) {
+                logParsers.add(parserClass.newInstance());
+            }
         } catch (@Nonnull InstantiationException e) {
             _Logger.error("Could not instantiate parser class", e);
             return;
@@ -140,6 +140,8 @@ public class TsdAggregator {
         _Logger.info("using timer stats " + timerStatsClasses.toString());
         _Logger.info("using gauge stats " + gaugeStatsClasses.toString());
         _Logger.info("using periods " + periods.toString());
+        _Logger.info("using " + config.getParserThreads() + " parser threads and " + config.getAggregationShards() +
+                " aggregation shards");
         if (outputRRD) {
             _Logger.info("outputting rrd files");
         }
@@ -154,63 +156,57 @@ public class TsdAggregator {
 
         @Nonnull AggregationPublisher publisher = getPublisher(config, platformManager);
 
-        @Nonnull LineProcessor processor =
-                new LineProcessor(logParser, timerStatsClasses, counterStatsClasses, gaugeStatsClasses, hostName,
-                        serviceName, periods, publisher);
-
         @Nonnull ArrayList<String> files = getFileList(filter, fileNames);
-        for (String f : files) {
-            try {
-                _Logger.info("Reading file " + f);
-                if (tailFile) {
-                    @Nonnull File fileHandle = new File(f);
-                    @Nonnull LogTailerListener tailListener = new LogTailerListener(processor);
-                    Tailer.create(fileHandle, tailListener, 500L, false);
-                } else {
-                    //check the first 4 bytes of the file for utf markers
-                    @Nullable FileInputStream fis = null;
-                    @Nullable BufferedReader reader = null;
+        if (!tailFile && config.getBackfillThreads() > 0) {
+            _Logger.info("Backfilling " + files.size() + " files on " + config.getBackfillThreads() + " threads");
+            new AggregatorStats(ParseErrors.getDefault(), null).register();
+            new Backfill(parserClass, config.shouldMemoryMap(), config.shouldRollUp(), timerStatsClasses,
+                    counterStatsClasses, gaugeStatsClasses, hostName, serviceName, periods, publisher)
+                    .run(files, config.getBackfillThreads());
+        } else {
+            @Nonnull LineProcessor processor =
+                    new LineProcessor(logParsers, config.getAggregationShards(), config.shouldRollUp(),
+                            config.getMetricLimits(), timerStatsClasses, counterStatsClasses, gaugeStatsClasses,
+                            hostName, serviceName, periods, publisher);
+            new AggregatorStats(ParseErrors.getDefault(), processor).register();
+            @Nullable CheckpointStore checkpoints = null;
+            if (tailFile && !config.getCheckpointFile().equals("")) {
+                _Logger.info("using checkpoint file " + config.getCheckpointFile());
+                checkpoints = new CheckpointStore(new File(config.getCheckpointFile()));
+                checkpoints.start();
+            }
+            @Nullable File snapshot = null;
+            if (tailFile && !config.getSnapshotFile().equals("")) {
+                _Logger.info("using snapshot file " + config.getSnapshotFile());
+                snapshot = new File(config.getSnapshotFile());
+                if (snapshot.exists()) {
                     try {
-                        fis = new FileInputStream(f);
-                        @Nonnull byte[] header = new byte[4];
-                        if (fis.read(header) < 4) {
-                            //If there are less than 4 bytes, we should move on
-                            continue;
-                        }
-                        Charset encoding = Charsets.UTF_8;
-                        if (header[0] == -1 && header[1] == -2) {
-                            _Logger.info("Detected UTF-16 encoding");
-                            encoding = Charsets.UTF_16;
-                        }
-
-                        @Nonnull InputStreamReader fileReader = new InputStreamReader(new FileInputStream(f), encoding);
-                        reader = new BufferedReader(fileReader);
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            processor.invoke(line);
-                        }
-                    } finally {
-                        if (fis != null) {
-                            try {
-                                fis.close();
-                            } catch (Exception ignored) {
-                            }
-                        }
-
-                        if (reader != null) {
-                            try {
-                                reader.close();
-                            } catch (Exception ignored) {
-                            }
-                        }
+                        processor.restoreSnapshot(snapshot);
+                    } catch (IOException e) {
+                        _Logger.error("Could not restore snapshot " + snapshot, e);
                     }
                 }
+            }
+            @Nonnull List<NioTailer> tailers = Lists.newArrayList();
+            for (String f : files) {
+                try {
+                    _Logger.info("Reading file " + f);
+                    if (tailFile) {
+                        tailers.add(NioTailer.start(new File(f).toPath(), processor, checkpoints));
+                    } else {
+                        LogFileReader.read(f, config.shouldMemoryMap(), processor);
+                    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (tailFile && (checkpoints != null || snapshot != null)) {
+                addShutdownHook(processor, publisher, tailers, checkpoints, snapshot);
+            } else {
+                processor.closeAggregations();
             }
         }
-        processor.closeAggregations();
 
         if (tailFile || config.shouldStartClusterAggServer()) {
             while (true) {
@@ -225,6 +221,46 @@ public class TsdAggregator {
         publisher.close();
     }
 
+    /**
+     * Stops tailing at shutdown, then saves the open periods to the snapshot, or emits them when there is no snapshot,
+     * and then saves the read offsets, in that order, so the offsets never cover lines that are in neither the
+     * snapshot nor the emitted data.
+     */
+    private static void addShutdownHook(@Nonnull final LineProcessor processor,
+                                        @Nonnull final AggregationPublisher publisher,
+                                        @Nonnull final List<NioTailer> tailers,
+                                        @Nullable final CheckpointStore checkpoints, @Nullable final File snapshot) {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (@Nonnull NioTailer tailer : tailers) {
+                        tailer.stop();
+                    }
+                    for (@Nonnull NioTailer tailer : tailers) {
+                        if (!tailer.awaitStop(5000)) {
+                            _Logger.warn("Tailer did not stop in time");
+                        }
+                    }
+                    if (snapshot != null) {
+                        processor.writeSnapshot(snapshot);
+                    } else {
+                        processor.closeAggregations();
+                    }
+                    //flushes what was emitted before the offsets move past its lines
+                    publisher.close();
+                    if (checkpoints != null) {
+                        checkpoints.save();
+                    }
+                } catch (InterruptedException e) {
+                    _Logger.error("Interrupted while shutting down", e);
+                } catch (IOException e) {
+                    _Logger.error("Error saving state at shutdown", e);
+                }
+            }
+        }, "tsd-shutdown"));
+    }
+
     private static boolean startAggServer(@Nonnull final Configuration config,
                                           @Nonnull final PlatformManager platformManager) {
         int port = config.getClusterAggServerPort();
@@ -337,7 +373,8 @@ public class TsdAggregator {
 
         if (outputUpstreamAgg) {
             _Logger.info("Adding upstream aggregation listener");
-            listener.addListener(new AggServerPublisher(upstreamAggHost, hostName, cluster));
+            listener.addListener(new AggServerPublisher(upstreamAggHost, hostName, cluster,
+                    config.getUpstreamSampleMode()));
         }
         return listener;
     }
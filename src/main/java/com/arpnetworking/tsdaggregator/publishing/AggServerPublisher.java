@@ -3,6 +3,10 @@ package com.arpnetworking.tsdaggregator.publishing;
 import com.arpnetworking.tsdaggregator.AggregatedData;
 import com.arpnetworking.tsdaggregator.aggserver.AggregatorConnection;
 import com.arpnetworking.tsdaggregator.aggserver.Messages;
+import com.arpnetworking.tsdaggregator.statistics.LogLinearHistogram;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.*;
@@ -10,6 +14,9 @@ import org.vertx.java.core.net.NetClient;
 import org.vertx.java.core.net.NetSocket;
 import org.vertx.java.platform.Verticle;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nonnull;
@@ -18,9 +25,35 @@ import javax.annotation.Nullable;
 /**
  * Publisher to send data to an upstream aggregation server.
  *
+ * The samples of a metric's period can be sent with every statistic record, or only once per period in a record of
+ * their own, named samples (the raw samples) or histogram (value and count pairs of the occupied buckets of a
+ * LogLinearHistogram).  The statistic records then carry no samples, only the number of samples, and refer to the
+ * samples record by metric, period and host.  Metrics aggregated into a sketch send the sketch's buckets as their
+ * histogram, and metrics aggregated with accumulators, which keep no samples, send only the number of samples.
+ *
  * @author barp
  */
 public class AggServerPublisher extends Verticle implements AggregationPublisher {
+    /**
+     * How the samples of an aggregation are sent upstream.
+     */
+    public enum SampleMode {
+        /**
+         * The raw samples with every statistic record.
+         */
+        Each,
+        /**
+         * The raw samples once per metric and period, in a samples record.
+         */
+        Once,
+        /**
+         * A histogram of the samples once per metric and period, in a histogram record.
+         */
+        Histogram
+    }
+
+    public static final String SAMPLES_STATISTIC = "samples";
+    public static final String HISTOGRAM_STATISTIC = "histogram";
     private static final Logger LOGGER = LoggerFactory.getLogger(AggServerPublisher.class);
     private final AtomicBoolean _connected = new AtomicBoolean(false);
     private final AtomicBoolean _connectionInProgress = new AtomicBoolean(false);
@@ -28,6 +61,8 @@ public class AggServerPublisher extends Verticle implements AggregationPublisher
     private final String _hostName;
     private final String _clusterName;
     private final int _aggServerPort;
+    @Nonnull
+    private final SampleMode _sampleMode;
     private final NetClient _client;
     private final ConcurrentLinkedQueue<AggregatedData[]> _pending = new ConcurrentLinkedQueue<AggregatedData[]>();
     @Nullable
@@ -35,6 +70,12 @@ public class AggServerPublisher extends Verticle implements AggregationPublisher
     private final Vertx _vertx;
 
     public AggServerPublisher(@Nonnull String aggClusterLocation, String hostName, String clusterName) {
+        this(aggClusterLocation, hostName, clusterName, SampleMode.Each);
+    }
+
+    public AggServerPublisher(@Nonnull String aggClusterLocation, String hostName, String clusterName,
+                              @Nonnull SampleMode sampleMode) {
+        _sampleMode = sampleMode;
         _vertx = VertxFactory.newVertx();
         String[] split = aggClusterLocation.split(":");
         _aggServerHost = split[0];
@@ -139,22 +180,83 @@ public class AggServerPublisher extends Verticle implements AggregationPublisher
         }
         AggregatedData[] dataChunk;
         while (_connected.get() && (dataChunk = _pending.poll()) != null) {
-            for (@Nonnull AggregatedData data : dataChunk) {
-                //Don't aggregate metrics < 1 minute
-                if (data.getPeriod().toStandardDuration().isShorterThan(org.joda.time.Duration.standardMinutes(1))) {
-                    continue;
-                }
-                @Nonnull Messages.AggregationRecord record = Messages.AggregationRecord.newBuilder()
-                        .setMetric(data.getMetric()).setPeriod(data.getPeriod().toString())
-                        .setService(data.getService()).setStatistic(data.getStatistic().getName())
-                        .setStatisticValue(data.getValue()).addAllStatisticSamples(data.getSamples())
-                        .build();
+            for (@Nonnull Messages.AggregationRecord record : buildRecords(dataChunk, _sampleMode)) {
                 @Nonnull AggregatorConnection.Message message = AggregatorConnection.Message.create(record);
                 _socket.write(message.getBuffer());
             }
         }
     }
 
+    /**
+     * Builds the records to send for aggregated data.
+     *
+     * @param dataChunk the aggregated data
+     * @param sampleMode how to send the samples
+     * @return the records
+     */
+    @Nonnull
+    static List<Messages.AggregationRecord> buildRecords(@Nonnull AggregatedData[] dataChunk,
+                                                         @Nonnull SampleMode sampleMode) {
+        @Nonnull List<Messages.AggregationRecord> records = Lists.newArrayList();
+        @Nonnull Set<List<Object>> sentSamples = Sets.newHashSet();
+        for (@Nonnull AggregatedData data : dataChunk) {
+            //Don't aggregate metrics < 1 minute
+            if (data.getPeriod().toStandardDuration().isShorterThan(org.joda.time.Duration.standardMinutes(1))) {
+                continue;
+            }
+            @Nonnull Messages.AggregationRecord.Builder record = newRecord(data)
+                    .setStatistic(data.getStatistic().getName()).setStatisticValue(data.getValue());
+            if (sampleMode == SampleMode.Each) {
+                records.add(record.addAllStatisticSamples(data.getSamples()).build());
+                continue;
+            }
+            records.add(record.setRawSampleCount(data.getSampleCount()).build());
+            //the statistics of one period of a metric all share its samples
+            @Nonnull List<Object> period = Arrays.<Object>asList(data.getMetric(), data.getPeriod(),
+                    data.getPeriodStart());
+            if (sentSamples.add(period)) {
+                @Nullable Messages.AggregationRecord samplesRecord = buildSamplesRecord(data, sampleMode);
+                if (samplesRecord != null) {
+                    records.add(samplesRecord);
+                }
+            }
+        }
+        return records;
+    }
+
+    @Nullable
+    private static Messages.AggregationRecord buildSamplesRecord(@Nonnull AggregatedData data,
+                                                                 @Nonnull SampleMode sampleMode) {
+        @Nonnull List<Double> samples = data.getSamples();
+        @Nonnull Messages.AggregationRecord.Builder record = newRecord(data).setStatisticValue(data.getSampleCount())
+                .setRawSampleCount(data.getSampleCount());
+        if (sampleMode == SampleMode.Once) {
+            if (samples.isEmpty()) {
+                return null;
+            }
+            return record.setStatistic(SAMPLES_STATISTIC).addAllStatisticSamples(samples).build();
+        }
+        //a sketch already holds the histogram, there are no samples to build it from
+        if (!data.getValueCounts().isEmpty()) {
+            return record.setStatistic(HISTOGRAM_STATISTIC).addAllStatisticSamples(data.getValueCounts()).build();
+        }
+        if (samples.isEmpty()) {
+            return null;
+        }
+        @Nonnull LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int x = 0; x < samples.size(); x++) {
+            histogram.add(samples.get(x));
+        }
+        return record.setStatistic(HISTOGRAM_STATISTIC)
+                .addAllStatisticSamples(Doubles.asList(histogram.getValueCounts())).build();
+    }
+
+    @Nonnull
+    private static Messages.AggregationRecord.Builder newRecord(@Nonnull AggregatedData data) {
+        return Messages.AggregationRecord.newBuilder().setMetric(data.getMetric())
+                .setPeriod(data.getPeriod().toString()).setService(data.getService());
+    }
+
     @Override
     public void close() {
         _socket.close();
@@ -0,0 +1,56 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import javax.annotation.Nonnull;
+
+/**
+ * Calculates a statistic incrementally, one sample at a time, in memory that does not grow with the number of
+ * samples.  Instances are not thread safe.
+ *
+ * @author barp
+ */
+public interface Accumulator {
+    /**
+     * Adds a sample.
+     *
+     * @param value the sample
+     */
+    void accept(double value);
+
+    /**
+     * Adds the samples of another accumulator of the same statistic, which were taken after the samples of this one.
+     *
+     * @param other the other accumulator
+     */
+    void merge(@Nonnull Accumulator other);
+
+    /**
+     * Gets the value of the statistic over the samples added so far.
+     *
+     * @return the value of the statistic
+     */
+    double result();
+
+    /**
+     * Forgets all samples, so the accumulator can be reused.
+     */
+    void clear();
+
+    /**
+     * Writes the state of the accumulator.
+     *
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    void writeTo(@Nonnull DataOutput out) throws IOException;
+
+    /**
+     * Replaces the state of the accumulator with one written by writeTo.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    void readFrom(@Nonnull DataInput in) throws IOException;
+}
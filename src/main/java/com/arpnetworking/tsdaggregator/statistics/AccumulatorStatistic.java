@@ -0,0 +1,20 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A statistic that can be calculated incrementally by an Accumulator.  When every statistic of an aggregation is an
+ * AccumulatorStatistic or a SummaryStatistic the aggregation keeps no samples at all, only the summary and one
+ * accumulator per statistic, so its memory use is constant.
+ *
+ * @author barp
+ */
+public interface AccumulatorStatistic extends Statistic {
+    /**
+     * Creates an empty accumulator for this statistic.
+     *
+     * @return the accumulator
+     */
+    @Nonnull
+    Accumulator createAccumulator();
+}
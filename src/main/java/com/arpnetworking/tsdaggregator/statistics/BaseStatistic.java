@@ -1,5 +1,8 @@
 package com.arpnetworking.tsdaggregator.statistics;
 
+import com.google.common.primitives.Doubles;
+
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -10,6 +13,20 @@ import javax.annotation.Nullable;
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class BaseStatistic implements Statistic {
+    /**
+     * Calculates the statistic over the first length values of a primitive array.  Ordered statistics expect the
+     * values to be sorted.  The default implementation boxes the values and delegates to calculate(Double[]),
+     * subclasses should override it to avoid the boxing.
+     *
+     * @param values the values
+     * @param length the number of values to use
+     * @return the value of the statistic
+     */
+    public double calculate(@Nonnull double[] values, int length) {
+        Double result = calculate(Doubles.asList(Arrays.copyOf(values, length)).toArray(new Double[length]));
+        return result;
+    }
+
     @Nonnull
     @Override
     public String toString() {
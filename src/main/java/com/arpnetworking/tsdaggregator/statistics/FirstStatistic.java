@@ -9,13 +9,23 @@ import javax.annotation.Nonnull;
 /**
  * @author brandarp
  */
-public class FirstStatistic extends BaseStatistic {
+public class FirstStatistic extends BaseStatistic implements SummaryStatistic {
 
     @Override
     public Double calculate(Double[] values) {
         return values[0];
     }
 
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        return values[0];
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getFirst();
+    }
+
     @Nonnull
     @Override
     public String getName() {
@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 50% statistic (median), read from a histogram when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class HistogramTP50 extends HistogramTPStatistic {
+    public HistogramTP50() {
+        super(50d);
+    }
+}
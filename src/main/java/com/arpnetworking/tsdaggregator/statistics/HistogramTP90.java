@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 90% statistic, read from a histogram when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class HistogramTP90 extends HistogramTPStatistic {
+    public HistogramTP90() {
+        super(90d);
+    }
+}
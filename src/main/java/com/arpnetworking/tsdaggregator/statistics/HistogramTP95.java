@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 95% statistic, read from a histogram when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class HistogramTP95 extends HistogramTPStatistic {
+    public HistogramTP95() {
+        super(95d);
+    }
+}
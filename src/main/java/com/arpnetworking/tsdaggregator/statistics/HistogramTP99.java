@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 99% statistic, read from a histogram when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class HistogramTP99 extends HistogramTPStatistic {
+    public HistogramTP99() {
+        super(99d);
+    }
+}
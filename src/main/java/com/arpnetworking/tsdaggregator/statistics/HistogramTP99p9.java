@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 99.9% statistic, read from a histogram when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class HistogramTP99p9 extends HistogramTPStatistic {
+    public HistogramTP99p9() {
+        super(99.9d);
+    }
+}
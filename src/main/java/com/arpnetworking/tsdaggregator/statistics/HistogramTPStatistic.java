@@ -0,0 +1,78 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Base statistic for percentiles that are allowed to be read from a LogLinearHistogram.  When the raw samples are
+ * available the value is exact, like TPStatistic, otherwise the histogram is built online and the value is within
+ * the histogram's bucket resolution.
+ *
+ * @author barp
+ */
+public class HistogramTPStatistic extends PercentileStatistic implements AccumulatorStatistic {
+
+    public HistogramTPStatistic(double tstat) {
+        super(tstat);
+    }
+
+    @Nonnull
+    @Override
+    public Accumulator createAccumulator() {
+        return new HistogramAccumulator(getPercentile() / 100);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj instanceof HistogramTPStatistic) {
+            @Nonnull HistogramTPStatistic other = (HistogramTPStatistic) obj;
+            return Double.compare(other.getPercentile(), getPercentile()) == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a quantile from a histogram of the samples.
+     */
+    private static final class HistogramAccumulator implements Accumulator {
+        private final LogLinearHistogram _histogram = new LogLinearHistogram();
+        private final double _quantile;
+
+        private HistogramAccumulator(double quantile) {
+            _quantile = quantile;
+        }
+
+        @Override
+        public void accept(double value) {
+            _histogram.add(value);
+        }
+
+        @Override
+        public void merge(@Nonnull Accumulator other) {
+            _histogram.merge(((HistogramAccumulator) other)._histogram);
+        }
+
+        @Override
+        public double result() {
+            return _histogram.getQuantile(_quantile);
+        }
+
+        @Override
+        public void clear() {
+            _histogram.clear();
+        }
+
+        @Override
+        public void writeTo(@Nonnull DataOutput out) throws IOException {
+            _histogram.writeTo(out);
+        }
+
+        @Override
+        public void readFrom(@Nonnull DataInput in) throws IOException {
+            _histogram.readFrom(in);
+        }
+    }
+}
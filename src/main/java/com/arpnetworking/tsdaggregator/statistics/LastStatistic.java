@@ -9,13 +9,23 @@ import javax.annotation.Nonnull;
 /**
  * @author brandarp
  */
-public class LastStatistic extends BaseStatistic {
+public class LastStatistic extends BaseStatistic implements SummaryStatistic {
 
     @Override
     public Double calculate(@Nonnull Double[] values) {
         return values[values.length - 1];
     }
 
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        return values[length - 1];
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getLast();
+    }
+
     @Nonnull
     @Override
     public String getName() {
@@ -0,0 +1,293 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+
+/**
+ * A histogram over a fixed set of log-linear buckets.
+ *
+ * Each power of two is split into 16 buckets of equal width, so a value is reported within 1/32 of itself, for
+ * magnitudes from 2^-32 to 2^64; smaller magnitudes are counted as zero and larger ones in the highest bucket.  The
+ * bucket boundaries never move, so histograms from any host or period merge exactly.  Only the range of buckets
+ * between the lowest and highest value seen is allocated, which is bounded by the fixed number of buckets.  Minimum
+ * and maximum are tracked exactly.  Non finite values are ignored.
+ *
+ * Instances are not thread safe.
+ *
+ * @author barp
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = -32;
+    private static final int MAX_EXPONENT = 63;
+    private static final int BUCKETS_PER_SIGN = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+    private static final double MIN_MAGNITUDE = Math.scalb(1d, MIN_EXPONENT);
+    private static final int INITIAL_BUCKETS = 32;
+
+    //counts of the buckets from _offset on; index 0 is zero, negative indexes are negative values
+    @Nonnull
+    private long[] _counts = new long[0];
+    private int _offset = 0;
+    private long _count = 0;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        int index = index(value);
+        ensure(index);
+        _counts[index - _offset]++;
+        _count++;
+        _min = Math.min(_min, value);
+        _max = Math.max(_max, value);
+    }
+
+    /**
+     * Adds all of the values of another histogram to this one.
+     *
+     * @param other the histogram to merge in
+     */
+    public void merge(@Nonnull LogLinearHistogram other) {
+        if (other._count == 0) {
+            return;
+        }
+        ensure(other.lowestIndex());
+        ensure(other.highestIndex());
+        for (int x = 0; x < other._counts.length; x++) {
+            if (other._counts[x] != 0) {
+                _counts[other._offset + x - _offset] += other._counts[x];
+            }
+        }
+        _count += other._count;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+    }
+
+    /**
+     * Removes all values from the histogram, keeping its allocated buckets.
+     */
+    public void clear() {
+        Arrays.fill(_counts, 0);
+        _count = 0;
+        _min = Double.POSITIVE_INFINITY;
+        _max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    /**
+     * Gets the number of values in the bucket of a value.
+     *
+     * @param value the value
+     * @return the number of values counted in the same bucket
+     */
+    public long getBucketCount(double value) {
+        int index = index(value);
+        if (index < _offset || index >= _offset + _counts.length) {
+            return 0;
+        }
+        return _counts[index - _offset];
+    }
+
+    /**
+     * Gets the occupied buckets, in increasing order of value, as the value each bucket reports followed by its
+     * count.
+     *
+     * @return the value and count pairs
+     */
+    @Nonnull
+    public double[] getValueCounts() {
+        int occupied = 0;
+        for (long count : _counts) {
+            if (count != 0) {
+                occupied++;
+            }
+        }
+        @Nonnull double[] valueCounts = new double[occupied * 2];
+        int pair = 0;
+        for (int x = 0; x < _counts.length; x++) {
+            if (_counts[x] != 0) {
+                valueCounts[pair++] = Math.max(_min, Math.min(_max, value(_offset + x)));
+                valueCounts[pair++] = _counts[x];
+            }
+        }
+        return valueCounts;
+    }
+
+    /**
+     * Gets the value at a quantile, using the same rank as TPStatistic: ceil(quantile * (count - 1)) of the sorted
+     * values.
+     *
+     * @param quantile the quantile, in [0, 1]
+     * @return the value at the quantile, NaN if the histogram is empty
+     */
+    public double getQuantile(double quantile) {
+        if (_count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(quantile * (_count - 1));
+        if (rank <= 0) {
+            return _min;
+        }
+        if (rank >= _count - 1) {
+            return _max;
+        }
+        long seen = 0;
+        for (int x = 0; x < _counts.length; x++) {
+            seen += _counts[x];
+            if (seen > rank) {
+                return Math.max(_min, Math.min(_max, value(_offset + x)));
+            }
+        }
+        return _max;
+    }
+
+    /**
+     * Writes the histogram in a compact binary form, only the occupied range of buckets is written.
+     *
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(@Nonnull DataOutput out) throws IOException {
+        out.writeLong(_count);
+        if (_count == 0) {
+            return;
+        }
+        out.writeDouble(_min);
+        out.writeDouble(_max);
+        int lowest = lowestIndex();
+        int highest = highestIndex();
+        out.writeInt(lowest);
+        out.writeInt(highest - lowest + 1);
+        for (int index = lowest; index <= highest; index++) {
+            out.writeLong(_counts[index - _offset]);
+        }
+    }
+
+    /**
+     * Replaces the values of the histogram with those written by writeTo.
+     *
+     * @param in the input
+     * @throws IOException if the input cannot be read
+     */
+    public void readFrom(@Nonnull DataInput in) throws IOException {
+        clear();
+        long count = in.readLong();
+        if (count == 0) {
+            return;
+        }
+        double min = in.readDouble();
+        double max = in.readDouble();
+        int lowest = in.readInt();
+        int length = in.readInt();
+        if (lowest < -BUCKETS_PER_SIGN || length < 1 || lowest + length - 1 > BUCKETS_PER_SIGN) {
+            throw new IOException("bad histogram bucket range " + lowest + " + " + length);
+        }
+        ensure(lowest);
+        ensure(lowest + length - 1);
+        for (int x = 0; x < length; x++) {
+            _counts[lowest + x - _offset] = in.readLong();
+        }
+        _count = count;
+        _min = min;
+        _max = max;
+    }
+
+    private int lowestIndex() {
+        int x = 0;
+        while (_counts[x] == 0) {
+            x++;
+        }
+        return _offset + x;
+    }
+
+    private int highestIndex() {
+        int x = _counts.length - 1;
+        while (_counts[x] == 0) {
+            x--;
+        }
+        return _offset + x;
+    }
+
+    /**
+     * Grows the allocated range of buckets to include a bucket, at least doubling it so a widening range is copied
+     * few times.
+     *
+     * @param index the bucket
+     */
+    private void ensure(int index) {
+        if (_counts.length == 0) {
+            _offset = index;
+            _counts = new long[Math.min(INITIAL_BUCKETS, BUCKETS_PER_SIGN + 1 - index)];
+            return;
+        }
+        int end = _offset + _counts.length;
+        if (index >= _offset && index < end) {
+            return;
+        }
+        int offset;
+        int length;
+        if (index < _offset) {
+            offset = Math.max(-BUCKETS_PER_SIGN, Math.min(index, end - _counts.length * 2));
+            length = end - offset;
+        } else {
+            offset = _offset;
+            length = Math.min(BUCKETS_PER_SIGN + 1, Math.max(index + 1, end + _counts.length)) - offset;
+        }
+        @Nonnull long[] counts = new long[length];
+        System.arraycopy(_counts, 0, counts, _offset - offset, _counts.length);
+        _counts = counts;
+        _offset = offset;
+    }
+
+    private static int index(double value) {
+        double magnitude = Math.abs(value);
+        if (magnitude < MIN_MAGNITUDE) {
+            return 0;
+        }
+        int bucket;
+        int exponent = Math.getExponent(magnitude);
+        if (exponent > MAX_EXPONENT) {
+            bucket = BUCKETS_PER_SIGN;
+        } else {
+            //the top bits of the significand pick the linear bucket within the power of two
+            long bits = Double.doubleToRawLongBits(magnitude);
+            int subBucket = (int) (bits >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            bucket = (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket + 1;
+        }
+        return value < 0 ? -bucket : bucket;
+    }
+
+    private static double value(int index) {
+        if (index == 0) {
+            return 0d;
+        }
+        int bucket = Math.abs(index) - 1;
+        int exponent = bucket / SUB_BUCKETS + MIN_EXPONENT;
+        int subBucket = bucket % SUB_BUCKETS;
+        //the middle of the bucket, within half a bucket width of all of it
+        double magnitude = Math.scalb(1d + (subBucket + 0.5d) / SUB_BUCKETS, exponent);
+        return index < 0 ? -magnitude : magnitude;
+    }
+}
@@ -7,7 +7,7 @@ import javax.annotation.Nonnull;
  *
  * @author barp
  */
-public class MeanStatistic extends BaseStatistic {
+public class MeanStatistic extends BaseStatistic implements SketchStatistic, SummaryStatistic {
 
     @Nonnull
     @Override
@@ -22,6 +22,34 @@ public class MeanStatistic extends BaseStatistic {
         return sum / (double) orderedValues.length;
     }
 
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        if (length == 0) {
+            return 0d;
+        }
+        double sum = 0;
+        for (int x = 0; x < length; x++) {
+            sum += values[x];
+        }
+        return sum / (double) length;
+    }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        if (sketch.getCount() == 0) {
+            return 0d;
+        }
+        return sketch.getSum() / sketch.getCount();
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        if (summary.getCount() == 0) {
+            return 0d;
+        }
+        return summary.getSum() / (double) summary.getCount();
+    }
+
     @Nonnull
     @Override
     public String getName() {
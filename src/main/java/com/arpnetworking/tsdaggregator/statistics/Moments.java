@@ -0,0 +1,97 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import javax.annotation.Nonnull;
+
+/**
+ * Count, mean and sum of squared deviations from the mean of a series of samples, updated one sample at a time with
+ * Welford's method so the variance does not suffer the cancellation of the sum of squares formula.  Two series are
+ * combined with the pairwise update of Chan et al.  The result is the sample variance.  Instances are not thread
+ * safe.
+ *
+ * @author barp
+ */
+public class Moments implements Accumulator {
+    private long _count = 0;
+    private double _mean = 0d;
+    private double _squaredDeviations = 0d;
+
+    @Override
+    public void accept(double value) {
+        _count++;
+        double delta = value - _mean;
+        _mean += delta / _count;
+        _squaredDeviations += delta * (value - _mean);
+    }
+
+    @Override
+    public void merge(@Nonnull Accumulator other) {
+        @Nonnull Moments moments = (Moments) other;
+        if (moments._count == 0) {
+            return;
+        }
+        if (_count == 0) {
+            _count = moments._count;
+            _mean = moments._mean;
+            _squaredDeviations = moments._squaredDeviations;
+            return;
+        }
+        long count = _count + moments._count;
+        double delta = moments._mean - _mean;
+        _mean += delta * moments._count / count;
+        _squaredDeviations += moments._squaredDeviations + delta * delta * _count / count * moments._count;
+        _count = count;
+    }
+
+    @Override
+    public double result() {
+        return getVariance();
+    }
+
+    @Override
+    public void clear() {
+        _count = 0;
+        _mean = 0d;
+        _squaredDeviations = 0d;
+    }
+
+    @Override
+    public void writeTo(@Nonnull DataOutput out) throws IOException {
+        out.writeLong(_count);
+        out.writeDouble(_mean);
+        out.writeDouble(_squaredDeviations);
+    }
+
+    @Override
+    public void readFrom(@Nonnull DataInput in) throws IOException {
+        _count = in.readLong();
+        _mean = in.readDouble();
+        _squaredDeviations = in.readDouble();
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getMean() {
+        return _mean;
+    }
+
+    /**
+     * Gets the sample variance, with Bessel's correction.
+     *
+     * @return the variance, 0 for fewer than two samples
+     */
+    public double getVariance() {
+        if (_count < 2) {
+            return 0d;
+        }
+        return _squaredDeviations / (_count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+}
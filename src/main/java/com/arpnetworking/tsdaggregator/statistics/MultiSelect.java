@@ -0,0 +1,115 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+
+/**
+ * Partially orders samples so that a set of ranks hold the values a full sort would have put there, using a single
+ * multi-quickselect pass (O(n) expected for a small number of ranks).
+ *
+ * @author barp
+ */
+public final class MultiSelect {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private MultiSelect() {
+    }
+
+    /**
+     * Moves the values at the given ranks into sorted position.  Like Arrays.sort, NaN values are ordered last.
+     *
+     * @param values the values
+     * @param length the number of values to consider
+     * @param ranks the ranks to select, each in [0, length)
+     */
+    public static void select(@Nonnull double[] values, int length, @Nonnull int[] ranks) {
+        if (length < 2 || ranks.length == 0) {
+            return;
+        }
+        int[] sortedRanks = Arrays.copyOf(ranks, ranks.length);
+        Arrays.sort(sortedRanks);
+
+        //move NaNs to the end so the rest can use primitive comparisons
+        int end = length;
+        int x = 0;
+        while (x < end) {
+            if (values[x] != values[x]) {
+                end--;
+                swap(values, x, end);
+            } else {
+                x++;
+            }
+        }
+
+        int rankEnd = sortedRanks.length;
+        while (rankEnd > 0 && sortedRanks[rankEnd - 1] >= end) {
+            rankEnd--;
+        }
+        if (rankEnd > 0) {
+            int maxDepth = 2 * (32 - Integer.numberOfLeadingZeros(end));
+            select(values, 0, end - 1, sortedRanks, 0, rankEnd - 1, maxDepth);
+        }
+    }
+
+    private static void select(@Nonnull double[] values, int lo, int hi, @Nonnull int[] ranks, int rankLo, int rankHi,
+                               int depth) {
+        while (lo < hi && rankLo <= rankHi) {
+            if (hi - lo < INSERTION_SORT_THRESHOLD || depth == 0) {
+                //small or adversarial ranges are cheaper to just sort
+                Arrays.sort(values, lo, hi + 1);
+                return;
+            }
+            depth--;
+
+            //three way partition around a median of three pivot: [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi] > pivot
+            double pivot = medianOfThree(values[lo], values[lo + (hi - lo) / 2], values[hi]);
+            int lt = lo;
+            int gt = hi;
+            int x = lo;
+            while (x <= gt) {
+                double value = values[x];
+                if (value < pivot) {
+                    swap(values, lt++, x++);
+                } else if (value > pivot) {
+                    swap(values, x, gt--);
+                } else {
+                    x++;
+                }
+            }
+
+            //split the ranks between the two sides, ranks inside [lt, gt] are already in place
+            int leftRankHi = rankLo - 1;
+            while (leftRankHi < rankHi && ranks[leftRankHi + 1] < lt) {
+                leftRankHi++;
+            }
+            int rightRankLo = leftRankHi + 1;
+            while (rightRankLo <= rankHi && ranks[rightRankLo] <= gt) {
+                rightRankLo++;
+            }
+
+            //recurse into the smaller side, loop on the larger one
+            if (lt - lo < hi - gt) {
+                select(values, lo, lt - 1, ranks, rankLo, leftRankHi, depth);
+                lo = gt + 1;
+                rankLo = rightRankLo;
+            } else {
+                select(values, gt + 1, hi, ranks, rightRankLo, rankHi, depth);
+                hi = lt - 1;
+                rankHi = leftRankHi;
+            }
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (a < b) {
+            return b < c ? b : (a < c ? c : a);
+        }
+        return a < c ? a : (b < c ? c : b);
+    }
+
+    private static void swap(@Nonnull double[] values, int a, int b) {
+        double temp = values[a];
+        values[a] = values[b];
+        values[b] = temp;
+    }
+}
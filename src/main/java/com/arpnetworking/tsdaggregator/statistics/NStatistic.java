@@ -7,13 +7,28 @@ import javax.annotation.Nonnull;
  *
  * @author barp
  */
-public class NStatistic extends BaseStatistic {
+public class NStatistic extends BaseStatistic implements SketchStatistic, SummaryStatistic {
 
     @Override
     public Double calculate(@Nonnull Double[] unorderedValues) {
         return Integer.valueOf(unorderedValues.length).doubleValue();
     }
 
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        return length;
+    }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        return sketch.getCount();
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getCount();
+    }
+
     @Nonnull
     @Override
     public String getName() {
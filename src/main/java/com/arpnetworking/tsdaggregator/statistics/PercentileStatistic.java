@@ -0,0 +1,58 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.text.DecimalFormat;
+import javax.annotation.Nonnull;
+
+/**
+ * Base class for the statistics that report a percentile of the samples, named tp followed by the percentile.  By
+ * default the value is the sample at ceil(percentile * (count - 1)) of the sorted samples, subclasses that interpolate
+ * or approximate override the calculation.
+ *
+ * @author barp
+ */
+public abstract class PercentileStatistic extends BaseStatistic implements RankStatistic {
+    private static final DecimalFormat FORMAT = new DecimalFormat("##0.###");
+    private final double _tStat;
+
+    protected PercentileStatistic(double tstat) {
+        if (!(tstat >= 0 && tstat <= 100)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, was " + tstat);
+        }
+        _tStat = tstat;
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "tp" + FORMAT.format(_tStat);
+    }
+
+    @Override
+    public Double calculate(@Nonnull Double[] orderedValues) {
+        return orderedValues[getRank(orderedValues.length)];
+    }
+
+    @Override
+    public double calculate(@Nonnull double[] orderedValues, int length) {
+        return orderedValues[getRank(length)];
+    }
+
+    @Override
+    public int getRank(int length) {
+        return (int) (Math.ceil((_tStat / 100) * (length - 1)));
+    }
+
+    @Override
+    public int getLowerRank(int length) {
+        return getRank(length);
+    }
+
+    public double getPercentile() {
+        return _tStat;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.valueOf(_tStat).hashCode();
+    }
+}
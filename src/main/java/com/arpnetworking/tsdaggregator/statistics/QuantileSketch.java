@@ -0,0 +1,428 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import javax.annotation.Nonnull;
+
+/**
+ * A mergeable quantile sketch with bounded memory.
+ *
+ * Values are counted in logarithmically sized buckets so that any quantile is reported within a fixed relative error
+ * of the true value.  Each sign keeps at most a fixed number of buckets; if the observed range would need more, the
+ * buckets closest to zero are collapsed, which only degrades the accuracy of the lowest quantiles.  Count, sum,
+ * minimum and maximum are tracked exactly.  Non finite values are ignored.
+ *
+ * Instances are not thread safe.
+ *
+ * @author barp
+ */
+public final class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+    private static final int INITIAL_BUCKETS = 32;
+
+    private final double _relativeAccuracy;
+    private final double _gamma;
+    private final double _multiplier;
+    private final double _minIndexableValue;
+    private final int _maxBuckets;
+    private final Store _positive;
+    private final Store _negative;
+    private long _zeroCount = 0;
+    private long _count = 0;
+    private double _sum = 0;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * Creates a sketch.
+     *
+     * @param relativeAccuracy the relative error of the reported quantiles, in (0, 1)
+     * @param maxBuckets the maximum number of buckets kept for each sign
+     */
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relative accuracy must be between 0 and 1, was " + relativeAccuracy);
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("max buckets must be positive, was " + maxBuckets);
+        }
+        _relativeAccuracy = relativeAccuracy;
+        _gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        _multiplier = 1 / Math.log(_gamma);
+        _minIndexableValue = Math.max(Double.MIN_NORMAL * _gamma, Math.exp((Integer.MIN_VALUE + 1) / _multiplier));
+        _maxBuckets = maxBuckets;
+        _positive = new Store(maxBuckets);
+        _negative = new Store(maxBuckets);
+    }
+
+    public double getRelativeAccuracy() {
+        return _relativeAccuracy;
+    }
+
+    public int getMaxBuckets() {
+        return _maxBuckets;
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value >= _minIndexableValue) {
+            _positive.add(index(value), 1);
+        } else if (value <= -_minIndexableValue) {
+            _negative.add(index(-value), 1);
+        } else {
+            _zeroCount++;
+        }
+        _count++;
+        _sum += value;
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    /**
+     * Adds all of the values of another sketch to this one.  Both sketches must have the same relative accuracy.
+     *
+     * @param other the sketch to merge in
+     */
+    public void merge(@Nonnull QuantileSketch other) {
+        if (Double.compare(other._gamma, _gamma) != 0) {
+            throw new IllegalArgumentException("cannot merge sketches with different relative accuracies");
+        }
+        if (other._count == 0) {
+            return;
+        }
+        _positive.merge(other._positive);
+        _negative.merge(other._negative);
+        _zeroCount += other._zeroCount;
+        _count += other._count;
+        _sum += other._sum;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+    }
+
+    /**
+     * Removes all values from the sketch, keeping its allocated buckets.
+     */
+    public void clear() {
+        _positive.clear();
+        _negative.clear();
+        _zeroCount = 0;
+        _count = 0;
+        _sum = 0;
+        _min = Double.POSITIVE_INFINITY;
+        _max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getSum() {
+        return _sum;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    /**
+     * Gets the value at a quantile, using the same rank as TPStatistic: ceil(quantile * (count - 1)) of the sorted
+     * values.
+     *
+     * @param quantile the quantile, in [0, 1]
+     * @return the value at the quantile, NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        return getQuantiles(new double[]{quantile})[0];
+    }
+
+    /**
+     * Gets the values at several quantiles in a single pass over the buckets.
+     *
+     * @param quantiles the quantiles, each in [0, 1], in any order
+     * @return the value at each quantile, NaN if the sketch is empty
+     */
+    @Nonnull
+    public double[] getQuantiles(@Nonnull double[] quantiles) {
+        @Nonnull double[] values = new double[quantiles.length];
+        if (_count == 0) {
+            Arrays.fill(values, Double.NaN);
+            return values;
+        }
+        @Nonnull final long[] ranks = new long[quantiles.length];
+        @Nonnull Integer[] order = new Integer[quantiles.length];
+        for (int x = 0; x < quantiles.length; x++) {
+            ranks[x] = (long) Math.ceil(quantiles[x] * (_count - 1));
+            order[x] = x;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(ranks[a], ranks[b]);
+            }
+        });
+
+        int next = 0;
+        //the lowest rank is the exact minimum
+        while (next < order.length && ranks[order[next]] <= 0) {
+            values[order[next++]] = _min;
+        }
+        long seen = 0;
+        for (int index = _negative.getMaxIndex(); index >= _negative.getMinIndex() && next < order.length; index--) {
+            seen += _negative.getCount(index);
+            next = fill(values, order, ranks, next, seen, -value(index));
+        }
+        seen += _zeroCount;
+        next = fill(values, order, ranks, next, seen, 0);
+        for (int index = _positive.getMinIndex(); index <= _positive.getMaxIndex() && next < order.length; index++) {
+            seen += _positive.getCount(index);
+            next = fill(values, order, ranks, next, seen, value(index));
+        }
+        while (next < order.length) {
+            values[order[next++]] = _max;
+        }
+        return values;
+    }
+
+    /**
+     * Sets the quantiles whose ranks fall in the buckets counted so far to the value of the last of those buckets.
+     *
+     * @return the position in order of the first quantile not yet set
+     */
+    private int fill(@Nonnull double[] values, @Nonnull Integer[] order, @Nonnull long[] ranks, int next, long seen,
+                     double value) {
+        while (next < order.length && ranks[order[next]] < seen) {
+            //the highest rank is the exact maximum
+            values[order[next]] = ranks[order[next]] >= _count - 1 ? _max : clamp(value);
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Gets the occupied buckets, in increasing order of value, as the value each bucket reports followed by its
+     * count.
+     *
+     * @return the value and count pairs
+     */
+    @Nonnull
+    public double[] getValueCounts() {
+        int occupied = _zeroCount > 0 ? 1 : 0;
+        for (int index = _negative.getMinIndex(); index <= _negative.getMaxIndex(); index++) {
+            occupied += _negative.getCount(index) > 0 ? 1 : 0;
+        }
+        for (int index = _positive.getMinIndex(); index <= _positive.getMaxIndex(); index++) {
+            occupied += _positive.getCount(index) > 0 ? 1 : 0;
+        }
+        @Nonnull double[] valueCounts = new double[occupied * 2];
+        int pair = 0;
+        for (int index = _negative.getMaxIndex(); index >= _negative.getMinIndex(); index--) {
+            if (_negative.getCount(index) > 0) {
+                valueCounts[pair++] = clamp(-value(index));
+                valueCounts[pair++] = _negative.getCount(index);
+            }
+        }
+        if (_zeroCount > 0) {
+            valueCounts[pair++] = clamp(0);
+            valueCounts[pair++] = _zeroCount;
+        }
+        for (int index = _positive.getMinIndex(); index <= _positive.getMaxIndex(); index++) {
+            if (_positive.getCount(index) > 0) {
+                valueCounts[pair++] = clamp(value(index));
+                valueCounts[pair++] = _positive.getCount(index);
+            }
+        }
+        return valueCounts;
+    }
+
+    /**
+     * Writes the sketch in a compact binary form, only the occupied range of buckets is written.
+     *
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(@Nonnull DataOutput out) throws IOException {
+        out.writeDouble(_relativeAccuracy);
+        out.writeInt(_maxBuckets);
+        out.writeLong(_zeroCount);
+        out.writeLong(_count);
+        out.writeDouble(_sum);
+        out.writeDouble(_min);
+        out.writeDouble(_max);
+        _positive.writeTo(out);
+        _negative.writeTo(out);
+    }
+
+    /**
+     * Reads a sketch written by writeTo.
+     *
+     * @param in the input
+     * @return the sketch
+     * @throws IOException if the input cannot be read
+     */
+    @Nonnull
+    public static QuantileSketch readFrom(@Nonnull DataInput in) throws IOException {
+        @Nonnull QuantileSketch sketch = new QuantileSketch(in.readDouble(), in.readInt());
+        sketch._zeroCount = in.readLong();
+        sketch._count = in.readLong();
+        sketch._sum = in.readDouble();
+        sketch._min = in.readDouble();
+        sketch._max = in.readDouble();
+        sketch._positive.readFrom(in);
+        sketch._negative.readFrom(in);
+        return sketch;
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) * _multiplier);
+    }
+
+    private double value(int index) {
+        //the bucket covers (gamma^(index - 1), gamma^index], this is within the relative accuracy of all of it
+        return 2 * Math.pow(_gamma, index) / (1 + _gamma);
+    }
+
+    private double clamp(double value) {
+        return Math.max(_min, Math.min(_max, value));
+    }
+
+    /**
+     * Dense bucket counts over a sliding range of bucket indexes.
+     */
+    private static final class Store {
+        private final int _maxBuckets;
+        private long[] _counts = new long[0];
+        private int _offset = 0;
+        private int _minIndex = Integer.MAX_VALUE;
+        private int _maxIndex = Integer.MIN_VALUE;
+
+        private Store(int maxBuckets) {
+            _maxBuckets = maxBuckets;
+        }
+
+        public int getMinIndex() {
+            return _minIndex;
+        }
+
+        public int getMaxIndex() {
+            return _maxIndex;
+        }
+
+        public long getCount(int index) {
+            return _counts[index - _offset];
+        }
+
+        public void add(int index, long count) {
+            int target = prepare(index);
+            _counts[target - _offset] += count;
+        }
+
+        public void merge(@Nonnull Store other) {
+            for (int index = other._minIndex; index <= other._maxIndex; index++) {
+                long count = other.getCount(index);
+                if (count > 0) {
+                    add(index, count);
+                }
+            }
+        }
+
+        public void writeTo(@Nonnull DataOutput out) throws IOException {
+            out.writeInt(_minIndex);
+            out.writeInt(_maxIndex);
+            for (int index = _minIndex; index <= _maxIndex; index++) {
+                out.writeLong(getCount(index));
+            }
+        }
+
+        public void readFrom(@Nonnull DataInput in) throws IOException {
+            int minIndex = in.readInt();
+            int maxIndex = in.readInt();
+            for (int index = minIndex; index <= maxIndex; index++) {
+                long count = in.readLong();
+                if (count > 0) {
+                    add(index, count);
+                }
+            }
+        }
+
+        public void clear() {
+            for (int index = _minIndex; index <= _maxIndex; index++) {
+                _counts[index - _offset] = 0;
+            }
+            _minIndex = Integer.MAX_VALUE;
+            _maxIndex = Integer.MIN_VALUE;
+        }
+
+        /**
+         * Makes room for an index, collapsing the lowest buckets if the range gets too wide.
+         *
+         * @param index the index to add to
+         * @return the index to actually add to
+         */
+        private int prepare(int index) {
+            if (_minIndex > _maxIndex) {
+                ensureCapacity(index, index);
+                _minIndex = index;
+                _maxIndex = index;
+                return index;
+            }
+            int newMin = Math.min(_minIndex, index);
+            int newMax = Math.max(_maxIndex, index);
+            if ((long) newMax - newMin >= _maxBuckets) {
+                newMin = newMax - _maxBuckets + 1;
+            }
+
+            long collapsed = 0;
+            for (int x = _minIndex; x < newMin && x <= _maxIndex; x++) {
+                collapsed += _counts[x - _offset];
+                _counts[x - _offset] = 0;
+            }
+            ensureCapacity(newMin, newMax);
+            _counts[newMin - _offset] += collapsed;
+            _minIndex = newMin;
+            _maxIndex = newMax;
+            return Math.max(index, newMin);
+        }
+
+        private void ensureCapacity(int low, int high) {
+            if (low >= _offset && high < _offset + _counts.length) {
+                return;
+            }
+            int needed = high - low + 1;
+            int length = Math.min(_maxBuckets, Math.max(needed, Math.max(INITIAL_BUCKETS, _counts.length * 2)));
+            int offset = low - (length - needed) / 2;
+            long[] counts = new long[length];
+            if (_minIndex <= _maxIndex) {
+                int copyLow = Math.max(_minIndex, low);
+                int copyHigh = Math.min(_maxIndex, high);
+                if (copyLow <= copyHigh) {
+                    System.arraycopy(_counts, copyLow - _offset, counts, copyLow - offset, copyHigh - copyLow + 1);
+                }
+            }
+            _counts = counts;
+            _offset = offset;
+        }
+    }
+}
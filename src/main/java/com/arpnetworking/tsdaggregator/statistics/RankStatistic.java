@@ -0,0 +1,27 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * An ordered statistic whose value only depends on the sample at a single rank of the sorted samples, or on the two
+ * samples at adjacent ranks it interpolates between.  Such statistics do not need the samples to be fully sorted,
+ * only that the values at their ranks are the ones a sort would have put there.
+ *
+ * @author barp
+ */
+public interface RankStatistic extends OrderedStatistic {
+    /**
+     * Gets the rank (zero based index into the sorted samples) this statistic reads.
+     *
+     * @param length the number of samples
+     * @return the rank
+     */
+    int getRank(int length);
+
+    /**
+     * Gets the rank of the lower sample this statistic interpolates from, the same as getRank if it reads a single
+     * sample.
+     *
+     * @param length the number of samples
+     * @return the rank, at most getRank
+     */
+    int getLowerRank(int length);
+}
@@ -0,0 +1,20 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A statistic that can be calculated from a QuantileSketch instead of the raw samples.  When every statistic of an
+ * aggregation implements this interface the aggregation only keeps a sketch, so its memory use does not grow with
+ * the number of samples.
+ *
+ * @author barp
+ */
+public interface SketchStatistic extends Statistic {
+    /**
+     * Calculates the statistic from a sketch of the samples.
+     *
+     * @param sketch the sketch
+     * @return the value of the statistic
+     */
+    double calculate(@Nonnull QuantileSketch sketch);
+}
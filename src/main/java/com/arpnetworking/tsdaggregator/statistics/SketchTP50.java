@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 50% statistic (median), approximated by a sketch when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class SketchTP50 extends SketchTPStatistic {
+    public SketchTP50() {
+        super(50d);
+    }
+}
@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 90% statistic, approximated by a sketch when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class SketchTP90 extends SketchTPStatistic {
+    public SketchTP90() {
+        super(90d);
+    }
+}
@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 95% statistic, approximated by a sketch when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class SketchTP95 extends SketchTPStatistic {
+    public SketchTP95() {
+        super(95d);
+    }
+}
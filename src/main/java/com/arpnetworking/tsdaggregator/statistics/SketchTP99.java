@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 99% statistic, approximated by a sketch when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class SketchTP99 extends SketchTPStatistic {
+    public SketchTP99() {
+        super(99d);
+    }
+}
@@ -0,0 +1,12 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+/**
+ * Top percentile 99.9% statistic, approximated by a sketch when the raw samples are not kept.
+ *
+ * @author barp
+ */
+public class SketchTP99p9 extends SketchTPStatistic {
+    public SketchTP99p9() {
+        super(99.9d);
+    }
+}
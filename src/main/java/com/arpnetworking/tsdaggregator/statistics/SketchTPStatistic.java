@@ -0,0 +1,31 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Base statistic for percentiles that are allowed to be approximated by a QuantileSketch.  When the raw samples are
+ * available the value is exact, like TPStatistic, otherwise it is within the sketch's relative accuracy.
+ *
+ * @author barp
+ */
+public class SketchTPStatistic extends PercentileStatistic implements SketchStatistic {
+
+    public SketchTPStatistic(double tstat) {
+        super(tstat);
+    }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        return sketch.getQuantile(getPercentile() / 100);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj instanceof SketchTPStatistic) {
+            @Nonnull SketchTPStatistic other = (SketchTPStatistic) obj;
+            return Double.compare(other.getPercentile(), getPercentile()) == 0;
+        }
+        return false;
+    }
+}
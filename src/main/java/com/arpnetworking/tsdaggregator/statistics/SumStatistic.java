@@ -7,7 +7,7 @@ import javax.annotation.Nonnull;
  *
  * @author barp
  */
-public class SumStatistic extends BaseStatistic {
+public class SumStatistic extends BaseStatistic implements SketchStatistic, SummaryStatistic {
     @Override
     public Double calculate(@Nonnull Double[] unorderedValues) {
         Double sum = 0d;
@@ -17,6 +17,25 @@ public class SumStatistic extends BaseStatistic {
         return sum;
     }
 
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        double sum = 0d;
+        for (int x = 0; x < length; x++) {
+            sum += values[x];
+        }
+        return sum;
+    }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        return sketch.getSum();
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getSum();
+    }
+
     @Nonnull
     @Override
     public String getName() {
@@ -0,0 +1,130 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import javax.annotation.Nonnull;
+
+/**
+ * Count, sum, minimum, maximum, first and last of a series of samples, kept up to date as each sample is added so
+ * the statistics read from it cost nothing at the end of a period.
+ *
+ * The minimum and maximum follow the order Arrays.sort gives doubles (NaN above everything, -0.0 below 0.0), so they
+ * are the values the 0th and 100th percentiles read from the sorted samples.  The first and last are in the order
+ * samples were added, and merged summaries are taken to follow this one.  Instances are not thread safe.
+ *
+ * @author barp
+ */
+public final class Summary {
+    private long _count = 0;
+    private double _sum = 0d;
+    private double _min = Double.NaN;
+    private double _max = Double.NaN;
+    private double _first = Double.NaN;
+    private double _last = Double.NaN;
+
+    public void add(double value) {
+        if (_count == 0) {
+            _first = value;
+            _min = value;
+            _max = value;
+        } else {
+            if (Double.compare(value, _min) < 0) {
+                _min = value;
+            }
+            if (Double.compare(value, _max) > 0) {
+                _max = value;
+            }
+        }
+        _last = value;
+        _sum += value;
+        _count++;
+    }
+
+    /**
+     * Adds the samples of a summary of later samples.
+     *
+     * @param other the other summary
+     */
+    public void merge(@Nonnull Summary other) {
+        if (other._count == 0) {
+            return;
+        }
+        if (_count == 0) {
+            _first = other._first;
+            _min = other._min;
+            _max = other._max;
+        } else {
+            if (Double.compare(other._min, _min) < 0) {
+                _min = other._min;
+            }
+            if (Double.compare(other._max, _max) > 0) {
+                _max = other._max;
+            }
+        }
+        _last = other._last;
+        _sum += other._sum;
+        _count += other._count;
+    }
+
+    public void clear() {
+        _count = 0;
+        _sum = 0d;
+        _min = Double.NaN;
+        _max = Double.NaN;
+        _first = Double.NaN;
+        _last = Double.NaN;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getSum() {
+        return _sum;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    public double getFirst() {
+        return _first;
+    }
+
+    public double getLast() {
+        return _last;
+    }
+
+    public void writeTo(@Nonnull DataOutput out) throws IOException {
+        out.writeLong(_count);
+        out.writeDouble(_sum);
+        out.writeDouble(_min);
+        out.writeDouble(_max);
+        out.writeDouble(_first);
+        out.writeDouble(_last);
+    }
+
+    /**
+     * Reads a summary written by writeTo.
+     *
+     * @param in the input
+     * @return the summary
+     * @throws IOException if the input cannot be read
+     */
+    @Nonnull
+    public static Summary readFrom(@Nonnull DataInput in) throws IOException {
+        @Nonnull Summary summary = new Summary();
+        summary._count = in.readLong();
+        summary._sum = in.readDouble();
+        summary._min = in.readDouble();
+        summary._max = in.readDouble();
+        summary._first = in.readDouble();
+        summary._last = in.readDouble();
+        return summary;
+    }
+}
@@ -0,0 +1,19 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A statistic that can be read from the Summary every aggregation keeps as samples arrive.  Such statistics are
+ * calculated without looking at the samples again, and an ordered one is left out of sorting.
+ *
+ * @author barp
+ */
+public interface SummaryStatistic extends Statistic {
+    /**
+     * Calculates the statistic from a summary of the samples.
+     *
+     * @param summary the summary, of at least one sample
+     * @return the value of the statistic
+     */
+    double calculate(@Nonnull Summary summary);
+}
@@ -12,7 +12,7 @@ import javax.annotation.Nonnull;
  * @author barp
  */
 
-public class TP0 extends TPStatistic {
+public class TP0 extends TPStatistic implements SketchStatistic, SummaryStatistic {
     @Nonnull
     @Override
     public String getName() {
@@ -22,4 +22,14 @@ public class TP0 extends TPStatistic {
     public TP0() {
         super(0d);
     }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        return sketch.getMin();
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getMin();
+    }
 }
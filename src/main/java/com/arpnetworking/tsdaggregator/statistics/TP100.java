@@ -11,7 +11,7 @@ import javax.annotation.Nonnull;
  *
  * @author barp
  */
-public class TP100 extends TPStatistic {
+public class TP100 extends TPStatistic implements SketchStatistic, SummaryStatistic {
     public TP100() {
         super(100d);
     }
@@ -21,4 +21,14 @@ public class TP100 extends TPStatistic {
     public String getName() {
         return "max";
     }
+
+    @Override
+    public double calculate(@Nonnull QuantileSketch sketch) {
+        return sketch.getMax();
+    }
+
+    @Override
+    public double calculate(@Nonnull Summary summary) {
+        return summary.getMax();
+    }
 }
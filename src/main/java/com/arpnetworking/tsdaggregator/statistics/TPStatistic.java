@@ -1,42 +1,89 @@
 package com.arpnetworking.tsdaggregator.statistics;
 
-import java.text.DecimalFormat;
 import javax.annotation.Nonnull;
 
 /**
- * Base statistic for percentile based statistics.
+ * Base statistic for percentile based statistics.  Any percentile can be created directly, the subclasses only name
+ * the common ones.
  *
  * @author barp
  */
-public class TPStatistic extends BaseStatistic implements OrderedStatistic {
-    private static final DecimalFormat FORMAT = new DecimalFormat("##0.#");
-    private Double _tStat = 0.0;
+public class TPStatistic extends PercentileStatistic {
+    /**
+     * How a percentile that falls between two samples is read.
+     */
+    public enum Interpolation {
+        /**
+         * The sample at or above the percentile's position.
+         */
+        Nearest,
+        /**
+         * Linear interpolation between the samples on either side of the percentile's position.
+         */
+        Linear
+    }
+
+    @Nonnull
+    private final Interpolation _interpolation;
 
     public TPStatistic(Double tstat) {
-        _tStat = tstat;
+        this(tstat, Interpolation.Nearest);
+    }
+
+    public TPStatistic(Double tstat, @Nonnull Interpolation interpolation) {
+        super(tstat);
+        _interpolation = interpolation;
     }
 
     @Nonnull
+    @Override
     public String getName() {
-        return "tp" + FORMAT.format(_tStat);
+        if (_interpolation == Interpolation.Linear) {
+            return super.getName() + "_linear";
+        }
+        return super.getName();
     }
 
+    @Override
     public Double calculate(@Nonnull Double[] orderedValues) {
-        int index = (int) (Math.ceil((_tStat / 100) * (orderedValues.length - 1)));
-        return orderedValues[index];
+        int lower = getLowerRank(orderedValues.length);
+        int upper = getRank(orderedValues.length);
+        return interpolate(orderedValues[lower], orderedValues[upper], orderedValues.length);
+    }
+
+    @Override
+    public double calculate(@Nonnull double[] orderedValues, int length) {
+        return interpolate(orderedValues[getLowerRank(length)], orderedValues[getRank(length)], length);
+    }
+
+    private double interpolate(double lower, double upper, int length) {
+        if (Double.compare(lower, upper) == 0) {
+            return upper;
+        }
+        double position = (getPercentile() / 100) * (length - 1);
+        return lower + (position - Math.floor(position)) * (upper - lower);
+    }
+
+    @Override
+    public int getLowerRank(int length) {
+        if (_interpolation == Interpolation.Linear) {
+            return (int) (Math.floor((getPercentile() / 100) * (length - 1)));
+        }
+        return getRank(length);
+    }
+
+    @Nonnull
+    public Interpolation getInterpolation() {
+        return _interpolation;
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof TPStatistic) {
             @Nonnull TPStatistic other = (TPStatistic) obj;
-            return other._tStat.equals(_tStat);
+            return Double.compare(other.getPercentile(), getPercentile()) == 0
+                    && other._interpolation == _interpolation;
         }
         return false;
     }
-
-    @Override
-    public int hashCode() {
-        return _tStat.hashCode();
-    }
 }
@@ -0,0 +1,43 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Takes the sample variance of the entries.  Calculated online, so an aggregation of only incremental statistics
+ * does not keep its samples for it.
+ *
+ * @author barp
+ */
+public class VarianceStatistic extends BaseStatistic implements AccumulatorStatistic {
+
+    @Override
+    public Double calculate(@Nonnull Double[] values) {
+        @Nonnull Moments moments = new Moments();
+        for (Double value : values) {
+            moments.accept(value);
+        }
+        return moments.getVariance();
+    }
+
+    @Override
+    public double calculate(@Nonnull double[] values, int length) {
+        @Nonnull Moments moments = new Moments();
+        for (int x = 0; x < length; x++) {
+            moments.accept(values[x]);
+        }
+        return moments.getVariance();
+    }
+
+    @Nonnull
+    @Override
+    public Accumulator createAccumulator() {
+        return new Moments();
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "variance";
+    }
+
+}
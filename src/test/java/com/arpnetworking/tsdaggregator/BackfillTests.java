@@ -0,0 +1,144 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.arpnetworking.tsdaggregator.statistics.NStatistic;
+import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.SumStatistic;
+import com.arpnetworking.tsdaggregator.statistics.TP50;
+import com.arpnetworking.tsdaggregator.statistics.VarianceStatistic;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.joda.time.Period;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the Backfill class
+ *
+ * @author barp
+ */
+public class BackfillTests {
+    @Test
+    public void testSliceLength() {
+        assertThat(Backfill.sliceLength(Sets.newHashSet(Period.minutes(1), Period.minutes(5), Period.months(1))),
+                equalTo(60000L));
+        assertThat(Backfill.sliceLength(Sets.newHashSet(Period.minutes(7))), equalTo(60000L));
+        assertThat(Backfill.sliceLength(Sets.newHashSet(Period.minutes(40))), equalTo(1200000L));
+        assertThat(Backfill.sliceLength(Sets.newHashSet(Period.days(1))), equalTo(3600000L));
+    }
+
+    @Test
+    public void testInterleavedFilesLandInTheirPeriods() throws IOException {
+        //each file covers the same ten minutes, as the logs of different hosts would
+        long start = 1347527700L;
+        List<String> files = Lists.newArrayList();
+        List<File> handles = Lists.newArrayList();
+        try {
+            for (int host = 0; host < 6; host++) {
+                StringBuilder contents = new StringBuilder();
+                for (int x = 0; x < 30; x++) {
+                    contents.append("{\"version\":\"2b\",\"counters\":{},\"timers\":{\"latency\":[")
+                            .append(host + 1).append("]},\"annotations\":{\"initTimestamp\":\"")
+                            .append(start + x * 20).append("\",\"finalTimestamp\":\"").append(start + x * 20)
+                            .append("\"}}\n");
+                }
+                File file = File.createTempFile("backfill", ".log");
+                handles.add(file);
+                Files.write(contents.toString(), file, Charsets.UTF_8);
+                files.add(file.getPath());
+            }
+
+            Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic());
+            Set<Period> periods = Sets.newHashSet(Period.minutes(1), Period.minutes(5));
+            TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+            new Backfill(QueryLogParser.class, false, false, stats, stats, stats, "host", "service", periods,
+                    publisher).run(files, 4);
+
+            int minutes = 0;
+            int fiveMinutes = 0;
+            for (AggregatedData data : publisher.getData()) {
+                boolean minute = data.getPeriod().equals(Period.minutes(1));
+                if (minute) {
+                    minutes++;
+                } else {
+                    fiveMinutes++;
+                }
+                double expectedCount = (minute ? 3 : 15) * 6;
+                double expected = data.getStatistic() instanceof NStatistic ? expectedCount : expectedCount * 3.5;
+                assertThat(data.getValue(), equalTo(expected));
+            }
+            assertThat(minutes, equalTo(10 * 2));
+            assertThat(fiveMinutes, equalTo(2 * 2));
+        } finally {
+            for (File file : handles) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testOnlineAndSampledStatisticsMergeAcrossFiles() throws IOException {
+        //each host logs the values 1 to 10 over the same minute, one of them each five seconds
+        long start = 1347527700L;
+        List<String> files = Lists.newArrayList();
+        List<File> handles = Lists.newArrayList();
+        try {
+            for (int host = 0; host < 4; host++) {
+                StringBuilder contents = new StringBuilder();
+                for (int x = 0; x < 10; x++) {
+                    contents.append("{\"version\":\"2b\",\"counters\":{},\"timers\":{\"latency\":[")
+                            .append(x + 1).append("]},\"annotations\":{\"initTimestamp\":\"")
+                            .append(start + x * 5).append("\",\"finalTimestamp\":\"").append(start + x * 5)
+                            .append("\"}}\n");
+                }
+                File file = File.createTempFile("backfill", ".log");
+                handles.add(file);
+                Files.write(contents.toString(), file, Charsets.UTF_8);
+                files.add(file.getPath());
+            }
+
+            Set<Period> periods = Sets.newHashSet(Period.minutes(1));
+            for (Set<Statistic> stats : Lists.<Set<Statistic>>newArrayList(
+                    Sets.<Statistic>newHashSet(new NStatistic(), new VarianceStatistic()),
+                    Sets.<Statistic>newHashSet(new NStatistic(), new VarianceStatistic(), new TP50()))) {
+                TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+                new Backfill(QueryLogParser.class, false, false, stats, stats, stats, "host", "service", periods,
+                        publisher).run(files, 2);
+                assertThat(publisher.getData().size(), equalTo(stats.size()));
+                for (AggregatedData data : publisher.getData()) {
+                    if (data.getStatistic() instanceof NStatistic) {
+                        assertThat(data.getValue(), equalTo(40d));
+                    } else if (data.getStatistic() instanceof VarianceStatistic) {
+                        //the variance of 1 to 10, four times over
+                        assertThat(data.getValue(), closeTo(330d / 39d, 1e-9));
+                    } else {
+                        assertThat(data.getValue(), equalTo(6d));
+                    }
+                }
+            }
+        } finally {
+            for (File file : handles) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testNoFiles() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        new Backfill(QueryLogParser.class, false, false, stats, stats, stats, "host", "service",
+                Sets.newHashSet(Period.minutes(1)), publisher).run(Collections.<String>emptyList(), 2);
+        assertThat(publisher.getData().isEmpty(), equalTo(true));
+    }
+}
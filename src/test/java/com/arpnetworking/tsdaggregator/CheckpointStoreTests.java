@@ -0,0 +1,57 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for the CheckpointStore class
+ *
+ * @author barp
+ */
+public class CheckpointStoreTests {
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        File dir = Files.createTempDir();
+        File file = new File(dir, "checkpoints");
+        try {
+            CheckpointStore store = new CheckpointStore(file);
+            assertThat(store.get("/var/log/a.log"), nullValue());
+            store.update("/var/log/a.log", "(dev=803,ino=1234)", 4096);
+            store.update("/var/log/with space=b.log", "(dev=803,ino=99)", 17);
+            store.save();
+
+            CheckpointStore loaded = new CheckpointStore(file);
+            assertThat(loaded.get("/var/log/a.log").getFileKey(), equalTo("(dev=803,ino=1234)"));
+            assertThat(loaded.get("/var/log/a.log").getOffset(), equalTo(4096L));
+            assertThat(loaded.get("/var/log/with space=b.log").getFileKey(), equalTo("(dev=803,ino=99)"));
+            assertThat(loaded.get("/var/log/with space=b.log").getOffset(), equalTo(17L));
+            assertThat(new File(dir, "checkpoints.tmp").exists(), equalTo(false));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testBadEntriesIgnored() throws IOException {
+        File dir = Files.createTempDir();
+        File file = new File(dir, "checkpoints");
+        try {
+            Files.write("/a.log=notanumber key\n/b.log=12 key\n", file, Charsets.UTF_8);
+            CheckpointStore store = new CheckpointStore(file);
+            assertThat(store.get("/a.log"), nullValue());
+            assertThat(store.get("/b.log").getOffset(), equalTo(12L));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+}
@@ -5,9 +5,17 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.collection.IsCollectionContaining.hasItem;
 import static org.junit.Assert.assertThat;
 
+import com.arpnetworking.tsdaggregator.publishing.AggServerPublisher;
+import com.arpnetworking.tsdaggregator.statistics.HistogramTP99p9;
+import com.arpnetworking.tsdaggregator.statistics.HistogramTPStatistic;
+import com.arpnetworking.tsdaggregator.statistics.SketchTPStatistic;
+import com.arpnetworking.tsdaggregator.statistics.StandardDeviationStatistic;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
 import com.arpnetworking.tsdaggregator.statistics.TP0;
 import com.arpnetworking.tsdaggregator.statistics.TP100;
+import com.arpnetworking.tsdaggregator.statistics.TP99p9;
+import com.arpnetworking.tsdaggregator.statistics.TPStatistic;
+import com.arpnetworking.tsdaggregator.statistics.VarianceStatistic;
 import com.arpnetworking.tsdaggregator.util.InitializeExceptionStatistic;
 import org.hamcrest.Matcher;
 import org.hamcrest.Matchers;
@@ -360,6 +368,56 @@ public class CommandLineParserTests {
         assertThat(stats, hasItem((Matcher)org.hamcrest.Matchers.is(TP0.class)));
     }
 
+    @Test
+    public void testOnlineStats() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "--rrd", "-s", "service", "-ts", "variance", "stddev",
+                "histogram-p99.9"};
+        Configuration config = parser.parse(args);
+        Set<Statistic> stats = config.getTimerStatistics();
+        assertThat(stats.size(), equalTo(3));
+        assertThat(stats, hasItem((Matcher)org.hamcrest.Matchers.is(VarianceStatistic.class)));
+        assertThat(stats, hasItem((Matcher)org.hamcrest.Matchers.is(StandardDeviationStatistic.class)));
+        assertThat(stats, hasItem((Matcher)org.hamcrest.Matchers.is(HistogramTP99p9.class)));
+    }
+
+    @Test
+    public void testArbitraryPercentiles() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "--rrd", "-s", "service", "-ts", "p99.95", "linear-p99.95",
+                "sketch-p99.5", "histogram-p75", "p999"};
+        Configuration config = parser.parse(args);
+        Set<Statistic> stats = config.getTimerStatistics();
+        assertThat(stats.size(), equalTo(5));
+        assertThat(stats, hasItem((Statistic) new TPStatistic(99.95d)));
+        assertThat(stats, hasItem((Statistic) new TPStatistic(99.95d, TPStatistic.Interpolation.Linear)));
+        assertThat(stats, hasItem((Statistic) new SketchTPStatistic(99.5d)));
+        assertThat(stats, hasItem((Statistic) new HistogramTPStatistic(75d)));
+        assertThat(stats, hasItem((Statistic) new TP99p9()));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testPercentileNameCollision() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "--rrd", "-s", "service", "-ts", "p99", "sketch-p99"};
+        parser.parse(args);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testApproximatePercentileNameCollision() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "--rrd", "-s", "service", "-ts", "sketch-p99",
+                "histogram-p99"};
+        parser.parse(args);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testPercentileOutOfRange() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "--rrd", "-s", "service", "-ts", "p100.5"};
+        parser.parse(args);
+    }
+
     @Test(expected = ConfigException.class)
     public void testStatInitializationProblem() throws ConfigException {
         CommandLineParser parser = new CommandLineParser(testResolver);
@@ -473,4 +531,131 @@ public class CommandLineParserTests {
         assertThat(config.shouldStartClusterAggServer(), equalTo(true));
         assertThat(config.getClusterAggServerPort(), equalTo(3321));
     }
+
+    @Test
+    public void testParserThreadsAndShards() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--parsers", "4", "--shards", "8"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getParserThreads(), equalTo(4));
+        assertThat(config.getAggregationShards(), equalTo(8));
+    }
+
+    @Test
+    public void testParserThreadsAndShardsDefault() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getParserThreads(), equalTo(1));
+        assertThat(config.getAggregationShards(), equalTo(1));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testZeroShards() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--shards", "0"};
+        parser.parse(args);
+    }
+
+    @Test
+    public void testRollUp() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--rollup"};
+        Configuration config = parser.parse(args);
+        assertThat(config.shouldRollUp(), equalTo(true));
+    }
+
+    @Test
+    public void testBackfill() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--backfill", "8"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getBackfillThreads(), equalTo(8));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testBackfillMustBePositive() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--backfill", "0"};
+        parser.parse(args);
+    }
+
+    @Test
+    public void testCheckpoint() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "-l", "--checkpoint",
+                "offsets.state"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getCheckpointFile(), equalTo("offsets.state"));
+    }
+
+    @Test
+    public void testSnapshot() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "-l", "--snapshot",
+                "open.periods", "--checkpoint", "offsets.state"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getSnapshotFile(), equalTo("open.periods"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testSnapshotRequiresCheckpoint() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "-l", "--snapshot",
+                "open.periods"};
+        parser.parse(args);
+    }
+
+    @Test
+    public void testMetricLimits() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--maxmetrics",
+                "5000", "--overflow", "aggregate", "--idleperiods", "3"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getMetricLimits().getMaxMetrics(), equalTo(5000));
+        assertThat(config.getMetricLimits().getOverflowPolicy(), equalTo(MetricLimits.OverflowPolicy.Aggregate));
+        assertThat(config.getMetricLimits().getIdlePeriods(), equalTo(3));
+    }
+
+    @Test
+    public void testMetricLimitsDefault() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getMetricLimits().getMaxMetrics(), equalTo(0));
+        assertThat(config.getMetricLimits().getIdlePeriods(), equalTo(0));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testBadOverflowPolicy() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-o", "output.file.txt", "-s", "service", "--overflow",
+                "explode"};
+        parser.parse(args);
+    }
+
+    @Test
+    public void testUpstreamSamples() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-s", "service", "--upstreamagg", "aggserver:7065",
+                "--upstreamsamples", "histogram"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getUpstreamSampleMode(), equalTo(AggServerPublisher.SampleMode.Histogram));
+    }
+
+    @Test
+    public void testUpstreamSamplesDefault() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-s", "service", "--upstreamagg", "aggserver:7065"};
+        Configuration config = parser.parse(args);
+        assertThat(config.getUpstreamSampleMode(), equalTo(AggServerPublisher.SampleMode.Each));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testBadUpstreamSamples() throws ConfigException {
+        CommandLineParser parser = new CommandLineParser(testResolver);
+        String[] args = new String[]{"-f", "somefile.log", "-s", "service", "--upstreamagg", "aggserver:7065",
+                "--upstreamsamples", "twice"};
+        parser.parse(args);
+    }
 }
@@ -0,0 +1,82 @@
+package com.arpnetworking.tsdaggregator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for the DoubleParser class
+ *
+ * @author barp
+ */
+public class DoubleParserTests {
+    @Test
+    public void testMatchesJdkOnEdgeCases() {
+        String[] texts = {"0", "-0", "+0", "0.0", "-0.0", "1", "-1", "1.", ".5", "-.5", "+.5", " 12.5 ", "007",
+                "0.1", "0.2", "0.3", "1e22", "1e23", "9007199254740993", "123456789012345", "1234567890123456",
+                "0.000000000000000000001", "1e-22", "1e-23", "4.9e-324", "1.7976931348623157e308", "1e309", "2.5E+3",
+                "2.5e-3", "1e0001", "1e00001", "0e99999", "NaN", "-Infinity", "0x1p3", "1d", "2.5f",
+                "1347527687.486", "26383.8768005", "999999999999999", "0.999999999999999", "100000000000000000000"};
+        for (String text : texts) {
+            assertSame(text, Double.parseDouble(text), DoubleParser.parse(text));
+        }
+    }
+
+    @Test
+    public void testMatchesJdkOnRandomDecimals() {
+        Random random = new Random(11);
+        for (int x = 0; x < 200000; x++) {
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                text.append('-');
+            }
+            int digits = 1 + random.nextInt(18);
+            int point = random.nextInt(digits + 1);
+            for (int d = 0; d < digits; d++) {
+                if (d == point) {
+                    text.append('.');
+                }
+                text.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                text.append('e').append(random.nextInt(60) - 30);
+            }
+            assertSame(text.toString(), Double.parseDouble(text.toString()), DoubleParser.parse(text));
+        }
+    }
+
+    @Test
+    public void testMatchesJdkOnRandomDoubles() {
+        Random random = new Random(7);
+        for (int x = 0; x < 100000; x++) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+            String text = Double.toString(value);
+            assertSame(text, value, DoubleParser.parse(text));
+        }
+    }
+
+    @Test
+    public void testParsesRange() {
+        char[] chars = "xx12.25yy".toCharArray();
+        Assert.assertEquals(12.25d, DoubleParser.parse(chars, 2, 5), 0d);
+        Assert.assertEquals(-3d, DoubleParser.parse("a=-3,b", 2, 4), 0d);
+    }
+
+    @Test
+    public void testRejectsMalformed() {
+        String[] texts = {"", " ", "-", ".", "1..2", "1e", "1e+", "abc", "1 2", "--1", "1,5"};
+        for (String text : texts) {
+            try {
+                DoubleParser.parse(text);
+                Assert.fail("expected " + text + " to be rejected");
+            } catch (NumberFormatException expected) {
+                //expected
+            }
+        }
+    }
+
+    private static void assertSame(String text, double expected, double actual) {
+        Assert.assertEquals(text, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+    }
+}
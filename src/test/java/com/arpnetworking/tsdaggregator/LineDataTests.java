@@ -813,4 +813,110 @@ public class LineDataTests {
 		Optional<LogLine> optionalLine = data.parseLogLine("{\"version\":\"86x\",\"counters\":{\"some_counter\":8},\"timers\":{\"/incentive/bestfor\":[2070]},\"annotations\":{}}");
 		assertThat(optionalLine.isPresent(), equalTo(false));
 	}
+
+	@Test
+	public void Parse2cVersionLast() {
+		QueryLogParser data = new QueryLogParser();
+		Optional<LogLine> optionalLine = data.parseLogLine("{\"counters\":{\"counter1\":[7],\"counter2\":[1]},\"timers\":{\"/incentive/bestfor\":[2070,1844]},\"annotations\":{\"initTimestamp\":\"1347527687.486\"},\"version\":\"2c\"}");
+		assertThat(optionalLine.isPresent(), equalTo(true));
+		LogLine line = optionalLine.get();
+		Map<String, CounterVariable> map = line.getVariables();
+		assertThat(map.size(), equalTo(3));
+		assertThat(map.get("/incentive/bestfor").getValueCount(), equalTo(2));
+		assertThat(map.get("/incentive/bestfor").getValue(1), equalTo(1844d));
+		assertThat(map.get("counter1").getMetricKind(), equalTo(CounterVariable.MetricKind.Counter));
+		Assert.assertEquals(new DateTime((long)(1347527687.486 * 1000d), ISOChronology.getInstanceUTC()), line.getTime());
+	}
+
+	@Test
+	public void Parse2cScalarCounter() {
+		QueryLogParser data = new QueryLogParser();
+		Optional<LogLine> optionalLine = data.parseLogLine("{\"version\":\"2c\",\"counters\":{\"counter1\":7},\"annotations\":{\"initTimestamp\":\"1347527687.486\"}}");
+		assertThat(optionalLine.isPresent(), equalTo(false));
+	}
+
+	@Test
+	public void ParseMissingVersion() {
+		QueryLogParser data = new QueryLogParser();
+		Optional<LogLine> optionalLine = data.parseLogLine("{\"counters\":{\"some_counter\":8},\"annotations\":{\"initTimestamp\":\"1347527687.486\"}}");
+		assertThat(optionalLine.isPresent(), equalTo(false));
+	}
+
+	@Test
+	public void ParseBytesMatchesString() throws Exception {
+		String[] lines = {
+				"{\"version\":\"2b\",\"counters\":{\"counter1\":7,\"counter2\":1},\"timers\":{\"/incentive/bestfor\":[2070]},\"annotations\":{\"initTimestamp\":\"1347527687.486\",\"finalTimestamp\":\"1347527687.686\"}}",
+				"{\"version\":\"2c\",\"timers\":{\"t\u00e9mps\":[1,2.5]},\"counters\":{},\"gauges\":{\"g\":[3]},\"annotations\":{\"initTimestamp\":\"1347527687.486\"}}",
+				"[initTimestamp=1300976184.02,set/view=26383.8768005,]",
+				"{\"version\":\"9z\"}"};
+		QueryLogParser data = new QueryLogParser();
+		for (String text : lines) {
+			byte[] bytes = ("xx" + text + "yy").getBytes("UTF-8");
+			Optional<LogLine> fromString = data.parseLogLine(text);
+			Optional<LogLine> fromBytes = data.parseLogLine(bytes, 2, bytes.length - 4);
+			assertThat(fromBytes.isPresent(), equalTo(fromString.isPresent()));
+			if (fromString.isPresent()) {
+				assertThat(fromBytes.get().getTime(), equalTo(fromString.get().getTime()));
+				Map<String, CounterVariable> expected = fromString.get().getVariables();
+				Map<String, CounterVariable> actual = fromBytes.get().getVariables();
+				assertThat(actual.keySet(), equalTo(expected.keySet()));
+				for (String key : expected.keySet()) {
+					assertThat(actual.get(key).getValues(), equalTo(expected.get(key).getValues()));
+					assertThat(actual.get(key).getMetricKind(), equalTo(expected.get(key).getMetricKind()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void ParsedNamesAreShared() throws Exception {
+		QueryLogParser first = new QueryLogParser();
+		QueryLogParser second = new QueryLogParser();
+		String json = "{\"version\":\"2c\",\"timers\":{\"shared/name\":[1]},\"annotations\":{\"initTimestamp\":\"1347527687.486\"}}";
+		byte[] bytes = json.getBytes("UTF-8");
+		String fromString = first.parseLogLine(json).get().getVariables().keySet().iterator().next();
+		String fromBytes = second.parseLogLine(bytes, 0, bytes.length).get().getVariables().keySet().iterator().next();
+		String legacy = null;
+		for (String key : first.parseLogLine("[initTimestamp=1300976184.02,shared/name=1,]").get().getVariables().keySet()) {
+			legacy = key;
+		}
+		Assert.assertSame(fromString, fromBytes);
+		Assert.assertSame(fromString, legacy);
+	}
+
+	@Test
+	public void ParseLegacyFieldForms() {
+		QueryLogParser data = new QueryLogParser();
+		Optional<LogLine> optionalLine = data.parseLogLine(
+				" [initTimestamp=1300976184.02, spaced = 2 ,br[ack]et=3,twice=4=5,empty==6,,op-start=0,done-start=7]");
+		assertThat(optionalLine.isPresent(), equalTo(true));
+		Map<String, CounterVariable> map = optionalLine.get().getVariables();
+		assertThat(map.size(), equalTo(4));
+		assertThat(map.get("spaced").getValue(0), equalTo(2d));
+		assertThat(map.get("bracket").getValue(0), equalTo(3d));
+		assertThat(map.get("twice").getValue(0), equalTo(4d));
+		assertThat(map.get("done").getValue(0), equalTo(7d));
+	}
+
+	@Test
+	public void ParseLegacyMissingValue() {
+		QueryLogParser data = new QueryLogParser();
+		assertThat(data.parseLogLine("[initTimestamp=1300976184.02,set/view=]").isPresent(), equalTo(false));
+		assertThat(data.parseLogLine("[initTimestamp=1300976184.02,set/view]").isPresent(), equalTo(false));
+	}
+
+	@Test
+	public void DetectsFormatFromFirstCharacter() throws Exception {
+		ParseErrors errors = new ParseErrors(ParseErrors.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+		QueryLogParser data = new QueryLogParser(errors);
+		String json = "{\"version\":\"2c\",\"timers\":{\"t\":[1]},\"annotations\":{\"initTimestamp\":\"1347527687.486\"}}";
+		assertThat(data.parseLogLine(" \t" + json).isPresent(), equalTo(true));
+		byte[] bom = ("\ufeff" + json).getBytes("UTF-8");
+		assertThat(data.parseLogLine(bom, 0, bom.length).isPresent(), equalTo(true));
+		assertThat(errors.getCount(ParseErrors.Type.LegacyLine), equalTo(0L));
+		byte[] legacy = " [initTimestamp=1300976184.02,set/view=1,]".getBytes("UTF-8");
+		assertThat(data.parseLogLine(legacy, 0, legacy.length).isPresent(), equalTo(true));
+		assertThat(data.parseLogLine("").isPresent(), equalTo(false));
+		assertThat(errors.getCount(ParseErrors.Type.LegacyLine), equalTo(2L));
+	}
 }
@@ -2,13 +2,25 @@ package com.arpnetworking.tsdaggregator;
 
 
 import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
+import com.arpnetworking.tsdaggregator.statistics.NStatistic;
 import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.SumStatistic;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.jmock.Mockery;
+import org.joda.time.DateTime;
 import org.joda.time.Period;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nonnull;
 
 /**
  * Tests for the LineProcessor class
@@ -33,4 +45,277 @@ public class LineProcessorTests {
         processor.shutdown();
     }
 
+    @Test
+    public void testInline() {
+        assertAggregatesEverything(1, 1);
+    }
+
+    @Test
+    public void testShardedPipeline() {
+        assertAggregatesEverything(4, 3);
+    }
+
+    @Test
+    public void testCloserEmitsDuePeriods() throws InterruptedException {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(new PairParser(DateTime.now()), stats, stats, stats, "host",
+                "service", Sets.newHashSet(Period.millis(200)), publisher);
+        processor.invoke("metric=1");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.getData().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        processor.shutdown();
+        Assert.assertEquals(1, publisher.getData().size());
+        Assert.assertEquals(1d, publisher.getData().get(0).getValue(), 0.0001);
+    }
+
+    @Test
+    public void testSnapshotCarriesOpenPeriodsAcrossRestart() throws IOException {
+        DateTime time = DateTime.now();
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic());
+        Set<Period> periods = Sets.newHashSet(Period.days(1));
+        File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            TSAggregationTests.RecordingPublisher before = new TSAggregationTests.RecordingPublisher();
+            LineProcessor processor = new LineProcessor(new PairParser(time), stats, stats, stats, "host", "service",
+                    periods, before);
+            processor.invoke("a=1,b=10");
+            processor.invoke("a=2");
+            processor.writeSnapshot(snapshot);
+            processor.shutdown();
+            Assert.assertTrue(before.getData().isEmpty());
+
+            TSAggregationTests.RecordingPublisher after = new TSAggregationTests.RecordingPublisher();
+            processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(time), new PairParser(time)), 2,
+                    false, stats, stats, stats, "host", "service", periods, after);
+            processor.restoreSnapshot(snapshot);
+            Assert.assertFalse(snapshot.exists());
+            processor.invoke("a=3");
+            processor.closeAggregations();
+            processor.shutdown();
+
+            Map<String, Double> sums = Maps.newHashMap();
+            Map<String, Double> counts = Maps.newHashMap();
+            for (AggregatedData data : after.getData()) {
+                (data.getStatistic() instanceof NStatistic ? counts : sums).put(data.getMetric(), data.getValue());
+            }
+            Assert.assertEquals(3d, counts.get("a"), 0.0001);
+            Assert.assertEquals(6d, sums.get("a"), 0.0001);
+            Assert.assertEquals(1d, counts.get("b"), 0.0001);
+            Assert.assertEquals(10d, sums.get("b"), 0.0001);
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void testMetricLimitDrops() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(DateTime.now())), 1,
+                false, new MetricLimits(2, MetricLimits.OverflowPolicy.Drop, 0), stats, stats, stats, "host",
+                "service", Sets.newHashSet(Period.days(1)), publisher);
+        processor.invoke("a=1,b=2");
+        processor.invoke("c=3");
+        processor.invoke("a=4,d=5");
+        processor.closeAggregations();
+        processor.shutdown();
+        Assert.assertEquals(2, processor.getMetricCount());
+        Assert.assertEquals(2, processor.getRejectedMetricCount());
+        Map<String, Double> counts = Maps.newHashMap();
+        for (AggregatedData data : publisher.getData()) {
+            counts.put(data.getMetric(), data.getValue());
+        }
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals(2d, counts.get("a"), 0.0001);
+        Assert.assertEquals(1d, counts.get("b"), 0.0001);
+    }
+
+    @Test
+    public void testMetricLimitAggregatesOverflow() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(DateTime.now())), 1,
+                false, new MetricLimits(2, MetricLimits.OverflowPolicy.Aggregate, 0), stats, stats, stats, "host",
+                "service", Sets.newHashSet(Period.days(1)), publisher);
+        processor.invoke("a=1,b=2");
+        processor.invoke("c=3");
+        processor.invoke("d=4");
+        processor.closeAggregations();
+        processor.shutdown();
+        Assert.assertEquals(2, processor.getRejectedMetricCount());
+        Map<String, Double> sums = Maps.newHashMap();
+        for (AggregatedData data : publisher.getData()) {
+            if (data.getStatistic() instanceof SumStatistic) {
+                sums.put(data.getMetric(), data.getValue());
+            }
+        }
+        Assert.assertEquals(3, sums.size());
+        Assert.assertEquals(7d, sums.get(MetricLimits.OVERFLOW_METRIC_PREFIX + "counter"), 0.0001);
+    }
+
+    @Test
+    public void testOverflowPrefixDoesNotBypassLimit() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(DateTime.now())), 1,
+                false, new MetricLimits(1, MetricLimits.OverflowPolicy.Drop, 0), stats, stats, stats, "host",
+                "service", Sets.newHashSet(Period.days(1)), publisher);
+        processor.invoke("a=1");
+        processor.invoke(MetricLimits.OVERFLOW_METRIC_PREFIX + "b=2," + MetricLimits.OVERFLOW_METRIC_PREFIX + "c=3");
+        processor.closeAggregations();
+        processor.shutdown();
+        Assert.assertEquals(1, processor.getMetricCount());
+        Assert.assertEquals(2, processor.getRejectedMetricCount());
+        Assert.assertEquals(1, publisher.getData().size());
+        Assert.assertEquals("a", publisher.getData().get(0).getMetric());
+    }
+
+    @Test
+    public void testSnapshotRestoreRespectsLimit() throws IOException {
+        DateTime time = DateTime.now();
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        Set<Period> periods = Sets.newHashSet(Period.days(1));
+        File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            LineProcessor processor = new LineProcessor(new PairParser(time), stats, stats, stats, "host", "service",
+                    periods, new TSAggregationTests.RecordingPublisher());
+            processor.invoke("a=1,b=2,c=3");
+            processor.writeSnapshot(snapshot);
+            processor.shutdown();
+
+            TSAggregationTests.RecordingPublisher after = new TSAggregationTests.RecordingPublisher();
+            processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(time), new PairParser(time)), 2,
+                    false, new MetricLimits(2, MetricLimits.OverflowPolicy.Drop, 0), stats, stats, stats, "host",
+                    "service", periods, after);
+            processor.restoreSnapshot(snapshot);
+            Assert.assertEquals(2, processor.getMetricCount());
+            processor.closeAggregations();
+            processor.shutdown();
+            Assert.assertEquals(2, after.getData().size());
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void testShardOverflowMetricsRestoredToTheirShard() throws IOException {
+        DateTime time = DateTime.now();
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new SumStatistic());
+        Set<Period> periods = Sets.newHashSet(Period.days(1));
+        MetricLimits limits = new MetricLimits(2, MetricLimits.OverflowPolicy.Aggregate, 0);
+        File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            LineProcessor processor = new LineProcessor(
+                    Lists.<LogParser>newArrayList(new PairParser(time), new PairParser(time)), 2, false, limits, stats,
+                    stats, stats, "host", "service", periods, new TSAggregationTests.RecordingPublisher());
+            double total = 0;
+            for (int x = 0; x < 20; x++) {
+                processor.invoke("m" + x + "=" + (x + 1));
+                total += x + 1;
+            }
+            processor.writeSnapshot(snapshot);
+            processor.shutdown();
+
+            TSAggregationTests.RecordingPublisher after = new TSAggregationTests.RecordingPublisher();
+            processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(time), new PairParser(time)), 2,
+                    false, limits, stats, stats, stats, "host", "service", periods, after);
+            processor.restoreSnapshot(snapshot);
+            for (int x = 20; x < 40; x++) {
+                processor.invoke("m" + x + "=" + (x + 1));
+                total += x + 1;
+            }
+            processor.closeAggregations();
+            processor.shutdown();
+
+            //two metrics and the overflow metric of each shard, each published once
+            Assert.assertEquals(4, processor.getMetricCount());
+            Set<String> published = Sets.newHashSet();
+            double sum = 0;
+            for (AggregatedData data : after.getData()) {
+                Assert.assertTrue(data.getMetric(), published.add(data.getMetric()));
+                sum += data.getValue();
+            }
+            Assert.assertTrue(published.contains(MetricLimits.OVERFLOW_METRIC_PREFIX + "counter.0"));
+            Assert.assertTrue(published.contains(MetricLimits.OVERFLOW_METRIC_PREFIX + "counter.1"));
+            Assert.assertEquals(total, sum, 0.0001);
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void testIdleMetricsEvicted() throws InterruptedException {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic());
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(Lists.<LogParser>newArrayList(new PairParser(DateTime.now())), 1,
+                false, new MetricLimits(0, MetricLimits.OverflowPolicy.Drop, 2), stats, stats, stats, "host",
+                "service", Sets.newHashSet(Period.millis(200)), publisher);
+        processor.invoke("idle=1,busy=1");
+        Assert.assertEquals(2, processor.getMetricCount());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (processor.getMetricCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            processor.invoke("busy=1");
+        }
+        processor.shutdown();
+        Assert.assertEquals(1, processor.getMetricCount());
+    }
+
+    private void assertAggregatesEverything(int parserCount, int shards) {
+        DateTime time = DateTime.now();
+        List<LogParser> parsers = Lists.newArrayList();
+        for (int x = 0; x < parserCount; x++) {
+            parsers.add(new PairParser(time));
+        }
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic());
+        Set<Period> periods = Sets.newHashSet(Period.days(1));
+        TSAggregationTests.RecordingPublisher publisher = new TSAggregationTests.RecordingPublisher();
+        LineProcessor processor = new LineProcessor(parsers, shards, false, stats, stats, stats, "host", "service",
+                periods, publisher);
+        for (int x = 0; x < 10000; x++) {
+            processor.invoke("metric" + (x % 50) + "=1,total=" + x);
+        }
+        processor.closeAggregations();
+        processor.shutdown();
+
+        Map<String, Double> counts = Maps.newHashMap();
+        Map<String, Double> sums = Maps.newHashMap();
+        for (AggregatedData data : publisher.getData()) {
+            Map<String, Double> target = data.getStatistic() instanceof NStatistic ? counts : sums;
+            Double current = target.get(data.getMetric());
+            target.put(data.getMetric(), (current == null ? 0d : current) + data.getValue());
+        }
+        Assert.assertEquals(51, counts.size());
+        for (int x = 0; x < 50; x++) {
+            Assert.assertEquals(200d, counts.get("metric" + x), 0.0001);
+        }
+        Assert.assertEquals(10000d, counts.get("total"), 0.0001);
+        Assert.assertEquals(49995000d, sums.get("total"), 0.0001);
+    }
+
+    /**
+     * Parses lines of comma separated name=value pairs, all at the same time.
+     */
+    private static class PairParser implements LogParser {
+        private final DateTime _time;
+
+        public PairParser(DateTime time) {
+            _time = time;
+        }
+
+        @Nonnull
+        @Override
+        public Optional<LogLine> parseLogLine(String line) {
+            Map<String, CounterVariable> variables = Maps.newHashMap();
+            for (String pair : line.split(",")) {
+                String[] split = pair.split("=");
+                variables.put(split[0], new CounterVariable(CounterVariable.MetricKind.Counter,
+                        new double[]{Double.parseDouble(split[1])}));
+            }
+            return Optional.<LogLine>of(new StandardLogLine(variables, _time));
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * Tests for the MappedLineReader class
+ *
+ * @author barp
+ */
+public class MappedLineReaderTests {
+    @Test
+    public void testLinesAcrossWindows() throws IOException {
+        StringBuilder contents = new StringBuilder();
+        List<String> expected = Lists.newArrayList();
+        for (int x = 0; x < 200; x++) {
+            String line = "line " + x + " " + repeat('\u00e9', x % 37);
+            expected.add(line);
+            contents.append(line).append(x % 3 == 0 ? "\r\n" : "\n");
+            if (x % 50 == 0) {
+                contents.append("\n");
+            }
+        }
+        contents.append("last line without newline");
+        expected.add("last line without newline");
+
+        for (int window : new int[]{7, 64, 1000, MappedLineReader.DEFAULT_WINDOW_SIZE}) {
+            assertThat("window " + window, readLines(contents.toString(), 0, window), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void testStartPosition() throws IOException {
+        assertThat(readLines("abc\ndef\n", 4, 16), equalTo((List<String>) Lists.newArrayList("def")));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        assertThat(readLines("", 0, 16).isEmpty(), equalTo(true));
+    }
+
+    private static List<String> readLines(String contents, long start, int window) throws IOException {
+        File file = File.createTempFile("mapped", ".log");
+        try {
+            Files.write(contents, file, Charsets.UTF_8);
+            final List<String> lines = Lists.newArrayList();
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                new MappedLineReader(raf.getChannel(), window).read(start, new MappedLineReader.LineHandler() {
+                    @Override
+                    public void handle(@Nonnull byte[] line, int offset, int length) {
+                        lines.add(new String(line, offset, length, Charsets.UTF_8));
+                    }
+                });
+            } finally {
+                raf.close();
+            }
+            return lines;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int x = 0; x < count; x++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
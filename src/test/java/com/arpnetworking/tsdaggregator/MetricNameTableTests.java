@@ -0,0 +1,38 @@
+package com.arpnetworking.tsdaggregator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the MetricNameTable class
+ *
+ * @author barp
+ */
+public class MetricNameTableTests {
+    @Test
+    public void testReturnsCanonicalInstance() {
+        MetricNameTable table = new MetricNameTable();
+        String first = new String("metric/name");
+        String second = new String("metric/name");
+        Assert.assertSame(first, table.intern(first));
+        Assert.assertSame(first, table.intern(second));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testFullTablePassesNamesThrough() {
+        MetricNameTable table = new MetricNameTable(2);
+        String a = table.intern("a");
+        table.intern("b");
+        String c = new String("c");
+        Assert.assertSame(c, table.intern(c));
+        Assert.assertNotSame(c, table.intern(new String("c")));
+        Assert.assertSame(a, table.intern(new String("a")));
+        Assert.assertEquals(2, table.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() {
+        new MetricNameTable(0);
+    }
+}
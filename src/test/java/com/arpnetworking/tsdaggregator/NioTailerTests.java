@@ -0,0 +1,147 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+
+/**
+ * Tests for the NioTailer class
+ *
+ * @author barp
+ */
+public class NioTailerTests {
+    private File _dir;
+    private File _file;
+    private NioTailer _tailer;
+    private final BlockingQueue<String> _lines = new LinkedBlockingQueue<String>();
+
+    @Before
+    public void setUp() throws IOException {
+        _dir = Files.createTempDir();
+        _file = new File(_dir, "test.log");
+        Files.write("first\r\n\nsecond\n", _file, Charsets.UTF_8);
+        _tailer = NioTailer.start(_file.toPath(), collector());
+    }
+
+    @After
+    public void tearDown() {
+        _tailer.stop();
+        for (File file : _dir.listFiles()) {
+            file.delete();
+        }
+        _dir.delete();
+    }
+
+    @Test
+    public void testFollowsAppends() throws Exception {
+        assertThat(next(), equalTo("first"));
+        assertThat(next(), equalTo("second"));
+        append(_file, "thi");
+        append(_file, "rd\n");
+        assertThat(next(), equalTo("third"));
+    }
+
+    @Test
+    public void testTruncation() throws Exception {
+        assertThat(next(), equalTo("first"));
+        assertThat(next(), equalTo("second"));
+        Files.write("new\n", _file, Charsets.UTF_8);
+        assertThat(next(), equalTo("new"));
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        assertThat(next(), equalTo("first"));
+        assertThat(next(), equalTo("second"));
+        append(_file, "last");
+        File rotated = new File(_dir, "test.log.1");
+        assertThat(_file.renameTo(rotated), equalTo(true));
+        Files.write("after rotation, and a longer line\n", _file, Charsets.UTF_8);
+        assertThat(next(), equalTo("last"));
+        assertThat(next(), equalTo("after rotation, and a longer line"));
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        assertThat(next(), equalTo("first"));
+        assertThat(next(), equalTo("second"));
+        _tailer.stop();
+        File state = new File(_dir, "checkpoints");
+        CheckpointStore checkpoints = new CheckpointStore(state);
+        NioTailer tailer = NioTailer.start(_file.toPath(), collector(), checkpoints);
+        try {
+            assertThat(next(), equalTo("first"));
+            assertThat(next(), equalTo("second"));
+            append(_file, "unterminated");
+            awaitOffset(checkpoints, _file.length() - "unterminated".length());
+        } finally {
+            tailer.stop();
+        }
+        checkpoints.save();
+
+        append(_file, " line\nfourth\n");
+        tailer = NioTailer.start(_file.toPath(), collector(), new CheckpointStore(state));
+        try {
+            assertThat(next(), equalTo("unterminated line"));
+            assertThat(next(), equalTo("fourth"));
+        } finally {
+            tailer.stop();
+        }
+    }
+
+    private void awaitOffset(CheckpointStore checkpoints, long offset) throws InterruptedException {
+        String path = _file.toPath().toAbsolutePath().toString();
+        for (int x = 0; x < 1000; x++) {
+            CheckpointStore.Checkpoint checkpoint = checkpoints.get(path);
+            if (checkpoint != null && checkpoint.getOffset() == offset) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("checkpoint not recorded");
+    }
+
+    private LineSink collector() {
+        return new LineSink() {
+            @Override
+            public void invoke(String line) {
+                _lines.add(line);
+            }
+
+            @Override
+            public void invoke(@Nonnull byte[] line, int offset, int length) {
+                _lines.add(new String(line, offset, length, Charsets.UTF_8));
+            }
+        };
+    }
+
+    private String next() throws InterruptedException {
+        String line = _lines.poll(10, TimeUnit.SECONDS);
+        if (line == null) {
+            throw new AssertionError("no line read");
+        }
+        return line;
+    }
+
+    private static void append(File file, String text) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file, true);
+        try {
+            stream.write(text.getBytes(Charsets.UTF_8));
+        } finally {
+            stream.close();
+        }
+    }
+}
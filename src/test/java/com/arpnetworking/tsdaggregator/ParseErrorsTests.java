@@ -0,0 +1,74 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Tests for the ParseErrors class
+ *
+ * @author barp
+ */
+public class ParseErrorsTests {
+    @Test
+    public void testCountsEveryProblemAndKeepsOneExamplePerInterval() {
+        ParseErrors errors = new ParseErrors(ParseErrors.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+        errors.record(ParseErrors.Type.BadValue, "not a number", "first", null);
+        errors.record(ParseErrors.Type.BadValue, "not a number", "second", null);
+        errors.record(ParseErrors.Type.UnparsableLine, "discarded", "line", new ParseException("bad"));
+        assertThat(errors.getCount(ParseErrors.Type.BadValue), equalTo(2L));
+        assertThat(errors.getCount(ParseErrors.Type.UnparsableLine), equalTo(1L));
+        assertThat(errors.getCount(ParseErrors.Type.LegacyLine), equalTo(0L));
+        assertThat(errors.getExample(ParseErrors.Type.BadValue), equalTo("not a number: first"));
+        assertThat(errors.getExample(ParseErrors.Type.LegacyLine), nullValue());
+        assertThat(errors.getCounts().get("BadValue"), equalTo(2L));
+        assertThat(errors.getExamples().size(), equalTo(2));
+    }
+
+    @Test
+    public void testTakesNewExampleAfterInterval() throws InterruptedException {
+        ParseErrors errors = new ParseErrors(20);
+        errors.record(ParseErrors.Type.BadValue, "not a number", "first", null);
+        Thread.sleep(50);
+        errors.record(ParseErrors.Type.BadValue, "not a number", "second", null);
+        assertThat(errors.getExample(ParseErrors.Type.BadValue), equalTo("not a number: second"));
+    }
+
+    @Test
+    public void testParserReportsProblems() {
+        ParseErrors errors = new ParseErrors(ParseErrors.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+        QueryLogParser parser = new QueryLogParser(errors);
+        parser.parseLogLine("{\"version\":\"9z\"}");
+        parser.parseLogLine("[initTimestamp=1300976184.02,set/view=2q,]");
+        parser.parseLogLine("[set/view=2,]");
+        assertThat(errors.getCount(ParseErrors.Type.UnknownVersion), equalTo(1L));
+        assertThat(errors.getCount(ParseErrors.Type.LegacyLine), equalTo(2L));
+        assertThat(errors.getCount(ParseErrors.Type.BadValue), equalTo(1L));
+        assertThat(errors.getCount(ParseErrors.Type.UnparsableLine), equalTo(1L));
+    }
+
+    @Test
+    public void testStatsBeanExposesCounts() throws Exception {
+        ParseErrors errors = new ParseErrors(ParseErrors.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+        errors.record(ParseErrors.Type.BadTimestamp, "bad", "x", null);
+        new AggregatorStats(errors, null).register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(AggregatorStats.OBJECT_NAME);
+        try {
+            TabularData counts = (TabularData) server.getAttribute(name, "ParseErrorCounts");
+            CompositeData row = counts.get(new Object[]{"BadTimestamp"});
+            assertThat((Long) row.get("value"), equalTo(1L));
+            assertThat((Integer) server.getAttribute(name, "MetricCount"), equalTo(0));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -75,4 +75,31 @@ public class TPStatisticTests {
 		Double tpstat = tp.calculate(vals);
 		Assert.assertThat(tpstat, CoreMatchers.is(9990d));		
 	}
+
+	@Test
+	public void TestLinearInterpolation() {
+		TPStatistic tp = new TPStatistic(90d, TPStatistic.Interpolation.Linear);
+		double[] vals = new double[] {10d, 20d, 30d, 40d, 50d, 60d};
+		
+		Assert.assertThat(tp.getLowerRank(vals.length), CoreMatchers.is(4));
+		Assert.assertThat(tp.getRank(vals.length), CoreMatchers.is(5));
+		Assert.assertThat(tp.calculate(vals, vals.length), CoreMatchers.is(55d));
+		Assert.assertThat(tp.calculate(new Double[] {10d, 20d, 30d, 40d, 50d, 60d}), CoreMatchers.is(55d));
+		Assert.assertThat(tp.calculate(new double[] {7d, 7d, 7d, 7d, 7d, 7d}, 6), CoreMatchers.is(7d));
+	}
+	
+	@Test
+	public void TestArbitraryRankNames() {
+		Assert.assertThat(new TPStatistic(99.95d).getName(), CoreMatchers.is("tp99.95"));
+		Assert.assertThat(new TPStatistic(99.9d).getName(), CoreMatchers.is("tp99.9"));
+		Assert.assertThat(new TPStatistic(50d, TPStatistic.Interpolation.Linear).getName(),
+				CoreMatchers.is("tp50_linear"));
+		Assert.assertThat(new TPStatistic(50d).equals(new TPStatistic(50d, TPStatistic.Interpolation.Linear)),
+				CoreMatchers.is(false));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void TestRankOutOfRange() {
+		new TPStatistic(100.5d);
+	}
 }
@@ -1,16 +1,34 @@
 package com.arpnetworking.tsdaggregator;
 
+import com.arpnetworking.tsdaggregator.publishing.AggregationPublisher;
 import com.arpnetworking.tsdaggregator.publishing.ConsolePublisher;
-import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.*;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RunWith(JMock.class)
 public class TSAggregationTests {
@@ -24,6 +42,331 @@ public class TSAggregationTests {
 		TSAggregation agg = new TSAggregation("test metric", period, new ConsolePublisher(), "testHost", "testService", stats);
 		Assert.assertNotNull(agg);
 	}
+
+	@Test
+	public void testEmitOnRotate() {
+		Period period = Period.minutes(5);
+		Set<Statistic> stats = Sets.<Statistic>newHashSet(new TP0(), new TP50(), new TP100(), new MeanStatistic(),
+				new NStatistic(), new SumStatistic(), new FirstStatistic(), new LastStatistic());
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation agg = new TSAggregation("foometric", period, publisher, "testHost", "testService", stats);
+		agg.addSample(3d, new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		agg.addSample(1d, new DateTime(2011, 1, 3, 15, 23, 39, 181, DateTimeZone.UTC));
+		agg.addSample(5d, new DateTime(2011, 1, 3, 15, 23, 40, 181, DateTimeZone.UTC));
+		agg.addSample(4d, new DateTime(2011, 1, 3, 15, 23, 41, 181, DateTimeZone.UTC));
+		agg.addSample(2d, new DateTime(2011, 1, 3, 15, 23, 42, 181, DateTimeZone.UTC));
+		Assert.assertTrue(publisher.getData().isEmpty());
+
+		agg.addSample(2d, new DateTime(2011, 1, 3, 15, 26, 38, 181, DateTimeZone.UTC));
+		Assert.assertTrue(publisher.getData().isEmpty());
+		agg.emitRetired();
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(8, emitted.size());
+		Assert.assertEquals(1d, emitted.get("min").getValue(), 0.0001);
+		Assert.assertEquals(3d, emitted.get("tp50").getValue(), 0.0001);
+		Assert.assertEquals(5d, emitted.get("max").getValue(), 0.0001);
+		Assert.assertEquals(3d, emitted.get("mean").getValue(), 0.0001);
+		Assert.assertEquals(5d, emitted.get("n").getValue(), 0.0001);
+		Assert.assertEquals(15d, emitted.get("sum").getValue(), 0.0001);
+		Assert.assertEquals(3d, emitted.get("first").getValue(), 0.0001);
+		Assert.assertEquals(2d, emitted.get("last").getValue(), 0.0001);
+		Assert.assertEquals(new DateTime(2011, 1, 3, 15, 20, 0, 0, DateTimeZone.UTC),
+				emitted.get("n").getPeriodStart());
+		Assert.assertEquals(5, emitted.get("n").getSamples().size());
+
+		publisher.getData().clear();
+		agg.close();
+		emitted = publisher.byStatistic();
+		Assert.assertEquals(1d, emitted.get("n").getValue(), 0.0001);
+		Assert.assertEquals(new DateTime(2011, 1, 3, 15, 25, 0, 0, DateTimeZone.UTC),
+				emitted.get("n").getPeriodStart());
+	}
+
+	@Test
+	public void testEmitsNothingWithoutSamples() {
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation agg = new TSAggregation("foometric", Period.minutes(1), publisher, "testHost", "testService",
+				Sets.<Statistic>newHashSet(new NStatistic()));
+		agg.close();
+		Assert.assertTrue(publisher.getData().isEmpty());
+	}
+
+	@Test
+	public void testSketchSnapshotRestore() throws IOException {
+		Set<Statistic> stats = Sets.<Statistic>newHashSet(new SketchTP50(), new NStatistic(), new TP100());
+		TSAggregation before = new TSAggregation("foometric", Period.minutes(5), new RecordingPublisher(), "testHost",
+				"testService", stats);
+		for (int x = 1; x <= 500; x++) {
+			before.addSample(x, new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		before.writeSnapshot(new DataOutputStream(bytes));
+
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation after = new TSAggregation("foometric", Period.minutes(5), publisher, "testHost", "testService",
+				stats);
+		after.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		for (int x = 501; x <= 1000; x++) {
+			after.addSample(x, new DateTime(2011, 1, 3, 15, 24, 38, 181, DateTimeZone.UTC));
+		}
+		after.close();
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(1000d, emitted.get("n").getValue(), 0.0001);
+		Assert.assertEquals(1000d, emitted.get("max").getValue(), 0.0001);
+		Assert.assertEquals(500d, emitted.get("tp50").getValue(), 5d);
+		Assert.assertEquals(new DateTime(2011, 1, 3, 15, 20, 0, 0, DateTimeZone.UTC),
+				emitted.get("n").getPeriodStart());
+	}
+
+	@Test
+	public void testAccumulatedAggregationKeepsNoSamples() throws IOException {
+		Set<Statistic> stats = Sets.<Statistic>newHashSet(new SumOfSquares(), new NStatistic(), new FirstStatistic());
+		TSAggregation before = new TSAggregation("foometric", Period.minutes(5), new RecordingPublisher(), "testHost",
+				"testService", stats);
+		for (int x = 1; x <= 3; x++) {
+			before.addSample(x, new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		before.writeSnapshot(new DataOutputStream(bytes));
+
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation after = new TSAggregation("foometric", Period.minutes(5), publisher, "testHost", "testService",
+				stats);
+		RecordingPublisher rollupPublisher = new RecordingPublisher();
+		TSAggregation rollup = new TSAggregation("foometric", Period.hours(1), rollupPublisher, "testHost",
+				"testService", stats);
+		after.addRollup(rollup);
+		after.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		after.addSample(4d, new DateTime(2011, 1, 3, 15, 24, 38, 181, DateTimeZone.UTC));
+		after.addSample(5d, new DateTime(2011, 1, 3, 15, 26, 38, 181, DateTimeZone.UTC));
+		after.close();
+		rollup.close();
+
+		Assert.assertEquals(2, publisher.getData().size() / stats.size());
+		for (AggregatedData data : publisher.getData()) {
+			Assert.assertTrue(data.getSamples().isEmpty());
+		}
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(25d, emitted.get("sum_of_squares").getValue(), 0.0001);
+		Assert.assertEquals(1, emitted.get("sum_of_squares").getSampleCount());
+		Map<String, AggregatedData> rolledUp = rollupPublisher.byStatistic();
+		Assert.assertEquals(55d, rolledUp.get("sum_of_squares").getValue(), 0.0001);
+		Assert.assertEquals(5d, rolledUp.get("n").getValue(), 0.0001);
+		Assert.assertEquals(1d, rolledUp.get("first").getValue(), 0.0001);
+	}
+
+	@Test
+	public void testInterpolatedPercentilesFromSelectedSamples() {
+		TPStatistic linear = new TPStatistic(99.95d, TPStatistic.Interpolation.Linear);
+		TPStatistic nearest = new TPStatistic(99.95d);
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation agg = new TSAggregation("foometric", Period.minutes(5), publisher, "testHost", "testService",
+				Sets.<Statistic>newHashSet(linear, nearest, new TP50()));
+		Random random = new Random(1234);
+		double[] values = new double[3001];
+		for (int x = 0; x < values.length; x++) {
+			values[x] = random.nextInt(100000);
+			agg.addSample(values[x], new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		}
+		agg.close();
+		Arrays.sort(values);
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(linear.calculate(values, values.length), emitted.get("tp99.95_linear").getValue(), 0d);
+		Assert.assertEquals(nearest.calculate(values, values.length), emitted.get("tp99.95").getValue(), 0d);
+		Assert.assertEquals(values[1500], emitted.get("tp50").getValue(), 0d);
+	}
+
+	@Test
+	public void testSketchOnlyAggregation() {
+		Set<Statistic> stats = Sets.<Statistic>newHashSet(new SketchTP50(), new SketchTP99(), new NStatistic(),
+				new TP100());
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation agg = new TSAggregation("foometric", Period.minutes(5), publisher, "testHost", "testService", stats);
+		for (int x = 1; x <= 1000; x++) {
+			agg.addSample(x, new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		}
+		agg.close();
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(4, emitted.size());
+		Assert.assertEquals(1000d, emitted.get("n").getValue(), 0.0001);
+		Assert.assertEquals(1000d, emitted.get("max").getValue(), 0.0001);
+		Assert.assertEquals(500d, emitted.get("tp50").getValue(), 5d);
+		Assert.assertEquals(991d, emitted.get("tp99").getValue(), 9.91d);
+		Assert.assertTrue(emitted.get("n").getSamples().isEmpty());
+		Assert.assertEquals(1000, emitted.get("n").getSampleCount());
+		List<Double> valueCounts = emitted.get("tp50").getValueCounts();
+		double count = 0;
+		for (int x = 1; x < valueCounts.size(); x += 2) {
+			count += valueCounts.get(x);
+		}
+		Assert.assertEquals(1000d, count, 0.0001);
+	}
+
+	@Test
+	public void testSketchStatisticExactWithSamples() {
+		Set<Statistic> stats = Sets.<Statistic>newHashSet(new SketchTP50(), new FirstStatistic());
+		RecordingPublisher publisher = new RecordingPublisher();
+		TSAggregation agg = new TSAggregation("foometric", Period.minutes(5), publisher, "testHost", "testService", stats);
+		for (int x = 1; x <= 1000; x++) {
+			agg.addSample(x, new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC));
+		}
+		agg.close();
+		Map<String, AggregatedData> emitted = publisher.byStatistic();
+		Assert.assertEquals(501d, emitted.get("tp50").getValue(), 0.0001);
+		Assert.assertEquals(1000, emitted.get("tp50").getSamples().size());
+	}
+
+	@Test
+	public void testConcurrentRotationKeepsAllSamples() throws InterruptedException {
+		RecordingPublisher publisher = new RecordingPublisher();
+		final TSAggregation agg = new TSAggregation("foometric", Period.millis(200), publisher, "testHost",
+				"testService", Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic()));
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					agg.checkRotate(0d);
+				}
+			}
+		});
+		closer.start();
+		long end = System.currentTimeMillis() + 1000;
+		long added = 0;
+		while (System.currentTimeMillis() < end) {
+			agg.addSample(1d, DateTime.now());
+			added++;
+		}
+		done.set(true);
+		closer.join();
+		agg.close();
+
+		double count = 0;
+		double sum = 0;
+		for (AggregatedData data : publisher.getData()) {
+			if (data.getStatistic() instanceof NStatistic) {
+				count += data.getValue();
+			} else {
+				sum += data.getValue();
+			}
+		}
+		Assert.assertEquals((double) added, count, 0.0001);
+		Assert.assertEquals((double) added, sum, 0.0001);
+	}
+
+	@Test
+	public void testPeriodAlignment() {
+		Random random = new Random(8675309);
+		Period[] periods = {Period.seconds(7), Period.minutes(1), Period.minutes(5), Period.minutes(7), Period.hours(1),
+				Period.days(1), Period.months(1)};
+		DateTimeZone[] zones = {DateTimeZone.UTC, DateTimeZone.forID("America/Los_Angeles"),
+				DateTimeZone.forID("Asia/Kolkata"), DateTimeZone.forID("Australia/Eucla")};
+		for (int x = 0; x < 500; x++) {
+			Period period = periods[x % periods.length];
+			DateTime time = new DateTime(1300000000000L + (long) (random.nextDouble() * 1e11), zones[x % zones.length]);
+			RecordingPublisher publisher = new RecordingPublisher();
+			TSAggregation agg = new TSAggregation("foometric", period, publisher, "testHost", "testService",
+					Sets.<Statistic>newHashSet(new NStatistic()));
+			agg.addSample(1d, time);
+			agg.close();
+			Assert.assertEquals(period + " " + time, alignByStepping(time, period),
+					publisher.getData().get(0).getPeriodStart());
+		}
+	}
+
+	private static DateTime alignByStepping(DateTime time, Period period) {
+		DateTime startPeriod = time.hourOfDay().roundFloorCopy();
+		while (!(startPeriod.isBefore(time) && startPeriod.plus(period).isAfter(time)) && (!startPeriod.equals(time))) {
+			startPeriod = startPeriod.plus(period);
+		}
+		return startPeriod;
+	}
+
+	/**
+	 * Sum of the squares of the samples, calculated incrementally.
+	 */
+	static class SumOfSquares implements AccumulatorStatistic {
+		@Override
+		public Accumulator createAccumulator() {
+			return new Accumulator() {
+				private double _sum = 0;
+
+				@Override
+				public void accept(double value) {
+					_sum += value * value;
+				}
+
+				@Override
+				public void merge(Accumulator other) {
+					_sum += other.result();
+				}
+
+				@Override
+				public double result() {
+					return _sum;
+				}
+
+				@Override
+				public void clear() {
+					_sum = 0;
+				}
+
+				@Override
+				public void writeTo(DataOutput out) throws IOException {
+					out.writeDouble(_sum);
+				}
+
+				@Override
+				public void readFrom(DataInput in) throws IOException {
+					_sum = in.readDouble();
+				}
+			};
+		}
+
+		@Override
+		public Double calculate(Double[] unorderedValues) {
+			double sum = 0;
+			for (Double value : unorderedValues) {
+				sum += value * value;
+			}
+			return sum;
+		}
+
+		@Override
+		public String getName() {
+			return "sum_of_squares";
+		}
+	}
+
+	/**
+	 * Publisher that keeps everything it is handed.
+	 */
+	static class RecordingPublisher implements AggregationPublisher {
+		private final List<AggregatedData> _data = Collections.synchronizedList(Lists.<AggregatedData>newArrayList());
+
+		@Override
+		public void recordAggregation(AggregatedData[] data) {
+			Collections.addAll(_data, data);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		public List<AggregatedData> getData() {
+			return _data;
+		}
+
+		public Map<String, AggregatedData> byStatistic() {
+			Map<String, AggregatedData> result = Maps.newHashMap();
+			synchronized (_data) {
+				for (AggregatedData data : _data) {
+					result.put(data.getStatistic().getName(), data);
+				}
+			}
+			return result;
+		}
+	}
 	
 //	@Test
 //	public void TestSimpleAggregation() {
@@ -0,0 +1,103 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.arpnetworking.tsdaggregator.statistics.FirstStatistic;
+import com.arpnetworking.tsdaggregator.statistics.LastStatistic;
+import com.arpnetworking.tsdaggregator.statistics.NStatistic;
+import com.arpnetworking.tsdaggregator.statistics.SketchTP99;
+import com.arpnetworking.tsdaggregator.statistics.Statistic;
+import com.arpnetworking.tsdaggregator.statistics.SumStatistic;
+import com.arpnetworking.tsdaggregator.statistics.TP0;
+import com.arpnetworking.tsdaggregator.statistics.TP100;
+import com.arpnetworking.tsdaggregator.statistics.TP50;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for the TSData class
+ *
+ * @author barp
+ */
+public class TSDataTests {
+    private static final TSAggregation.RotationListener NO_LISTENER = new TSAggregation.RotationListener() {
+        @Override
+        public void rotated(TSAggregation aggregation) {
+        }
+    };
+
+    @Test
+    public void testPlanRollups() {
+        Set<Period> periods = Sets.newHashSet(Period.minutes(1), Period.minutes(5), Period.minutes(7), Period.hours(1),
+                Period.hours(2), Period.months(1));
+        Map<Period, Period> plan = TSData.planRollups(periods);
+        assertThat(plan.get(Period.minutes(5)), equalTo(Period.minutes(1)));
+        assertThat(plan.get(Period.minutes(7)), equalTo(Period.minutes(1)));
+        assertThat(plan.get(Period.hours(1)), equalTo(Period.minutes(5)));
+        assertThat(plan.get(Period.hours(2)), equalTo(Period.hours(1)));
+        assertThat(plan.containsKey(Period.minutes(1)), equalTo(false));
+        assertThat(plan.containsKey(Period.months(1)), equalTo(false));
+    }
+
+    @Test
+    public void testRollupMatchesDirectAggregation() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic(), new TP0(), new TP50(),
+                new TP100(), new FirstStatistic(), new LastStatistic());
+        assertRollupMatches(stats);
+    }
+
+    @Test
+    public void testSketchRollupMatchesDirectAggregation() {
+        Set<Statistic> stats = Sets.<Statistic>newHashSet(new NStatistic(), new SumStatistic(), new SketchTP99());
+        assertRollupMatches(stats);
+    }
+
+    private void assertRollupMatches(Set<Statistic> stats) {
+        Set<Period> periods = Sets.newHashSet(Period.minutes(1), Period.minutes(5), Period.hours(1));
+        TSAggregationTests.RecordingPublisher direct = new TSAggregationTests.RecordingPublisher();
+        TSAggregationTests.RecordingPublisher rolled = new TSAggregationTests.RecordingPublisher();
+        TSData directData = new TSData("metric", periods, direct, "host", "service", stats, NO_LISTENER, false);
+        TSData rolledData = new TSData("metric", periods, rolled, "host", "service", stats, NO_LISTENER, true);
+
+        Random random = new Random(8675309);
+        DateTime time = new DateTime(2011, 1, 3, 15, 23, 38, 181, DateTimeZone.UTC);
+        for (int x = 0; x < 20000; x++) {
+            time = time.plusMillis(random.nextInt(800));
+            CounterVariable variable = new CounterVariable(CounterVariable.MetricKind.Timer,
+                    new double[]{random.nextInt(1000), random.nextDouble() * 100});
+            directData.addMetric(variable, time);
+            rolledData.addMetric(variable, time);
+        }
+        directData.close();
+        rolledData.close();
+
+        Map<String, Double> expected = byKey(direct);
+        Map<String, Double> actual = byKey(rolled);
+        assertThat(actual.keySet(), equalTo(expected.keySet()));
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            //sums can differ in the last bits from adding in a different order
+            assertThat(entry.getKey(), actual.get(entry.getKey()),
+                    closeTo(entry.getValue(), Math.abs(entry.getValue()) * 1e-12));
+        }
+        assertThat(expected.size() > 3 * stats.size(), equalTo(true));
+    }
+
+    private static Map<String, Double> byKey(TSAggregationTests.RecordingPublisher publisher) {
+        Map<String, Double> values = Maps.newHashMap();
+        for (AggregatedData data : publisher.getData()) {
+            values.put(data.getPeriod() + " " + data.getPeriodStart() + " " + data.getStatistic().getName(),
+                    data.getValue());
+        }
+        return values;
+    }
+}
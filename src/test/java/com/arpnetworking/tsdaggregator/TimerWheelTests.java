@@ -0,0 +1,92 @@
+package com.arpnetworking.tsdaggregator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the TimerWheel class
+ *
+ * @author barp
+ */
+public class TimerWheelTests {
+    @Test
+    public void testExpiresOnTime() {
+        Random random = new Random(8675309);
+        long tick = 1000;
+        TimerWheel<Long> wheel = new TimerWheel<Long>(tick, 0);
+        int count = 5000;
+        for (int x = 0; x < count; x++) {
+            //mostly near deadlines, some hours and days out, some past the range of the wheel
+            long deadline;
+            switch (x % 4) {
+                case 0:
+                    deadline = 1 + random.nextInt(300000);
+                    break;
+                case 1:
+                    deadline = 1 + random.nextInt(7200000);
+                    break;
+                case 2:
+                    deadline = 1 + (long) random.nextInt(3 * 86400) * 1000;
+                    break;
+                default:
+                    deadline = 100L * 86400000 + random.nextInt(86400000);
+                    break;
+            }
+            wheel.schedule(new TimerWheel.Timeout<Long>(deadline), deadline);
+        }
+
+        List<Long> expired = Lists.newArrayList();
+        long now = 0;
+        int seen = 0;
+        while (seen < count) {
+            now += 1 + random.nextInt(3 * (int) tick);
+            if (now > 90L * 86400000 && now < 100L * 86400000) {
+                now = 100L * 86400000;
+            }
+            wheel.advance(now, expired);
+            for (long deadline : expired) {
+                assertThat(now, greaterThanOrEqualTo(deadline));
+                assertThat(now, lessThan(deadline + 4 * tick));
+            }
+            seen += expired.size();
+            expired.clear();
+        }
+        assertThat(seen, equalTo(count));
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        TimerWheel<String> wheel = new TimerWheel<String>(100, 10000);
+        TimerWheel.Timeout<String> moved = new TimerWheel.Timeout<String>("moved");
+        TimerWheel.Timeout<String> cancelled = new TimerWheel.Timeout<String>("cancelled");
+        wheel.schedule(moved, 10500);
+        wheel.schedule(cancelled, 10500);
+        wheel.schedule(moved, 60000);
+        wheel.cancel(cancelled);
+        assertThat(cancelled.isScheduled(), equalTo(false));
+
+        List<String> expired = Lists.newArrayList();
+        wheel.advance(59900, expired);
+        assertThat(expired.isEmpty(), equalTo(true));
+        wheel.advance(60000, expired);
+        assertThat(expired, equalTo((List<String>) Lists.newArrayList("moved")));
+        assertThat(moved.isScheduled(), equalTo(false));
+    }
+
+    @Test
+    public void testPastDeadlineFiresOnNextTick() {
+        TimerWheel<String> wheel = new TimerWheel<String>(100, 10000);
+        wheel.schedule(new TimerWheel.Timeout<String>("late"), 5000);
+        List<String> expired = Lists.newArrayList();
+        wheel.advance(10100, expired);
+        assertThat(expired, equalTo((List<String>) Lists.newArrayList("late")));
+    }
+}
@@ -0,0 +1,146 @@
+package com.arpnetworking.tsdaggregator.publishing;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.arpnetworking.tsdaggregator.AggregatedData;
+import com.arpnetworking.tsdaggregator.aggserver.Messages;
+import com.arpnetworking.tsdaggregator.statistics.MeanStatistic;
+import com.arpnetworking.tsdaggregator.statistics.NStatistic;
+import com.arpnetworking.tsdaggregator.statistics.TP99;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the AggServerPublisher class
+ *
+ * @author barp
+ */
+public class AggServerPublisherTests {
+    private static final DateTime START = new DateTime(2011, 1, 3, 15, 20, 0, 0, DateTimeZone.UTC);
+    private static final double[] SAMPLES = {1d, 2d, 2d, 300d};
+
+    @Test
+    public void testSamplesWithEveryStatistic() {
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(period("metric", Period.minutes(5)),
+                AggServerPublisher.SampleMode.Each);
+        assertThat(records.size(), equalTo(3));
+        for (Messages.AggregationRecord record : records) {
+            assertThat(record.getStatisticSamplesList(), equalTo(Arrays.asList(1d, 2d, 2d, 300d)));
+        }
+    }
+
+    @Test
+    public void testSamplesOncePerPeriod() {
+        AggregatedData[] data = concat(period("metric", Period.minutes(5)), period("metric", Period.hours(1)),
+                period("other", Period.minutes(5)));
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(data,
+                AggServerPublisher.SampleMode.Once);
+        assertThat(records.size(), equalTo(12));
+        int samplesRecords = 0;
+        for (Messages.AggregationRecord record : records) {
+            assertThat(record.getRawSampleCount(), equalTo(4));
+            if (record.getStatistic().equals(AggServerPublisher.SAMPLES_STATISTIC)) {
+                samplesRecords++;
+                assertThat(record.getStatisticValue(), equalTo(4d));
+                assertThat(record.getStatisticSamplesList(), equalTo(Arrays.asList(1d, 2d, 2d, 300d)));
+            } else {
+                assertThat(record.getStatisticSamplesCount(), equalTo(0));
+            }
+        }
+        assertThat(samplesRecords, equalTo(3));
+    }
+
+    @Test
+    public void testHistogramOncePerPeriod() {
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(period("metric", Period.minutes(5)),
+                AggServerPublisher.SampleMode.Histogram);
+        assertThat(records.size(), equalTo(4));
+        Messages.AggregationRecord histogram = records.get(1);
+        assertThat(histogram.getStatistic(), equalTo(AggServerPublisher.HISTOGRAM_STATISTIC));
+        List<Double> valueCounts = histogram.getStatisticSamplesList();
+        assertThat(valueCounts.size(), equalTo(6));
+        assertThat(valueCounts.get(0), closeTo(1d, 1d / 32));
+        assertThat(valueCounts.get(1), equalTo(1d));
+        assertThat(valueCounts.get(2), closeTo(2d, 2d / 32));
+        assertThat(valueCounts.get(3), equalTo(2d));
+        assertThat(valueCounts.get(4), closeTo(300d, 300d / 32));
+        assertThat(valueCounts.get(5), equalTo(1d));
+    }
+
+    @Test
+    public void testNoSamplesRecordWithoutSamples() {
+        AggregatedData[] data = {new AggregatedData(new NStatistic(), "service", "host", "metric", 4d, START,
+                Period.minutes(5), new double[0])};
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(data,
+                AggServerPublisher.SampleMode.Once);
+        assertThat(records.size(), equalTo(1));
+    }
+
+    @Test
+    public void testAccumulatedMetricSendsSampleCount() {
+        AggregatedData[] data = {
+                new AggregatedData(new NStatistic(), "service", "host", "metric", 40d, START, Period.minutes(5),
+                        new double[0], 40, new double[0]),
+                new AggregatedData(new MeanStatistic(), "service", "host", "metric", 2d, START, Period.minutes(5),
+                        new double[0], 40, new double[0])};
+        for (AggServerPublisher.SampleMode mode : AggServerPublisher.SampleMode.values()) {
+            List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(data, mode);
+            assertThat(records.size(), equalTo(2));
+            for (Messages.AggregationRecord record : records) {
+                assertThat(record.getStatisticSamplesCount(), equalTo(0));
+                if (mode != AggServerPublisher.SampleMode.Each) {
+                    assertThat(record.getRawSampleCount(), equalTo(40));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHistogramFromSketch() {
+        double[] valueCounts = {1d, 1d, 2d, 2d, 300d, 1d};
+        AggregatedData[] data = {
+                new AggregatedData(new NStatistic(), "service", "host", "metric", 4d, START, Period.minutes(5),
+                        new double[0], 4, valueCounts),
+                new AggregatedData(new TP99(), "service", "host", "metric", 300d, START, Period.minutes(5),
+                        new double[0], 4, valueCounts)};
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(data,
+                AggServerPublisher.SampleMode.Histogram);
+        assertThat(records.size(), equalTo(3));
+        Messages.AggregationRecord histogram = records.get(1);
+        assertThat(histogram.getStatistic(), equalTo(AggServerPublisher.HISTOGRAM_STATISTIC));
+        assertThat(histogram.getRawSampleCount(), equalTo(4));
+        assertThat(histogram.getStatisticSamplesList(), equalTo(Arrays.asList(1d, 1d, 2d, 2d, 300d, 1d)));
+        assertThat(records.get(2).getRawSampleCount(), equalTo(4));
+    }
+
+    @Test
+    public void testSkipsShortPeriods() {
+        List<Messages.AggregationRecord> records = AggServerPublisher.buildRecords(period("metric", Period.seconds(30)),
+                AggServerPublisher.SampleMode.Once);
+        assertThat(records.size(), equalTo(0));
+    }
+
+    private static AggregatedData[] period(String metric, Period period) {
+        return new AggregatedData[]{
+                new AggregatedData(new NStatistic(), "service", "host", metric, 4d, START, period, SAMPLES),
+                new AggregatedData(new MeanStatistic(), "service", "host", metric, 76.25d, START, period, SAMPLES),
+                new AggregatedData(new TP99(), "service", "host", metric, 300d, START, period, SAMPLES)};
+    }
+
+    private static AggregatedData[] concat(AggregatedData[]... periods) {
+        AggregatedData[] all = new AggregatedData[0];
+        for (AggregatedData[] period : periods) {
+            int length = all.length;
+            all = Arrays.copyOf(all, length + period.length);
+            System.arraycopy(period, 0, all, length, period.length);
+        }
+        return all;
+    }
+}
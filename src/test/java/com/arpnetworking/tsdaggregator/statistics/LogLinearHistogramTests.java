@@ -0,0 +1,122 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the LogLinearHistogram class
+ *
+ * @author barp
+ */
+public class LogLinearHistogramTests {
+	private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999, 1};
+
+	@Test
+	public void testQuantilesWithinBucketResolution() {
+		Random random = new Random(8675309);
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		double[] values = new double[100000];
+		for (int x = 0; x < values.length; x++) {
+			values[x] = Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1);
+			histogram.add(values[x]);
+		}
+		histogram.add(0d);
+		values = Arrays.copyOf(values, values.length + 1);
+		assertAccurate(histogram, values);
+	}
+
+	@Test
+	public void testMergeMatchesSingleHistogram() {
+		Random random = new Random(42);
+		LogLinearHistogram all = new LogLinearHistogram();
+		LogLinearHistogram low = new LogLinearHistogram();
+		LogLinearHistogram high = new LogLinearHistogram();
+		for (int x = 0; x < 10000; x++) {
+			double value = random.nextDouble() * 1000;
+			all.add(value);
+			low.add(value);
+			double big = 1e6 + random.nextDouble() * 1e9;
+			all.add(-big);
+			high.add(-big);
+		}
+		low.merge(high);
+		low.merge(new LogLinearHistogram());
+		assertThat(low.getCount(), equalTo(all.getCount()));
+		for (double quantile : QUANTILES) {
+			assertThat(low.getQuantile(quantile), equalTo(all.getQuantile(quantile)));
+		}
+	}
+
+	@Test
+	public void testIgnoresNonFiniteAndClampsExtremes() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		histogram.add(Double.NaN);
+		histogram.add(Double.POSITIVE_INFINITY);
+		assertThat(histogram.getCount(), equalTo(0L));
+		assertThat(Double.isNaN(histogram.getQuantile(0.5)), equalTo(true));
+		histogram.add(1e-300);
+		histogram.add(0d);
+		histogram.add(1e300);
+		histogram.add(Double.MAX_VALUE);
+		assertThat(histogram.getBucketCount(0d), equalTo(2L));
+		assertThat(histogram.getBucketCount(1e300), equalTo(2L));
+		assertThat(histogram.getQuantile(0), equalTo(0d));
+		assertThat(histogram.getQuantile(1), equalTo(Double.MAX_VALUE));
+	}
+
+	@Test
+	public void testSerializationRoundTrip() throws IOException {
+		Random random = new Random(8675309);
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (int x = 0; x < 10000; x++) {
+			histogram.add(Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		histogram.writeTo(new DataOutputStream(bytes));
+		new LogLinearHistogram().writeTo(new DataOutputStream(bytes));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		LogLinearHistogram read = new LogLinearHistogram();
+		read.add(5d);
+		read.readFrom(in);
+		assertThat(read.getCount(), equalTo(histogram.getCount()));
+		assertThat(read.getMin(), equalTo(histogram.getMin()));
+		assertThat(read.getMax(), equalTo(histogram.getMax()));
+		for (double quantile : QUANTILES) {
+			assertThat(read.getQuantile(quantile), equalTo(histogram.getQuantile(quantile)));
+		}
+		read.readFrom(in);
+		assertThat(read.getCount(), equalTo(0L));
+	}
+
+	@Test
+	public void testClearKeepsNothing() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		histogram.add(3d);
+		histogram.add(-7d);
+		histogram.clear();
+		histogram.add(100d);
+		assertThat(histogram.getQuantile(0.5), equalTo(100d));
+		assertThat(histogram.getBucketCount(3d), equalTo(0L));
+	}
+
+	private static void assertAccurate(LogLinearHistogram histogram, double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for (double quantile : QUANTILES) {
+			double expected = sorted[(int) Math.ceil(quantile * (sorted.length - 1))];
+			double actual = histogram.getQuantile(quantile);
+			assertThat(Math.abs(actual - expected), lessThanOrEqualTo(Math.abs(expected) / 32 + 1e-12));
+		}
+	}
+}
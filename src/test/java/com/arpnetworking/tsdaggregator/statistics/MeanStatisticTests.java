@@ -37,4 +37,11 @@ public class MeanStatisticTests {
 		Double calculated = stat.calculate(vals);
 		assertThat(calculated, equalTo(0d));
 	}
+
+	@Test
+	public void testCalculatePrimitive() {
+		MeanStatistic stat = new MeanStatistic();
+		double[] vals = {12d, 20d, 7d, 100d};
+		assertThat(stat.calculate(vals, 3), equalTo(13d));
+	}
 }
@@ -0,0 +1,64 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the MultiSelect class
+ *
+ * @author barp
+ */
+public class MultiSelectTests {
+	@Test
+	public void testSelectMatchesSort() {
+		Random random = new Random(8675309);
+		for (int trial = 0; trial < 200; trial++) {
+			int length = 1 + random.nextInt(2000);
+			double[] values = new double[length + 5];
+			for (int x = 0; x < values.length; x++) {
+				//lots of duplicates, like millisecond timers
+				values[x] = trial % 2 == 0 ? random.nextInt(50) : random.nextGaussian();
+			}
+			double[] sorted = Arrays.copyOf(values, length);
+			Arrays.sort(sorted);
+
+			int[] ranks = new int[1 + random.nextInt(6)];
+			for (int x = 0; x < ranks.length; x++) {
+				ranks[x] = random.nextInt(length);
+			}
+			MultiSelect.select(values, length, ranks);
+			for (int rank : ranks) {
+				assertThat(values[rank], equalTo(sorted[rank]));
+			}
+		}
+	}
+
+	@Test
+	public void testSelectExtremes() {
+		double[] values = {5d, 3d, 9d, 1d, 7d};
+		MultiSelect.select(values, values.length, new int[]{0, 4});
+		assertThat(values[0], equalTo(1d));
+		assertThat(values[4], equalTo(9d));
+	}
+
+	@Test
+	public void testSelectOrdersNaNLast() {
+		double[] values = {Double.NaN, 3d, 2d, Double.NaN, 1d};
+		MultiSelect.select(values, values.length, new int[]{0, 2, 4});
+		assertThat(values[0], equalTo(1d));
+		assertThat(values[2], equalTo(3d));
+		assertThat(Double.isNaN(values[4]), equalTo(true));
+	}
+
+	@Test
+	public void testSelectWithNoRanks() {
+		double[] values = {5d, 3d};
+		MultiSelect.select(values, values.length, new int[0]);
+		assertThat(values[0], equalTo(5d));
+	}
+}
@@ -184,4 +184,16 @@ public class PStatTests {
 		Double calculated = stat.calculate(vals);
 		assertThat(calculated, equalTo(99d));
 	}
+
+	@Test
+	public void testCalculatePrimitiveMatchesBoxed() {
+		double[] vals = new double[thousands.length + 10];
+		for (int x = 0; x < thousands.length; x++) {
+			vals[x] = thousands[x];
+		}
+		TPStatistic[] stats = {new TP0(), new TP50(), new TP90(), new TP95(), new TP99(), new TP99p9(), new TP100()};
+		for (TPStatistic stat : stats) {
+			assertThat(stat.calculate(vals, thousands.length), equalTo(stat.calculate(thousands).doubleValue()));
+		}
+	}
 }
@@ -0,0 +1,156 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the QuantileSketch class
+ *
+ * @author barp
+ */
+public class QuantileSketchTests {
+	private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999, 1};
+
+	@Test
+	public void testQuantilesWithinRelativeAccuracy() {
+		Random random = new Random(8675309);
+		QuantileSketch sketch = new QuantileSketch();
+		double[] values = new double[100000];
+		for (int x = 0; x < values.length; x++) {
+			//wide, skewed range of values like latencies
+			values[x] = Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1);
+			sketch.add(values[x]);
+		}
+		assertAccurate(sketch, values);
+	}
+
+	@Test
+	public void testQuantilesInOnePass() {
+		Random random = new Random(8675309);
+		QuantileSketch sketch = new QuantileSketch();
+		for (int x = 0; x < 10000; x++) {
+			sketch.add(Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1));
+		}
+		sketch.add(0);
+		double[] quantiles = {0.999, 0, 0.5, 1, 0.9995, 0.1, 0.5};
+		double[] values = sketch.getQuantiles(quantiles);
+		for (int x = 0; x < quantiles.length; x++) {
+			assertThat(values[x], equalTo(sketch.getQuantile(quantiles[x])));
+		}
+		assertThat(values[1], equalTo(sketch.getMin()));
+		assertThat(values[3], equalTo(sketch.getMax()));
+		assertTrue(Double.isNaN(new QuantileSketch().getQuantiles(quantiles)[2]));
+	}
+
+	@Test
+	public void testSerializationRoundTrip() throws IOException {
+		Random random = new Random(8675309);
+		QuantileSketch sketch = new QuantileSketch(0.02, 512);
+		for (int x = 0; x < 10000; x++) {
+			sketch.add(Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1));
+		}
+		sketch.add(0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sketch.writeTo(new DataOutputStream(bytes));
+		QuantileSketch read = QuantileSketch.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(read.getRelativeAccuracy(), equalTo(0.02));
+		assertThat(read.getMaxBuckets(), equalTo(512));
+		assertThat(read.getCount(), equalTo(sketch.getCount()));
+		assertThat(read.getSum(), equalTo(sketch.getSum()));
+		assertThat(read.getMin(), equalTo(sketch.getMin()));
+		assertThat(read.getMax(), equalTo(sketch.getMax()));
+		for (double quantile : QUANTILES) {
+			assertThat(read.getQuantile(quantile), equalTo(sketch.getQuantile(quantile)));
+		}
+	}
+
+	@Test
+	public void testExactSummary() {
+		QuantileSketch sketch = new QuantileSketch();
+		sketch.add(3);
+		sketch.add(-2);
+		sketch.add(0);
+		sketch.add(7);
+		assertThat(sketch.getCount(), equalTo(4L));
+		assertThat(sketch.getSum(), equalTo(8d));
+		assertThat(sketch.getMin(), equalTo(-2d));
+		assertThat(sketch.getMax(), equalTo(7d));
+		assertThat(sketch.getQuantile(0), equalTo(-2d));
+		assertThat(sketch.getQuantile(1), equalTo(7d));
+	}
+
+	@Test
+	public void testMergeMatchesSingleSketch() {
+		Random random = new Random(42);
+		QuantileSketch whole = new QuantileSketch();
+		QuantileSketch left = new QuantileSketch();
+		QuantileSketch right = new QuantileSketch();
+		double[] values = new double[20000];
+		for (int x = 0; x < values.length; x++) {
+			values[x] = random.nextDouble() * 1000;
+			whole.add(values[x]);
+			if (x % 2 == 0) {
+				left.add(values[x]);
+			} else {
+				right.add(values[x]);
+			}
+		}
+		left.merge(right);
+		assertThat(left.getCount(), equalTo(whole.getCount()));
+		for (double quantile : QUANTILES) {
+			assertThat(left.getQuantile(quantile), equalTo(whole.getQuantile(quantile)));
+		}
+		assertAccurate(left, values);
+	}
+
+	@Test
+	public void testCollapseKeepsHighQuantiles() {
+		QuantileSketch sketch = new QuantileSketch(0.01, 64);
+		double[] values = new double[10000];
+		for (int x = 0; x < values.length; x++) {
+			values[x] = Math.pow(10, x * 12d / values.length);
+			sketch.add(values[x]);
+		}
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		double expected = sorted[(int) Math.ceil(0.99 * (sorted.length - 1))];
+		assertThat(Math.abs(sketch.getQuantile(0.99) - expected), lessThanOrEqualTo(expected * 0.01));
+		assertThat(sketch.getMin(), equalTo(1d));
+	}
+
+	@Test
+	public void testEmptyAndClear() {
+		QuantileSketch sketch = new QuantileSketch();
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+		sketch.add(5);
+		sketch.add(Double.NaN);
+		assertThat(sketch.getCount(), equalTo(1L));
+		sketch.clear();
+		assertThat(sketch.getCount(), equalTo(0L));
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+		sketch.add(2);
+		assertThat(sketch.getQuantile(0.5), equalTo(2d));
+	}
+
+	private static void assertAccurate(QuantileSketch sketch, double[] values) {
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		for (double quantile : QUANTILES) {
+			double expected = sorted[(int) Math.ceil(quantile * (sorted.length - 1))];
+			double actual = sketch.getQuantile(quantile);
+			assertThat(Math.abs(actual - expected), lessThanOrEqualTo(Math.abs(expected) * 0.01 + 1e-12));
+		}
+	}
+}
@@ -29,4 +29,11 @@ public class SumStatisticTests {
 		Double calculated = stat.calculate(vals);
 		assertThat(calculated, equalTo(35d));
 	}
+
+	@Test
+	public void testCalculatePrimitive() {
+		SumStatistic stat = new SumStatistic();
+		double[] vals = {12d, 18d, 5d, 100d};
+		assertThat(stat.calculate(vals, 3), equalTo(35d));
+	}
 }
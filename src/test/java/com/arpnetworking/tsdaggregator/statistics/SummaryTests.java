@@ -0,0 +1,92 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the Summary class
+ *
+ * @author barp
+ */
+public class SummaryTests {
+	private static final BaseStatistic[] STATISTICS = {new NStatistic(), new SumStatistic(), new MeanStatistic(),
+			new FirstStatistic(), new LastStatistic(), new TP0(), new TP100()};
+
+	@Test
+	public void testMatchesStatisticsOfSamples() {
+		Random random = new Random(42);
+		double[] values = new double[1000];
+		Summary summary = new Summary();
+		for (int x = 0; x < values.length; x++) {
+			values[x] = random.nextGaussian() * 100;
+			summary.add(values[x]);
+		}
+		assertMatches(summary, values);
+	}
+
+	@Test
+	public void testOrdersLikeSort() {
+		double[] values = {0d, Double.NaN, -0d, 5d, Double.NEGATIVE_INFINITY};
+		Summary summary = new Summary();
+		for (double value : values) {
+			summary.add(value);
+		}
+		assertMatches(summary, values);
+	}
+
+	@Test
+	public void testMergeFollowsThisSummary() {
+		Summary first = new Summary();
+		Summary second = new Summary();
+		Summary empty = new Summary();
+		first.add(3d);
+		first.add(1d);
+		second.add(7d);
+		second.add(2d);
+		empty.merge(first);
+		empty.merge(second);
+		empty.merge(new Summary());
+		assertMatches(empty, new double[]{3d, 1d, 7d, 2d});
+	}
+
+	@Test
+	public void testClear() {
+		Summary summary = new Summary();
+		summary.add(3d);
+		summary.clear();
+		summary.add(4d);
+		assertMatches(summary, new double[]{4d});
+	}
+
+	@Test
+	public void testSerializationRoundTrip() throws IOException {
+		Summary summary = new Summary();
+		summary.add(3d);
+		summary.add(-1d);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		summary.writeTo(new DataOutputStream(bytes));
+		Summary read = Summary.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertMatches(read, new double[]{3d, -1d});
+	}
+
+	private static void assertMatches(Summary summary, double[] values) {
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		for (BaseStatistic statistic : STATISTICS) {
+			double[] samples = statistic instanceof OrderedStatistic ? sorted : values;
+			double expected = statistic.calculate(samples, samples.length);
+			double actual = ((SummaryStatistic) statistic).calculate(summary);
+			assertThat(statistic.getName(), Double.doubleToLongBits(actual), equalTo(Double.doubleToLongBits(expected)));
+		}
+	}
+}
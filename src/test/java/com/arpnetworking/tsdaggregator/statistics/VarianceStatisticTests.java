@@ -0,0 +1,82 @@
+package com.arpnetworking.tsdaggregator.statistics;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for the VarianceStatistic class
+ *
+ * @author barp
+ */
+public class VarianceStatisticTests {
+	@Test
+	public void testGetName() {
+		assertThat(new VarianceStatistic().getName(), equalTo("variance"));
+		assertThat(new StandardDeviationStatistic().getName(), equalTo("stddev"));
+	}
+
+	@Test
+	public void testCalculate() {
+		Double[] vals = {2d, 4d, 4d, 4d, 5d, 5d, 7d, 9d};
+		assertThat(new VarianceStatistic().calculate(vals), closeTo(32d / 7, 1e-12));
+		assertThat(new StandardDeviationStatistic().calculate(vals), closeTo(Math.sqrt(32d / 7), 1e-12));
+	}
+
+	@Test
+	public void testCalculateWithOneEntry() {
+		double[] vals = {12d, 20d};
+		assertThat(new VarianceStatistic().calculate(vals, 1), equalTo(0d));
+	}
+
+	@Test
+	public void testAccumulatorMatchesCalculate() {
+		double[] vals = {1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16};
+		Accumulator accumulator = new VarianceStatistic().createAccumulator();
+		for (double val : vals) {
+			accumulator.accept(val);
+		}
+		//the sum of squares formula loses everything to cancellation here
+		assertThat(accumulator.result(), closeTo(30d, 1e-6));
+		assertThat(accumulator.result(), closeTo(new VarianceStatistic().calculate(vals, vals.length), 1e-6));
+	}
+
+	@Test
+	public void testMerge() {
+		StandardDeviationStatistic stat = new StandardDeviationStatistic();
+		Accumulator first = stat.createAccumulator();
+		Accumulator second = stat.createAccumulator();
+		Accumulator empty = stat.createAccumulator();
+		double[] vals = {3d, -1d, 8d, 0.5d, 12d, 7d, 7d};
+		for (int x = 0; x < vals.length; x++) {
+			(x < 3 ? first : second).accept(vals[x]);
+		}
+		first.merge(second);
+		first.merge(empty);
+		assertThat(first.result(), closeTo(stat.calculate(vals, vals.length), 1e-12));
+		empty.merge(first);
+		assertThat(empty.result(), closeTo(stat.calculate(vals, vals.length), 1e-12));
+	}
+
+	@Test
+	public void testSerializationRoundTrip() throws IOException {
+		Accumulator accumulator = new VarianceStatistic().createAccumulator();
+		accumulator.accept(1d);
+		accumulator.accept(6d);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		accumulator.writeTo(new DataOutputStream(bytes));
+		Accumulator read = new VarianceStatistic().createAccumulator();
+		read.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(read.result(), equalTo(accumulator.result()));
+		read.accept(11d);
+		assertThat(read.result(), closeTo(25d, 1e-12));
+	}
+}